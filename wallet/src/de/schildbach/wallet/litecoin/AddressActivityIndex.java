@@ -0,0 +1,542 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.google.litecoin.core.Address;
+import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
+import com.google.litecoin.core.TransactionInput;
+import com.google.litecoin.core.TransactionOutput;
+import com.google.litecoin.core.Utils;
+import com.google.litecoin.core.Wallet;
+
+/**
+ * Per-address totals of the wallet keys, keyed by hash160: received, sent, number of transactions and block time of the last one. Kept
+ * up to date from the change sets of the {@link WalletChangeDispatcher} and stored in a small side file, so the address list can show
+ * and sort by activity without looking at a single transaction. The activity of transactions moved to the {@link TransactionArchive}
+ * is kept apart in the side file, so rebuilding from the wallet doesn't lose it.
+ */
+public final class AddressActivityIndex implements WalletChangeDispatcher.Listener
+{
+	public static final class Activity
+	{
+		public final long received;
+		public final long sent;
+		public final int numTransactions;
+		public final long lastSeen;
+
+		private Activity(final long received, final long sent, final int numTransactions, final long lastSeen)
+		{
+			this.received = received;
+			this.sent = sent;
+			this.numTransactions = numTransactions;
+			this.lastSeen = lastSeen;
+		}
+
+		public long balance()
+		{
+			return received - sent;
+		}
+
+		private Activity add(final long received, final long sent, final long time)
+		{
+			return new Activity(this.received + received, this.sent + sent, numTransactions + 1, Math.max(lastSeen, time));
+		}
+
+		private Activity seen(final long time)
+		{
+			return time > lastSeen ? new Activity(received, sent, numTransactions, time) : this;
+		}
+	}
+
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onActivityChanged();
+	}
+
+	public interface BlockTimes
+	{
+		/** @return time of the block in milliseconds, or 0 if not known */
+		long getBlockTime(Sha256Hash blockHash);
+	}
+
+	private static final Activity NO_ACTIVITY = new Activity(0, 0, 0, 0);
+
+	private final Wallet wallet;
+	private final WalletAddressIndex addressIndex;
+	private final File file;
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+
+	private final Map<ByteBuffer, Activity> activities = new ConcurrentHashMap<ByteBuffer, Activity>();
+	private final Map<ByteBuffer, Activity> archivedActivities = new HashMap<ByteBuffer, Activity>();
+	private final Set<Sha256Hash> countedTransactions = new HashSet<Sha256Hash>();
+	private final Set<Sha256Hash> unconfirmedTransactions = new HashSet<Sha256Hash>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private BlockTimes blockTimes;
+
+	private static final int FILE_MAGIC = 0x4c414149; // LAAI
+	private static final int FILE_VERSION = 2;
+	private static final int UNKNOWN_COUNT = -1;
+	private static final long SAVE_DELAY_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+
+	private static final String TAG = "Litecoin" + AddressActivityIndex.class.getSimpleName();
+
+	public AddressActivityIndex(final Wallet wallet, final WalletAddressIndex addressIndex, final File file, final Handler backgroundHandler)
+	{
+		this.wallet = wallet;
+		this.addressIndex = addressIndex;
+		this.file = file;
+		this.backgroundHandler = backgroundHandler;
+
+		backgroundHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				load();
+			}
+		});
+	}
+
+	private synchronized void load()
+	{
+		final long start = System.currentTimeMillis();
+
+		final Set<Transaction> transactions = wallet.getTransactions(true, true);
+
+		if (file.exists())
+		{
+			try
+			{
+				final Map<ByteBuffer, Activity> savedActivities = new HashMap<ByteBuffer, Activity>();
+				final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+				try
+				{
+					if (is.readInt() != FILE_MAGIC || is.readInt() != FILE_VERSION)
+						throw new IOException("unknown format");
+
+					final int numTransactions = is.readInt();
+					readActivities(is, savedActivities);
+					// doesn't depend on the wallet, so is kept even if the totals have to be recomputed
+					readActivities(is, archivedActivities);
+
+					// the totals are only valid for the set of transactions they were computed from
+					if (numTransactions == transactions.size())
+					{
+						activities.putAll(savedActivities);
+						for (final Transaction tx : transactions)
+						{
+							countedTransactions.add(tx.getHash());
+							if (tx.getConfidence().getConfidenceType() != ConfidenceType.BUILDING)
+								unconfirmedTransactions.add(tx.getHash());
+						}
+
+						Log.i(TAG, "loaded activity of " + activities.size() + " addresses, took " + (System.currentTimeMillis() - start) + "ms");
+						notifyListeners();
+						return;
+					}
+				}
+				finally
+				{
+					is.close();
+				}
+			}
+			catch (final IOException x)
+			{
+				Log.w(TAG, "cannot read " + file + ", rebuilding", x);
+				activities.clear();
+				archivedActivities.clear();
+			}
+		}
+
+		rebuild(transactions);
+	}
+
+	private synchronized void rebuild(final Set<Transaction> transactions)
+	{
+		final long start = System.currentTimeMillis();
+
+		// archived transactions are gone from the wallet, so their activity is the starting point
+		final Map<ByteBuffer, Activity> newActivities = new HashMap<ByteBuffer, Activity>(archivedActivities);
+		countedTransactions.clear();
+		unconfirmedTransactions.clear();
+		for (final Transaction tx : transactions)
+			count(newActivities, tx);
+
+		activities.clear();
+		activities.putAll(newActivities);
+
+		Log.i(TAG, "computed activity of " + activities.size() + " addresses from " + transactions.size() + " transactions, took "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		scheduleSave();
+		notifyListeners();
+	}
+
+	private void count(final Map<ByteBuffer, Activity> activities, final Transaction tx)
+	{
+		// for transactions first seen in a block, the update time is the time of that block
+		add(activities, amounts(addressIndex, tx), updateTime(tx));
+
+		countedTransactions.add(tx.getHash());
+		if (tx.getConfidence().getConfidenceType() != ConfidenceType.BUILDING)
+			unconfirmedTransactions.add(tx.getHash());
+	}
+
+	/**
+	 * A transaction seen before its block was counted with the time it was seen. Moves last seen of its addresses on to the time of the
+	 * block, if that is still known.
+	 */
+	private boolean confirm(final Transaction tx)
+	{
+		if (tx.getConfidence().getConfidenceType() != ConfidenceType.BUILDING)
+			return false;
+
+		unconfirmedTransactions.remove(tx.getHash());
+
+		long time = 0;
+		final Collection<Sha256Hash> appearsInHashes = tx.getAppearsInHashes();
+		if (blockTimes != null && appearsInHashes != null)
+			for (final Sha256Hash blockHash : appearsInHashes)
+				time = Math.max(time, blockTimes.getBlockTime(blockHash));
+
+		if (time == 0)
+			return false;
+
+		for (final ByteBuffer key : amounts(addressIndex, tx).keySet())
+		{
+			final Activity activity = activities.get(key);
+			if (activity != null)
+				activities.put(key, activity.seen(time));
+		}
+
+		return true;
+	}
+
+	private static long updateTime(final Transaction tx)
+	{
+		final Date updateTime = tx.getUpdateTime();
+		return updateTime != null ? updateTime.getTime() : 0;
+	}
+
+	/**
+	 * Adds received and sent amounts of a transaction to the addresses it touches.
+	 */
+	private static void add(final Map<ByteBuffer, Activity> activities, final Map<ByteBuffer, long[]> amounts, final long time)
+	{
+		for (final Map.Entry<ByteBuffer, long[]> entry : amounts.entrySet())
+		{
+			final Activity activity = activities.get(entry.getKey());
+			final long[] amount = entry.getValue();
+			activities.put(entry.getKey(), (activity != null ? activity : NO_ACTIVITY).add(amount[0], amount[1], time));
+		}
+	}
+
+	/**
+	 * @return received and sent amounts of the transaction, by address of the wallet it touches
+	 */
+	private static Map<ByteBuffer, long[]> amounts(final WalletAddressIndex addressIndex, final Transaction tx)
+	{
+		final Map<ByteBuffer, long[]> amounts = new HashMap<ByteBuffer, long[]>(4);
+
+		for (final TransactionOutput output : tx.getOutputs())
+		{
+			final byte[] hash160 = hash160(output);
+			if (hash160 != null && addressIndex.findKey(hash160) != null)
+				amount(amounts, hash160)[0] += output.getValue().longValue();
+		}
+
+		for (final TransactionInput input : tx.getInputs())
+		{
+			final TransactionOutput connectedOutput = input.getOutpoint().getConnectedOutput();
+			if (connectedOutput == null)
+				continue;
+
+			final byte[] hash160 = hash160(connectedOutput);
+			if (hash160 != null && addressIndex.findKey(hash160) != null)
+				amount(amounts, hash160)[1] += connectedOutput.getValue().longValue();
+		}
+
+		return amounts;
+	}
+
+	private static long[] amount(final Map<ByteBuffer, long[]> amounts, final byte[] hash160)
+	{
+		final ByteBuffer key = ByteBuffer.wrap(hash160);
+		long[] amount = amounts.get(key);
+		if (amount == null)
+		{
+			amount = new long[2];
+			amounts.put(key, amount);
+		}
+		return amount;
+	}
+
+	private static byte[] hash160(final TransactionOutput output)
+	{
+		try
+		{
+			final Address address = output.getScriptPubKey().getToAddress();
+			return address.getHash160();
+		}
+		catch (final ScriptException x)
+		{
+			try
+			{
+				// pay to pubkey, e.g. coinbase
+				return Utils.sha256hash160(output.getScriptPubKey().getPubKey());
+			}
+			catch (final ScriptException y)
+			{
+				return null;
+			}
+		}
+	}
+
+	public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
+	{
+		if (changes.contains(WalletChangeDispatcher.KIND_CLEARED))
+		{
+			// replaying the blockchain brings archived transactions back into the wallet
+			synchronized (this)
+			{
+				archivedActivities.clear();
+			}
+		}
+
+		if (changes.contains(WalletChangeDispatcher.KIND_REORGANIZE | WalletChangeDispatcher.KIND_CLEARED))
+		{
+			// transactions may have died or come back to life, or be gone altogether
+			rebuild(wallet.getTransactions(true, true));
+			return;
+		}
+
+		boolean changed = false;
+
+		synchronized (this)
+		{
+			for (final Sha256Hash hash : changes.transactions)
+			{
+				final boolean counted = countedTransactions.contains(hash);
+				if (counted && !unconfirmedTransactions.contains(hash))
+					continue;
+
+				final Transaction tx = wallet.getTransaction(hash);
+				if (tx == null)
+					continue;
+
+				if (counted)
+				{
+					changed |= confirm(tx);
+				}
+				else
+				{
+					count(activities, tx);
+					changed = true;
+				}
+			}
+		}
+
+		if (changed)
+		{
+			scheduleSave();
+			notifyListeners();
+		}
+	}
+
+	/**
+	 * @param blockTimes
+	 *            looks up the times of recent blocks, or null while there is no blockchain
+	 */
+	public synchronized void setBlockTimes(final BlockTimes blockTimes)
+	{
+		this.blockTimes = blockTimes;
+	}
+
+	/**
+	 * Moves the activity of transactions about to be pruned from the wallet into the archived totals of the side file. Only to be
+	 * called while no index is loaded. The totals themselves stay valid, as they already include these transactions.
+	 *
+	 * @param walletSize
+	 *            number of transactions in the wallet before pruning
+	 */
+	public static void archive(final File file, final WalletAddressIndex addressIndex, final Collection<Transaction> transactions,
+			final int walletSize) throws IOException
+	{
+		int numTransactions = UNKNOWN_COUNT;
+		final Map<ByteBuffer, Activity> activities = new HashMap<ByteBuffer, Activity>();
+		final Map<ByteBuffer, Activity> archivedActivities = new HashMap<ByteBuffer, Activity>();
+
+		if (file.exists())
+		{
+			final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if (is.readInt() == FILE_MAGIC && is.readInt() == FILE_VERSION)
+				{
+					numTransactions = is.readInt();
+					readActivities(is, activities);
+					readActivities(is, archivedActivities);
+				}
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+
+		for (final Transaction tx : transactions)
+			add(archivedActivities, amounts(addressIndex, tx), updateTime(tx));
+
+		// totals that were out of date before stay so, and will be recomputed on top of the archived activity
+		write(file, numTransactions == walletSize ? walletSize - transactions.size() : UNKNOWN_COUNT, activities, archivedActivities);
+	}
+
+	private static void readActivities(final DataInputStream is, final Map<ByteBuffer, Activity> activities) throws IOException
+	{
+		final int size = is.readInt();
+		for (int i = 0; i < size; i++)
+		{
+			final byte[] hash160 = new byte[20];
+			is.readFully(hash160);
+			activities.put(ByteBuffer.wrap(hash160), new Activity(is.readLong(), is.readLong(), is.readInt(), is.readLong()));
+		}
+	}
+
+	private static void writeActivities(final DataOutputStream os, final Map<ByteBuffer, Activity> activities) throws IOException
+	{
+		os.writeInt(activities.size());
+
+		for (final Map.Entry<ByteBuffer, Activity> entry : activities.entrySet())
+		{
+			final Activity activity = entry.getValue();
+			os.write(entry.getKey().array());
+			os.writeLong(activity.received);
+			os.writeLong(activity.sent);
+			os.writeInt(activity.numTransactions);
+			os.writeLong(activity.lastSeen);
+		}
+	}
+
+	private void scheduleSave()
+	{
+		backgroundHandler.removeCallbacks(saveRunnable);
+		backgroundHandler.postDelayed(saveRunnable, SAVE_DELAY_MS);
+	}
+
+	private final Runnable saveRunnable = new Runnable()
+	{
+		public void run()
+		{
+			try
+			{
+				save();
+			}
+			catch (final IOException x)
+			{
+				Log.w(TAG, "cannot write " + file, x);
+			}
+		}
+	};
+
+	private synchronized void save() throws IOException
+	{
+		write(file, countedTransactions.size(), activities, archivedActivities);
+	}
+
+	private static void write(final File file, final int numTransactions, final Map<ByteBuffer, Activity> activities,
+			final Map<ByteBuffer, Activity> archivedActivities) throws IOException
+	{
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try
+		{
+			os.writeInt(FILE_MAGIC);
+			os.writeInt(FILE_VERSION);
+			os.writeInt(numTransactions);
+			writeActivities(os, activities);
+			writeActivities(os, archivedActivities);
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tempFile.renameTo(file))
+			throw new IOException("cannot rename " + tempFile + " to " + file);
+	}
+
+	/**
+	 * @return activity of the address, never null
+	 */
+	public Activity getActivity(final Address address)
+	{
+		final Activity activity = activities.get(ByteBuffer.wrap(address.getHash160()));
+		return activity != null ? activity : NO_ACTIVITY;
+	}
+
+	public void addListener(final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private void notifyListeners()
+	{
+		callbackHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onActivityChanged();
+			}
+		});
+	}
+}
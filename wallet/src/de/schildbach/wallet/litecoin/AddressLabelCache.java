@@ -0,0 +1,225 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Application-wide cache of address book labels. Labels are loaded in batches on a background handler and invalidated per address,
+ * using the row URIs the {@link AddressBookProvider} notifies.
+ */
+public final class AddressLabelCache
+{
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onLabelsChanged();
+	}
+
+	private final ContentResolver contentResolver;
+	private final Uri contentUri;
+	private final Handler backgroundHandler;
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+
+	private final Map<String, String> labels = new ConcurrentHashMap<String, String>();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private static final String NULL_MARKER = "";
+	private static final int MAX_BATCH_SIZE = 200;
+
+	public AddressLabelCache(final Context context, final Handler backgroundHandler)
+	{
+		this.contentResolver = context.getContentResolver();
+		this.contentUri = AddressBookProvider.contentUri(context.getPackageName());
+		this.backgroundHandler = backgroundHandler;
+
+		contentResolver.registerContentObserver(contentUri, true, new ContentObserver(backgroundHandler)
+		{
+			@Override
+			public void onChange(final boolean selfChange)
+			{
+				// no URI before API level 16, so forget everything
+				labels.clear();
+				notifyListeners();
+			}
+
+			// overrides onChange(boolean, Uri) from API level 16 on
+			public void onChange(final boolean selfChange, final Uri uri)
+			{
+				if (uri == null || uri.getPathSegments().isEmpty())
+				{
+					onChange(selfChange);
+					return;
+				}
+
+				// row URIs are either .../address or .../address/rowId
+				final String address = uri.getPathSegments().get(0);
+				labels.remove(address);
+				load(Collections.singleton(address));
+				notifyListeners();
+			}
+		});
+	}
+
+	/**
+	 * Returns immediately and never queries the provider. Unknown addresses are scheduled for loading; listeners will be notified once
+	 * their label is available.
+	 *
+	 * @return label, or null if there is no label or it is not known yet
+	 */
+	public String lookup(final String address)
+	{
+		final String label = labels.get(address);
+		if (label == null)
+		{
+			prefetch(Collections.singleton(address));
+			return null;
+		}
+
+		return label != NULL_MARKER ? label : null;
+	}
+
+	/**
+	 * Schedules loading all labels of the given addresses that are not cached yet, in as few queries as possible.
+	 */
+	public void prefetch(final Collection<String> addresses)
+	{
+		final List<String> missing = missing(addresses);
+		if (missing.isEmpty())
+			return;
+
+		backgroundHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				if (load(missing))
+					notifyListeners();
+			}
+		});
+	}
+
+	/**
+	 * Blocking variant for background threads.
+	 *
+	 * @return label, or null if there is no label
+	 */
+	public String resolve(final String address)
+	{
+		if (!labels.containsKey(address))
+			load(Collections.singleton(address));
+
+		final String label = labels.get(address);
+		return label != null && label != NULL_MARKER ? label : null;
+	}
+
+	/**
+	 * Loads labels of the given addresses on the calling thread.
+	 *
+	 * @return true if any label was loaded
+	 */
+	public boolean load(final Collection<String> addresses)
+	{
+		final List<String> missing = missing(addresses);
+		boolean loaded = false;
+
+		for (int from = 0; from < missing.size(); from += MAX_BATCH_SIZE)
+		{
+			final List<String> batch = missing.subList(from, Math.min(from + MAX_BATCH_SIZE, missing.size()));
+
+			final StringBuilder selectionArg = new StringBuilder();
+			for (final String address : batch)
+			{
+				if (selectionArg.length() > 0)
+					selectionArg.append(',');
+				selectionArg.append(address);
+			}
+
+			final Cursor cursor = contentResolver.query(contentUri, null, AddressBookProvider.SELECTION_IN, new String[] { selectionArg.toString() },
+					null);
+
+			if (cursor != null)
+			{
+				final int addressIndex = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_ADDRESS);
+				final int labelIndex = cursor.getColumnIndexOrThrow(AddressBookProvider.KEY_LABEL);
+
+				while (cursor.moveToNext())
+				{
+					final String label = cursor.getString(labelIndex);
+					labels.put(cursor.getString(addressIndex), label != null ? label : NULL_MARKER);
+					loaded = true;
+				}
+
+				cursor.close();
+			}
+
+			for (final String address : batch)
+				if (!labels.containsKey(address))
+					labels.put(address, NULL_MARKER);
+		}
+
+		return loaded;
+	}
+
+	private List<String> missing(final Collection<String> addresses)
+	{
+		final Set<String> missing = new LinkedHashSet<String>();
+		for (final String address : addresses)
+			if (address != null && !labels.containsKey(address))
+				missing.add(address);
+
+		return new ArrayList<String>(missing);
+	}
+
+	public void addListener(final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private void notifyListeners()
+	{
+		callbackHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onLabelsChanged();
+			}
+		});
+	}
+}
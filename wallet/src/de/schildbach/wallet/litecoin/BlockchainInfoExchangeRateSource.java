@@ -0,0 +1,84 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The blockchain.info ticker, which has bitcoin prices in many currencies in a single document. It has no litecoin prices, so its
+ * rates are only useful for cross rates.
+ */
+public final class BlockchainInfoExchangeRateSource extends ExchangeRateSource
+{
+	public static final String URL = "https://blockchain.info/ticker";
+
+	private static final String[] CURRENCIES = { "USD", "EUR", "GBP", "JPY", "CNY", "CAD", "AUD", "NZD", "CHF", "SEK", "DKK", "PLN",
+			"RUB", "BRL", "HKD", "SGD", "THB" };
+
+	private static final List<String> PAIRS = new ArrayList<String>(CURRENCIES.length);
+	static
+	{
+		for (final String currency : CURRENCIES)
+			PAIRS.add(pair("BTC", currency));
+	}
+
+	private final String url;
+
+	private static final int TIMEOUT_MS = 15 * 1000;
+
+	public BlockchainInfoExchangeRateSource(final String url, final HttpFetcher fetcher)
+	{
+		super(fetcher);
+
+		this.url = url;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "blockchain.info";
+	}
+
+	@Override
+	public Collection<String> getPairs()
+	{
+		return PAIRS;
+	}
+
+	@Override
+	public Map<String, Long> fetch(final Collection<String> pairs, final long deadline) throws IOException
+	{
+		final Map<String, Long> numbers = fetchNumbers(new URL(url), "15m", timeout(deadline, TIMEOUT_MS));
+
+		final Map<String, Long> rates = new HashMap<String, Long>(pairs.size());
+		for (final String pair : pairs)
+		{
+			final Long rate = numbers.get(quote(pair));
+			if (rate != null)
+				rates.put(pair, rate);
+		}
+
+		return rates;
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.util.Log;
+
+/**
+ * The btc-e exchange, which has one ticker per pair. Tickers are requested in parallel.
+ */
+public final class BtceExchangeRateSource extends ExchangeRateSource
+{
+	public static final String BASE_URL = "https://btc-e.com/api/2/";
+
+	private static final Map<String, String> TICKERS = new LinkedHashMap<String, String>();
+	static
+	{
+		TICKERS.put(pair("LTC", "USD"), "14/ticker");
+		TICKERS.put(pair("LTC", "BTC"), "10/ticker");
+		TICKERS.put(pair("LTC", "RUR"), "ltc_rur/ticker");
+		TICKERS.put(pair("BTC", "EUR"), "btc_eur/ticker");
+		TICKERS.put(pair("BTC", "USD"), "btc_usd/ticker");
+	}
+
+	private final String baseUrl;
+	private final ExecutorService executor;
+
+	private static final int TIMEOUT_MS = 15 * 1000;
+
+	private static final String TAG = "Litecoin" + BtceExchangeRateSource.class.getSimpleName();
+
+	public BtceExchangeRateSource(final String baseUrl, final ExecutorService executor, final HttpFetcher fetcher)
+	{
+		super(fetcher);
+
+		this.baseUrl = baseUrl;
+		this.executor = executor;
+	}
+
+	@Override
+	public String getName()
+	{
+		return "btc-e.com";
+	}
+
+	@Override
+	public Collection<String> getPairs()
+	{
+		return TICKERS.keySet();
+	}
+
+	@Override
+	public Map<String, Long> fetch(final Collection<String> pairs, final long deadline) throws IOException
+	{
+		final Map<String, Future<Long>> futures = new HashMap<String, Future<Long>>(pairs.size());
+		for (final String pair : pairs)
+			futures.put(pair, executor.submit(new TickerCall(new URL(baseUrl + TICKERS.get(pair)), deadline)));
+
+		final Map<String, Long> rates = new HashMap<String, Long>(pairs.size());
+		IOException lastError = null;
+
+		for (final Map.Entry<String, Future<Long>> entry : futures.entrySet())
+		{
+			final Future<Long> future = entry.getValue();
+
+			try
+			{
+				rates.put(entry.getKey(), future.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS));
+			}
+			catch (final TimeoutException x)
+			{
+				future.cancel(true);
+				lastError = new IOException("ticker " + entry.getKey() + " missed deadline");
+			}
+			catch (final ExecutionException x)
+			{
+				Log.i(TAG, "ticker " + entry.getKey() + " failed: " + x.getCause());
+				lastError = new IOException("ticker " + entry.getKey() + " failed: " + x.getCause());
+			}
+			catch (final InterruptedException x)
+			{
+				future.cancel(true);
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+
+		if (rates.isEmpty() && lastError != null)
+			throw lastError;
+
+		return rates;
+	}
+
+	private final class TickerCall implements Callable<Long>
+	{
+		private final URL url;
+		private final long deadline;
+
+		public TickerCall(final URL url, final long deadline)
+		{
+			this.url = url;
+			this.deadline = deadline;
+		}
+
+		public Long call() throws IOException
+		{
+			final Long rate = fetchNumbers(url, "avg", timeout(deadline, TIMEOUT_MS)).get("ticker");
+			if (rate == null)
+				throw new IOException("no ticker in " + url);
+
+			return rate;
+		}
+	}
+}
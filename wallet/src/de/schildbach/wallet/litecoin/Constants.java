@@ -56,6 +56,9 @@ public class Constants
 	private static final String EXTERNAL_WALLET_KEY_BACKUP_PROD = "litecoin-wallet-keys";
 	private static final String EXTERNAL_WALLET_KEY_BACKUP_TEST = "litecoin-wallet-keys-testnet";
 	public static final String EXTERNAL_WALLET_KEY_BACKUP = TEST ? EXTERNAL_WALLET_KEY_BACKUP_TEST : EXTERNAL_WALLET_KEY_BACKUP_PROD;
+	private static final String EXTERNAL_TRANSACTIONS_EXPORT_PROD = "litecoin-wallet-transactions";
+	private static final String EXTERNAL_TRANSACTIONS_EXPORT_TEST = "litecoin-wallet-transactions-testnet";
+	public static final String EXTERNAL_TRANSACTIONS_EXPORT = TEST ? EXTERNAL_TRANSACTIONS_EXPORT_TEST : EXTERNAL_TRANSACTIONS_EXPORT_PROD;
 
 	private static final String WALLET_KEY_BACKUP_SNAPSHOT_PROD = "key-backup-snapshot";
 	private static final String WALLET_KEY_BACKUP_SNAPSHOT_TEST = "key-backup-snapshot-testnet";
@@ -69,6 +72,25 @@ public class Constants
 	private static final String BLOCKCHAIN_FILENAME_TEST = "blockchain-testnet";
 	public static final String BLOCKCHAIN_FILENAME = TEST ? BLOCKCHAIN_FILENAME_TEST : BLOCKCHAIN_FILENAME_PROD;
 
+	private static final String TRANSACTION_ARCHIVE_FILENAME_PROD = "transaction-archive";
+	private static final String TRANSACTION_ARCHIVE_FILENAME_TEST = "transaction-archive-testnet";
+	public static final String TRANSACTION_ARCHIVE_FILENAME = TEST ? TRANSACTION_ARCHIVE_FILENAME_TEST : TRANSACTION_ARCHIVE_FILENAME_PROD;
+
+	private static final String ADDRESS_ACTIVITY_FILENAME_PROD = "address-activity";
+	private static final String ADDRESS_ACTIVITY_FILENAME_TEST = "address-activity-testnet";
+	public static final String ADDRESS_ACTIVITY_FILENAME = TEST ? ADDRESS_ACTIVITY_FILENAME_TEST : ADDRESS_ACTIVITY_FILENAME_PROD;
+
+	private static final String EXCHANGE_RATES_FILENAME_PROD = "exchange-rates";
+	private static final String EXCHANGE_RATES_FILENAME_TEST = "exchange-rates-testnet";
+	public static final String EXCHANGE_RATES_FILENAME = TEST ? EXCHANGE_RATES_FILENAME_TEST : EXCHANGE_RATES_FILENAME_PROD;
+
+	private static final String EXCHANGE_RATE_HISTORY_DIRECTORY_PROD = "exchange-rate-history";
+	private static final String EXCHANGE_RATE_HISTORY_DIRECTORY_TEST = "exchange-rate-history-testnet";
+	public static final String EXCHANGE_RATE_HISTORY_DIRECTORY = TEST ? EXCHANGE_RATE_HISTORY_DIRECTORY_TEST
+			: EXCHANGE_RATE_HISTORY_DIRECTORY_PROD;
+
+	public static final String HTTP_CACHE_DIRECTORY = "http";
+
 	public static final String PEER_DISCOVERY_IRC_CHANNEL_PROD = "#litecoin";
 	public static final String PEER_DISCOVERY_IRC_CHANNEL_TEST = "#litecoinTEST3";
 
@@ -126,6 +148,7 @@ public class Constants
 	public static final String PREFS_KEY_ALERT_OLD_SDK_DISMISSED = "alert_old_sdk_dismissed";
 	public static final String PREFS_KEY_AUTOSYNC = "autosync";
 	public static final String PREFS_KEY_CONNECTIVITY_NOTIFICATION = "connectivity_notification";
+	public static final String PREFS_KEY_EXCHANGE_RATES_UNMETERED_ONLY = "exchange_rates_unmetered_only";
 	public static final String PREFS_KEY_SELECTED_ADDRESS = "selected_address";
 	public static final String PREFS_KEY_EXCHANGE_CURRENCY = "exchange_currency";
     public static final String PREFS_KEY_TRUSTED_PEER = "trusted_peer";
@@ -135,12 +158,26 @@ public class Constants
 	public static final String PREFS_KEY_LABS_TRANSACTION_DETAILS = "labs_transactions_details";
 	public static final String PREFS_KEY_LABS_BLOCK_EXPLORER = "labs_block_explorer";
 	public static final String PREFS_KEY_LTC_PRECISION = "ltc_precision";
+	public static final String PREFS_KEY_ARCHIVE_DEPTH = "archive_depth";
+	public static final String PREFS_KEY_LAST_ARCHIVED = "last_archived";
 	public static final String PREFS_KEY_DISCLAIMER = "disclaimer";
+	public static final String PREFS_KEY_WALLET_CONSISTENCY_DIGEST = "wallet_consistency_digest";
 
 	public static final BigInteger DEFAULT_TX_FEE = Utils.CENT.multiply(new BigInteger("2")); // 0.02
 
 	public static final long LAST_USAGE_THRESHOLD_JUST_MS = DateUtils.HOUR_IN_MILLIS;
 	public static final long LAST_USAGE_THRESHOLD_RECENTLY_MS = 2 * DateUtils.DAY_IN_MILLIS;
 
+	public static final int TRANSACTION_ARCHIVE_DEPTH = 10000;
+	public static final int TRANSACTION_ARCHIVE_MIN_BATCH = 100;
+	public static final long TRANSACTION_ARCHIVE_INTERVAL_MS = DateUtils.WEEK_IN_MILLIS;
+
+	public static final long WALLET_AUTOSAVE_DELAY_MS = DateUtils.SECOND_IN_MILLIS;
+	public static final long WALLET_CONSISTENCY_CHECK_INTERVAL_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
+
+	public static final long BALANCE_THROTTLE_MS = 250;
+
+	public static final int TRANSACTION_EXPORT_BUFFER_SIZE = 8192;
+
 	public static final int SDK_JELLY_BEAN = 16;
 }
@@ -17,12 +17,8 @@
 
 package de.schildbach.wallet.litecoin;
 
-import java.io.BufferedInputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
 import java.net.URL;
-import java.net.URLConnection;
 import java.text.ParseException;
 import java.util.Date;
 import java.util.regex.Matcher;
@@ -30,7 +26,6 @@ import java.util.regex.Pattern;
 
 import android.os.Handler;
 import android.os.Looper;
-import de.schildbach.wallet.litecoin.util.IOUtils;
 import de.schildbach.wallet.litecoin.util.Iso8601Format;
 
 /**
@@ -42,11 +37,13 @@ public abstract class DetermineFirstSeenThread extends Thread
 			"<li>First seen.*(?:\\((\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2})\\)|(Never used on the network)).*</li>", Pattern.CASE_INSENSITIVE);
 
 	private final String address;
+	private final HttpFetcher fetcher;
 	private final Handler callbackHandler;
 
-	public DetermineFirstSeenThread(final String address)
+	public DetermineFirstSeenThread(final String address, final HttpFetcher fetcher)
 	{
 		this.address = address;
+		this.fetcher = fetcher;
 
 		callbackHandler = new Handler(Looper.myLooper());
 
@@ -59,14 +56,7 @@ public abstract class DetermineFirstSeenThread extends Thread
 		try
 		{
 			final URL url = new URL(Constants.BLOCKEXPLORER_BASE_URL + "address/" + address);
-			final URLConnection connection = url.openConnection();
-			connection.connect();
-			final Reader is = new InputStreamReader(new BufferedInputStream(connection.getInputStream()));
-			final StringBuilder content = new StringBuilder();
-			IOUtils.copy(is, content);
-			is.close();
-
-			final Matcher m = P_FIRST_SEEN.matcher(content);
+			final Matcher m = P_FIRST_SEEN.matcher(fetcher.fetch(url).body);
 			if (m.find())
 			{
 				if (m.group(1) != null)
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import android.text.format.DateUtils;
+import android.util.Log;
+
+/**
+ * Past exchange rates, one file of fixed-width records (time, rate) per currency, ordered by time. Fixed width allows range queries by
+ * binary search without reading the whole file. As records age they are thinned out to one per minute, then one per hour after a day,
+ * then one per day after a month, and dropped after five years, so a file never holds more than a few thousand records.
+ */
+public final class ExchangeRateHistory
+{
+	public static final class Record
+	{
+		public final long time;
+		public final long rate;
+
+		public Record(final long time, final long rate)
+		{
+			this.time = time;
+			this.rate = rate;
+		}
+	}
+
+	private final File dir;
+	private final Map<String, Long> lastCompacted = new HashMap<String, Long>();
+
+	private static final int RECORD_SIZE = 8 + 8;
+	private static final long MINUTE_TIER_MS = DateUtils.DAY_IN_MILLIS;
+	private static final long HOUR_TIER_MS = 30 * DateUtils.DAY_IN_MILLIS;
+	private static final long RETENTION_MS = 5 * DateUtils.YEAR_IN_MILLIS;
+	private static final long COMPACT_INTERVAL_MS = DateUtils.HOUR_IN_MILLIS;
+	private static final Pattern P_CURRENCY_CODE = Pattern.compile("[A-Z]{3,5}");
+
+	private static final String TAG = "Litecoin" + ExchangeRateHistory.class.getSimpleName();
+
+	public ExchangeRateHistory(final File dir)
+	{
+		this.dir = dir;
+
+		dir.mkdirs();
+	}
+
+	/**
+	 * Appends a rate, unless there is already one at or after the given time.
+	 */
+	public synchronized void append(final String currencyCode, final long time, final long rate)
+	{
+		if (!P_CURRENCY_CODE.matcher(currencyCode).matches())
+			return;
+
+		final File file = new File(dir, currencyCode);
+
+		try
+		{
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try
+			{
+				final long size = raf.length() / RECORD_SIZE;
+				if (size > 0)
+				{
+					raf.seek((size - 1) * RECORD_SIZE);
+					if (raf.readLong() >= time)
+						return;
+				}
+
+				// cut off a partially written record
+				raf.setLength(size * RECORD_SIZE);
+				raf.seek(size * RECORD_SIZE);
+				raf.writeLong(time);
+				raf.writeLong(rate);
+			}
+			finally
+			{
+				raf.close();
+			}
+
+			final Long compacted = lastCompacted.get(currencyCode);
+			if (compacted == null || time - compacted > COMPACT_INTERVAL_MS)
+			{
+				compact(file, time);
+				lastCompacted.put(currencyCode, time);
+			}
+		}
+		catch (final IOException x)
+		{
+			Log.w(TAG, "cannot append to " + file, x);
+		}
+	}
+
+	/**
+	 * @return records from (inclusive) to (inclusive), ordered by time
+	 */
+	public synchronized List<Record> query(final String currencyCode, final long from, final long to)
+	{
+		final List<Record> records = new ArrayList<Record>();
+		final File file = new File(dir, currencyCode);
+		if (!P_CURRENCY_CODE.matcher(currencyCode).matches() || !file.exists())
+			return records;
+
+		try
+		{
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				final long size = raf.length() / RECORD_SIZE;
+				for (long i = lowerBound(raf, size, from); i < size; i++)
+				{
+					raf.seek(i * RECORD_SIZE);
+					final long time = raf.readLong();
+					if (time > to)
+						break;
+					records.add(new Record(time, raf.readLong()));
+				}
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch (final IOException x)
+		{
+			Log.w(TAG, "cannot read " + file, x);
+		}
+
+		return records;
+	}
+
+	/**
+	 * @return the last rate known at the given time, or 0 if none
+	 */
+	public synchronized long rateAt(final String currencyCode, final long time)
+	{
+		final File file = new File(dir, currencyCode);
+		if (!P_CURRENCY_CODE.matcher(currencyCode).matches() || !file.exists())
+			return 0;
+
+		try
+		{
+			final RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				final long size = raf.length() / RECORD_SIZE;
+				final long i = lowerBound(raf, size, time + 1) - 1;
+				if (i < 0)
+					return 0;
+
+				raf.seek(i * RECORD_SIZE + 8);
+				return raf.readLong();
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch (final IOException x)
+		{
+			Log.w(TAG, "cannot read " + file, x);
+			return 0;
+		}
+	}
+
+	/**
+	 * @return index of the first record at or after the given time
+	 */
+	private static long lowerBound(final RandomAccessFile raf, final long size, final long time) throws IOException
+	{
+		long low = 0;
+		long high = size;
+		while (low < high)
+		{
+			final long mid = (low + high) >>> 1;
+			raf.seek(mid * RECORD_SIZE);
+			if (raf.readLong() < time)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Keeps the last record of each minute, hour or day, depending on its age.
+	 */
+	private static void compact(final File file, final long now) throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		final int size = (int) (file.length() / RECORD_SIZE);
+		final long[] times = new long[size];
+		final long[] rates = new long[size];
+
+		final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			for (int i = 0; i < size; i++)
+			{
+				times[i] = is.readLong();
+				rates[i] = is.readLong();
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+		int kept = 0;
+
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+		try
+		{
+			for (int i = 0; i < size; i++)
+			{
+				final long age = now - times[i];
+				if (age > RETENTION_MS)
+					continue;
+
+				// skip if the next record falls into the same bucket
+				if (i + 1 < size && bucket(times[i], age) == bucket(times[i + 1], age))
+					continue;
+
+				os.writeLong(times[i]);
+				os.writeLong(rates[i]);
+				kept++;
+			}
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tempFile.renameTo(file))
+			throw new IOException("cannot rename " + tempFile + " to " + file);
+
+		Log.i(TAG, "compacted " + file.getName() + " from " + size + " to " + kept + " records, took " + (System.currentTimeMillis() - start)
+				+ "ms");
+	}
+
+	private static long bucket(final long time, final long age)
+	{
+		if (age <= MINUTE_TIER_MS)
+			return time / DateUtils.MINUTE_IN_MILLIS;
+		else if (age <= HOUR_TIER_MS)
+			return time / DateUtils.HOUR_IN_MILLIS;
+		else
+			return time / DateUtils.DAY_IN_MILLIS;
+	}
+}
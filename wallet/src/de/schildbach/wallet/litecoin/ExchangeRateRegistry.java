@@ -0,0 +1,414 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.IOException;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import de.schildbach.wallet.litecoin.ExchangeRatesProvider.ExchangeRate;
+import de.schildbach.wallet.litecoin.util.NanoCoinFormat;
+
+/**
+ * Fetches rates from all registered {@link ExchangeRateSource}s in parallel and combines them into litecoin rates. Each pair is asked
+ * from the healthiest source offering it, judged by latency, error rate and how long ago it last delivered. Pairs that fail are asked
+ * from the next source offering them, as long as the deadline allows. Currencies no source quotes litecoin in directly are reached
+ * through the graph of all fetched pairs, for example LTC/BTC and BTC/EUR.
+ */
+public final class ExchangeRateRegistry
+{
+	private static final class Health
+	{
+		public final ExchangeRateSource source;
+
+		private double latencyMs = INITIAL_LATENCY_MS;
+		private double errorRate = 0;
+		private long lastSuccess = 0;
+
+		public Health(final ExchangeRateSource source)
+		{
+			this.source = source;
+		}
+
+		public synchronized void success(final long latencyMs)
+		{
+			this.latencyMs += (latencyMs - this.latencyMs) * SMOOTHING;
+			this.errorRate -= this.errorRate * SMOOTHING;
+			this.lastSuccess = System.currentTimeMillis();
+		}
+
+		public synchronized void failure(final long latencyMs)
+		{
+			this.latencyMs += (latencyMs - this.latencyMs) * SMOOTHING;
+			this.errorRate += (1 - this.errorRate) * SMOOTHING;
+		}
+
+		/**
+		 * @return lower is healthier
+		 */
+		public synchronized double score(final long now)
+		{
+			final long age = lastSuccess != 0 ? Math.min(now - lastSuccess, DateUtils.DAY_IN_MILLIS) : 0;
+
+			return latencyMs + errorRate * ERROR_PENALTY_MS + (double) age / DateUtils.HOUR_IN_MILLIS * STALENESS_PENALTY_MS;
+		}
+
+		@Override
+		public synchronized String toString()
+		{
+			return source.getName() + "[" + (int) latencyMs + "ms, " + (int) (errorRate * 100) + "% errors]";
+		}
+	}
+
+	private final List<Health> sources = new CopyOnWriteArrayList<Health>();
+	private final ExecutorService executor;
+
+	private static final double SMOOTHING = 0.3;
+	private static final double INITIAL_LATENCY_MS = 1000;
+	private static final double ERROR_PENALTY_MS = 10000;
+	private static final double STALENESS_PENALTY_MS = 1000;
+
+	private static final String TAG = "Litecoin" + ExchangeRateRegistry.class.getSimpleName();
+
+	public ExchangeRateRegistry(final ExecutorService executor)
+	{
+		this.executor = executor;
+	}
+
+	public void register(final ExchangeRateSource source)
+	{
+		sources.add(new Health(source));
+	}
+
+	/**
+	 * @return litecoin rates of all currencies that could be reached within the deadline, or null if none
+	 */
+	public Map<String, ExchangeRate> fetch(final long deadlineMs)
+	{
+		final long start = System.currentTimeMillis();
+		final long deadline = start + deadlineMs;
+
+		final Set<String> pending = new HashSet<String>();
+		for (final Health health : sources)
+			pending.addAll(health.source.getPairs());
+
+		final Map<String, Long> rates = new HashMap<String, Long>();
+		final Map<String, String> rateSources = new HashMap<String, String>();
+		final Map<String, Set<Health>> tried = new HashMap<String, Set<Health>>();
+
+		while (!pending.isEmpty() && System.currentTimeMillis() < deadline)
+		{
+			final Map<Health, List<String>> assignments = assign(pending, tried);
+			if (assignments.isEmpty())
+				break;
+
+			// leave time for asking other sources, unless this is the last chance
+			final boolean failoverPossible = hasUntried(pending, tried);
+			final long roundDeadline = failoverPossible ? System.currentTimeMillis() + (deadline - System.currentTimeMillis()) * 2 / 3
+					: deadline;
+
+			final long roundStart = System.currentTimeMillis();
+			final Map<Health, Future<Fetched>> futures = new LinkedHashMap<Health, Future<Fetched>>();
+			for (final Map.Entry<Health, List<String>> entry : assignments.entrySet())
+				futures.put(entry.getKey(), executor.submit(new FetchCall(entry.getKey(), entry.getValue(), roundDeadline)));
+
+			for (final Map.Entry<Health, Future<Fetched>> entry : futures.entrySet())
+			{
+				final Health health = entry.getKey();
+				final Future<Fetched> future = entry.getValue();
+
+				try
+				{
+					final Fetched fetched = future.get(Math.max(roundDeadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+					health.success(fetched.latencyMs);
+
+					for (final Map.Entry<String, Long> rate : fetched.rates.entrySet())
+					{
+						if (rate.getValue() > 0)
+						{
+							rates.put(rate.getKey(), rate.getValue());
+							rateSources.put(rate.getKey(), health.source.getName());
+							pending.remove(rate.getKey());
+						}
+					}
+				}
+				catch (final TimeoutException x)
+				{
+					future.cancel(true);
+					health.failure(System.currentTimeMillis() - roundStart);
+					Log.i(TAG, health.source.getName() + " missed deadline");
+				}
+				catch (final ExecutionException x)
+				{
+					// whatever the cause, so a source that keeps throwing is also ranked down
+					health.failure(System.currentTimeMillis() - roundStart);
+					Log.i(TAG, health.source.getName() + " failed: " + x.getCause());
+				}
+				catch (final InterruptedException x)
+				{
+					future.cancel(true);
+					Thread.currentThread().interrupt();
+					return null;
+				}
+			}
+		}
+
+		final Map<String, ExchangeRate> exchangeRates = crossRates(rates, rateSources);
+
+		Log.i(TAG, "fetched " + rates.size() + " pairs, " + exchangeRates.size() + " litecoin rates, sources " + sources + ", took "
+				+ (System.currentTimeMillis() - start) + "ms");
+
+		return !exchangeRates.isEmpty() ? exchangeRates : null;
+	}
+
+	private static final class Fetched
+	{
+		public final Map<String, Long> rates;
+		public final long latencyMs;
+
+		public Fetched(final Map<String, Long> rates, final long latencyMs)
+		{
+			this.rates = rates;
+			this.latencyMs = latencyMs;
+		}
+	}
+
+	/**
+	 * Only measures the fetch. Health is recorded by the caller, which alone knows whether the result arrived within the deadline.
+	 */
+	private static final class FetchCall implements Callable<Fetched>
+	{
+		private final Health health;
+		private final Collection<String> pairs;
+		private final long deadline;
+
+		public FetchCall(final Health health, final Collection<String> pairs, final long deadline)
+		{
+			this.health = health;
+			this.pairs = pairs;
+			this.deadline = deadline;
+		}
+
+		public Fetched call() throws IOException
+		{
+			final long start = System.currentTimeMillis();
+
+			final Map<String, Long> rates = health.source.fetch(pairs, deadline);
+			return new Fetched(rates, System.currentTimeMillis() - start);
+		}
+	}
+
+	/**
+	 * Assigns each pending pair to the healthiest source offering it that hasn't been asked for it yet.
+	 */
+	private Map<Health, List<String>> assign(final Set<String> pending, final Map<String, Set<Health>> tried)
+	{
+		final long now = System.currentTimeMillis();
+		final Map<Health, Double> scores = new HashMap<Health, Double>();
+		for (final Health health : sources)
+			scores.put(health, health.score(now));
+
+		final List<Health> sortedSources = new ArrayList<Health>(sources);
+		Collections.sort(sortedSources, new Comparator<Health>()
+		{
+			public int compare(final Health lhs, final Health rhs)
+			{
+				return scores.get(lhs).compareTo(scores.get(rhs));
+			}
+		});
+
+		final Map<Health, List<String>> assignments = new LinkedHashMap<Health, List<String>>();
+		for (final String pair : pending)
+		{
+			Set<Health> triedForPair = tried.get(pair);
+			if (triedForPair == null)
+			{
+				triedForPair = new HashSet<Health>();
+				tried.put(pair, triedForPair);
+			}
+
+			for (final Health health : sortedSources)
+			{
+				if (!triedForPair.contains(health) && health.source.getPairs().contains(pair))
+				{
+					triedForPair.add(health);
+
+					List<String> pairs = assignments.get(health);
+					if (pairs == null)
+					{
+						pairs = new ArrayList<String>();
+						assignments.put(health, pairs);
+					}
+					pairs.add(pair);
+					break;
+				}
+			}
+		}
+
+		return assignments;
+	}
+
+	private boolean hasUntried(final Set<String> pending, final Map<String, Set<Health>> tried)
+	{
+		for (final String pair : pending)
+		{
+			final Set<Health> triedForPair = tried.get(pair);
+			for (final Health health : sources)
+				if ((triedForPair == null || !triedForPair.contains(health)) && health.source.getPairs().contains(pair))
+					return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Walks the graph of fetched pairs breadth first from litecoin, so every currency is reached through as few pairs as possible. All
+	 * math is in fixed point with 8 decimals.
+	 */
+	private static Map<String, ExchangeRate> crossRates(final Map<String, Long> rates, final Map<String, String> rateSources)
+	{
+		final Map<String, Map<String, Long>> edges = new TreeMap<String, Map<String, Long>>();
+		final Map<String, Map<String, String>> edgeSources = new HashMap<String, Map<String, String>>();
+		for (final Map.Entry<String, Long> entry : rates.entrySet())
+		{
+			final String base = ExchangeRateSource.base(entry.getKey());
+			final String quote = ExchangeRateSource.quote(entry.getKey());
+			final String source = rateSources.get(entry.getKey());
+
+			addEdge(edges, edgeSources, base, quote, entry.getValue(), source);
+			addEdge(edges, edgeSources, quote, base, invert(entry.getValue()), source);
+		}
+
+		final Map<String, Long> reached = new HashMap<String, Long>();
+		final Map<String, String> reachedSources = new HashMap<String, String>();
+		final LinkedList<String> queue = new LinkedList<String>();
+
+		reached.put(Constants.CURRENCY_CODE_LITECOIN, NanoCoinFormat.COIN);
+		reachedSources.put(Constants.CURRENCY_CODE_LITECOIN, null);
+		queue.add(Constants.CURRENCY_CODE_LITECOIN);
+
+		while (!queue.isEmpty())
+		{
+			final String currency = queue.removeFirst();
+			final Map<String, Long> neighbours = edges.get(currency);
+			if (neighbours == null)
+				continue;
+
+			for (final Map.Entry<String, Long> neighbour : neighbours.entrySet())
+			{
+				final String next = neighbour.getKey();
+				if (reached.containsKey(next))
+					continue;
+
+				final long rate = multiply(reached.get(currency), neighbour.getValue());
+				if (rate <= 0)
+					continue;
+
+				reached.put(next, rate);
+				final String pathSource = reachedSources.get(currency);
+				final String edgeSource = edgeSources.get(currency).get(next);
+				reachedSources.put(next, pathSource == null || pathSource.equals(edgeSource) ? edgeSource : pathSource + ", " + edgeSource);
+				queue.add(next);
+			}
+		}
+
+		final long now = System.currentTimeMillis();
+		final Map<String, ExchangeRate> exchangeRates = new TreeMap<String, ExchangeRate>();
+		for (final Map.Entry<String, Long> entry : reached.entrySet())
+		{
+			final String currencyCode = entry.getKey();
+			if (currencyCode.equals(Constants.CURRENCY_CODE_LITECOIN))
+				continue;
+
+			exchangeRates.put(currencyCode, new ExchangeRate(currencyCode, BigInteger.valueOf(entry.getValue()), reachedSources.get(currencyCode),
+					now));
+		}
+
+		return exchangeRates;
+	}
+
+	private static void addEdge(final Map<String, Map<String, Long>> edges, final Map<String, Map<String, String>> edgeSources,
+			final String from, final String to, final long rate, final String source)
+	{
+		if (rate <= 0)
+			return;
+
+		Map<String, Long> neighbours = edges.get(from);
+		if (neighbours == null)
+		{
+			neighbours = new TreeMap<String, Long>();
+			edges.put(from, neighbours);
+			edgeSources.put(from, new HashMap<String, String>());
+		}
+
+		neighbours.put(to, rate);
+		edgeSources.get(from).put(to, source);
+	}
+
+	/**
+	 * @return 1 / rate, rounded half up, or 0 if too small to represent
+	 */
+	private static long invert(final long rate)
+	{
+		final long coinSquared = NanoCoinFormat.COIN * NanoCoinFormat.COIN;
+
+		return coinSquared / rate + (coinSquared % rate >= (rate + 1) / 2 ? 1 : 0);
+	}
+
+	/**
+	 * Multiplies without overflowing the intermediate product, by splitting both factors into whole and fractional parts.
+	 *
+	 * @return a * b, rounded half up, or -1 if the product doesn't fit
+	 */
+	private static long multiply(final long a, final long b)
+	{
+		final long coin = NanoCoinFormat.COIN;
+		final long aWhole = a / coin, aFraction = a % coin;
+		final long bWhole = b / coin, bFraction = b % coin;
+
+		if (aWhole != 0 && bWhole > Long.MAX_VALUE / coin / aWhole)
+			return -1;
+
+		final long fractions = aFraction * bFraction;
+		final long product = aWhole * bWhole * coin + aWhole * bFraction + aFraction * bWhole + fractions / coin
+				+ (fractions % coin >= coin / 2 ? 1 : 0);
+
+		return product >= 0 ? product : -1;
+	}
+}
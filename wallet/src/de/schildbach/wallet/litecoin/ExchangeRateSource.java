@@ -0,0 +1,126 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.IOException;
+import java.net.URL;
+import java.text.ParseException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import de.schildbach.wallet.litecoin.util.JsonNumberScanner;
+
+/**
+ * A place to get exchange rates from, for example an exchange. Each source declares the currency pairs it offers, written as
+ * "BASE/QUOTE" like "LTC/USD", with rates as the price of one unit of the base currency in the quote currency, in fixed point with
+ * 8 decimals like nanocoins.
+ */
+public abstract class ExchangeRateSource
+{
+	private final HttpFetcher fetcher;
+	private final Map<String, Map<String, Long>> scanned = new ConcurrentHashMap<String, Map<String, Long>>();
+
+	protected ExchangeRateSource(final HttpFetcher fetcher)
+	{
+		this.fetcher = fetcher;
+	}
+
+	/**
+	 * @return short name shown as the source of rates, usually the host
+	 */
+	public abstract String getName();
+
+	/**
+	 * @return pairs this source can offer
+	 */
+	public abstract Collection<String> getPairs();
+
+	/**
+	 * Fetches the given pairs, all of which are offered by this source. May be called from several threads at once.
+	 *
+	 * @param deadline
+	 *            time in milliseconds by which the rates are needed
+	 * @return rates of the pairs that could be fetched, by pair
+	 */
+	public abstract Map<String, Long> fetch(Collection<String> pairs, long deadline) throws IOException;
+
+	public static String pair(final String base, final String quote)
+	{
+		return base + '/' + quote;
+	}
+
+	public static String base(final String pair)
+	{
+		return pair.substring(0, pair.indexOf('/'));
+	}
+
+	public static String quote(final String pair)
+	{
+		return pair.substring(pair.indexOf('/') + 1);
+	}
+
+	protected static int timeout(final long deadline, final int maxTimeoutMs)
+	{
+		return (int) Math.max(Math.min(deadline - System.currentTimeMillis(), maxTimeoutMs), 1);
+	}
+
+	/**
+	 * Fetches a JSON document, conditionally, and picks the numbers stored under the given field name. If the document has not been
+	 * modified, the numbers picked last time are returned without scanning it again.
+	 *
+	 * @return numbers by the key of the object containing them
+	 */
+	protected Map<String, Long> fetchNumbers(final URL url, final String field, final int timeoutMs) throws IOException
+	{
+		final String key = url.toString() + '#' + field;
+		final HttpFetcher.Response response = fetcher.fetch(url, timeoutMs);
+
+		if (!response.modified)
+		{
+			final Map<String, Long> numbers = scanned.get(key);
+			if (numbers != null)
+				return numbers;
+		}
+
+		final Map<String, Long> numbers = new HashMap<String, Long>();
+
+		try
+		{
+			JsonNumberScanner.scan(response.body, field, new JsonNumberScanner.Callback()
+			{
+				public void onNumber(final String parent, final long value)
+				{
+					if (parent != null)
+						numbers.put(parent, value);
+				}
+			});
+		}
+		catch (final ParseException x)
+		{
+			throw new IOException("cannot parse " + url + ": " + x.getMessage());
+		}
+
+		final Map<String, Long> unmodifiableNumbers = Collections.unmodifiableMap(numbers);
+		scanned.put(key, unmodifiableNumbers);
+
+		return unmodifiableNumbers;
+	}
+}
@@ -18,35 +18,30 @@
 package de.schildbach.wallet.litecoin;
 
 import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.math.RoundingMode;
-import java.net.URL;
-import java.net.URLConnection;
-import java.text.NumberFormat;
-import java.text.ParseException;
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-
-import android.util.Log;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.content.ContentProvider;
 import android.content.ContentValues;
+import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
 import android.provider.BaseColumns;
 import android.text.format.DateUtils;
-
-import com.google.litecoin.core.Utils;
-
-import de.schildbach.wallet.litecoin.util.IOUtils;
+import android.util.Log;
 
 /**
  * @author Andreas Schildbach
@@ -55,31 +50,64 @@ public class ExchangeRatesProvider extends ContentProvider
 {
 	public static class ExchangeRate
 	{
-		public ExchangeRate(final String currencyCode, final BigInteger rate, final String source)
+		public ExchangeRate(final String currencyCode, final BigInteger rate, final String source, final long updated)
 		{
 			this.currencyCode = currencyCode;
 			this.rate = rate;
 			this.source = source;
+			this.updated = updated;
 		}
 
 		public final String currencyCode;
 		public final BigInteger rate;
 		public final String source;
+		public final long updated;
 	}
 
 	public static final String KEY_CURRENCY_CODE = "currency_code";
-	private static final String KEY_RATE = "rate";
-	private static final String KEY_SOURCE = "source";
+	public static final String KEY_RATE = "rate";
+	public static final String KEY_SOURCE = "source";
+	public static final String KEY_UPDATED = "updated";
+	public static final String KEY_RATE_DAY_AGO = "rate_day_ago";
+	public static final String KEY_TIME = "time";
 
-	private Map<String, ExchangeRate> exchangeRates = null;
-	private long lastUpdated = 0;
+	private static final String QUERY_PARAM_KNOWN_VERSION = "known_version";
+	private static final String QUERY_PARAM_MAX_AGE = "max_age";
+
+	private static final String PATH_HISTORY = "history";
+
+	private File file;
+	private ExecutorService executor;
+	private ExchangeRateRegistry registry;
+	private ExchangeRateHistory history;
+
+	private volatile ExchangeRatesSnapshot snapshot = new ExchangeRatesSnapshot(0, new TreeMap<String, ExchangeRate>(), null);
+	private volatile long lastUpdated = 0;
+	private volatile long lastAttempt = 0;
+	private boolean loaded = false;
+	private final AtomicBoolean refreshing = new AtomicBoolean(false);
 
 	private static final long UPDATE_FREQ_MS = DateUtils.HOUR_IN_MILLIS;
-	private static final int TIMEOUT_MS = 15 * (int) DateUtils.SECOND_IN_MILLIS;
+	private static final long RETRY_FREQ_MS = DateUtils.MINUTE_IN_MILLIS;
+	private static final long FETCH_DEADLINE_MS = 15 * DateUtils.SECOND_IN_MILLIS;
+
+	private static final int FILE_MAGIC = 0x4c455852; // LEXR
+	private static final int FILE_VERSION = 1;
+
+	private static final String TAG = "Litecoin" + ExchangeRatesProvider.class.getSimpleName();
 
 	@Override
 	public boolean onCreate()
 	{
+		file = getContext().getFileStreamPath(Constants.EXCHANGE_RATES_FILENAME);
+		executor = Executors.newCachedThreadPool();
+		registry = new ExchangeRateRegistry(executor);
+		// providers are created before the application, so this cannot be the application's fetcher
+		final HttpFetcher fetcher = new HttpFetcher(new File(getContext().getCacheDir(), Constants.HTTP_CACHE_DIRECTORY));
+		registry.register(new BtceExchangeRateSource(BtceExchangeRateSource.BASE_URL, executor, fetcher));
+		registry.register(new BlockchainInfoExchangeRateSource(BlockchainInfoExchangeRateSource.URL, fetcher));
+		history = new ExchangeRateHistory(new File(getContext().getFilesDir(), Constants.EXCHANGE_RATE_HISTORY_DIRECTORY));
+
 		return true;
 	}
 
@@ -88,209 +116,297 @@ public class ExchangeRatesProvider extends ContentProvider
 		return Uri.parse("content://" + packageName + '.' + "exchange_rates");
 	}
 
+	/**
+	 * Like {@link #contentUri(String)}, but if the given version is still current the query answers with a cursor without rows for which
+	 * {@link #isNotModified(Cursor)} is true.
+	 */
+	public static Uri contentUri(final String packageName, final long knownVersion)
+	{
+		return contentUri(packageName).buildUpon().appendQueryParameter(QUERY_PARAM_KNOWN_VERSION, Long.toString(knownVersion)).build();
+	}
+
+	/**
+	 * Starts a refresh in the background if the rates are older than the given age, so that later queries find them fresh. Observers of
+	 * the content URI are notified when it has finished.
+	 */
+	public static void refreshIfOlder(final Context context, final long maxAgeMs)
+	{
+		final Uri uri = contentUri(context.getPackageName()).buildUpon().appendQueryParameter(QUERY_PARAM_MAX_AGE, Long.toString(maxAgeMs))
+				.build();
+		final Cursor cursor = context.getContentResolver().query(uri, null, null, null, null);
+		if (cursor != null)
+			cursor.close();
+	}
+
+	/**
+	 * Past rates of one currency. Query with selection {@link #KEY_TIME} and the range as selection arguments (from, to), or without
+	 * selection for all of them.
+	 */
+	public static Uri historyContentUri(final String packageName, final String currencyCode)
+	{
+		return contentUri(packageName).buildUpon().appendPath(PATH_HISTORY).appendPath(currencyCode).build();
+	}
+
+	/**
+	 * Answers from the rates in memory or on disk right away, however old they are. If they are due for an update, a refresh is
+	 * started in the background, and observers of the content URI are notified when it has finished.
+	 */
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
+		final List<String> pathSegments = uri.getPathSegments();
+		if (pathSegments.size() == 2 && pathSegments.get(0).equals(PATH_HISTORY))
+			return queryHistory(uri, pathSegments.get(1), selection, selectionArgs);
+
+		load();
+
+		final ExchangeRatesSnapshot snapshot = this.snapshot;
+
+		final String maxAge = uri.getQueryParameter(QUERY_PARAM_MAX_AGE);
+		final long maxAgeMs = maxAge != null ? Long.parseLong(maxAge) : UPDATE_FREQ_MS;
+
 		final long now = System.currentTimeMillis();
+		if ((snapshot.rates.isEmpty() || now - lastUpdated > maxAgeMs) && now - lastAttempt > RETRY_FREQ_MS)
+			refresh();
 
-		if (exchangeRates == null || now - lastUpdated > UPDATE_FREQ_MS)
-		{
-			Map<String, ExchangeRate> newExchangeRates = getLitecoinCharts();
-			if (exchangeRates == null && newExchangeRates == null)
-				newExchangeRates = getBlockchainInfo();
+		final String knownVersion = uri.getQueryParameter(QUERY_PARAM_KNOWN_VERSION);
 
-			if (newExchangeRates != null)
-			{
-				exchangeRates = newExchangeRates;
-				lastUpdated = now;
-			}
-		}
+		final Cursor cursor;
+		if (knownVersion != null && Long.parseLong(knownVersion) == snapshot.version)
+			cursor = snapshot.notModified();
+		else if (selection == null)
+			cursor = snapshot.all();
+		else if (selection.equals(KEY_CURRENCY_CODE))
+			cursor = snapshot.byCurrencyCode(selectionArgs[0]);
+		else
+			throw new IllegalArgumentException("unknown selection: " + selection);
 
-		if (exchangeRates == null)
-			return null;
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
 
-		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE, KEY_SOURCE });
+		return cursor;
+	}
 
+	private Cursor queryHistory(final Uri uri, final String currencyCode, final String selection, final String[] selectionArgs)
+	{
+		final long from;
+		final long to;
 		if (selection == null)
 		{
-			for (final Map.Entry<String, ExchangeRate> entry : exchangeRates.entrySet())
-			{
-				final ExchangeRate rate = entry.getValue();
-				cursor.newRow().add(entry.getKey().hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
-			}
+			from = 0;
+			to = Long.MAX_VALUE;
 		}
-		else if (selection.equals(KEY_CURRENCY_CODE))
+		else if (selection.equals(KEY_TIME))
+		{
+			from = Long.parseLong(selectionArgs[0]);
+			to = Long.parseLong(selectionArgs[1]);
+		}
+		else
 		{
-			final String code = selectionArgs[0];
-			final ExchangeRate rate = exchangeRates.get(code);
-            try {
-			  cursor.newRow().add(code.hashCode()).add(rate.currencyCode).add(rate.rate.longValue()).add(rate.source);
-            } catch (NullPointerException e) {
-                Log.e("Litecoin", "Unable to add an exchange rate.  NullPointerException.");
-            }
+			throw new IllegalArgumentException("unknown selection: " + selection);
 		}
 
+		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_TIME, KEY_RATE });
+		cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+		for (final ExchangeRateHistory.Record record : history.query(currencyCode, from, to))
+			cursor.newRow().add(record.time).add(record.time).add(record.rate);
+
 		return cursor;
 	}
 
-	public static ExchangeRate getExchangeRate(final Cursor cursor)
+	private void refresh()
 	{
-		final String currencyCode = cursor.getString(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_CURRENCY_CODE));
-		final BigInteger rate = BigInteger.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_RATE)));
-		final String source = cursor.getString(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_SOURCE));
+		if (refreshing.getAndSet(true))
+			return;
 
-		return new ExchangeRate(currencyCode, rate, source);
-	}
+		lastAttempt = System.currentTimeMillis();
 
-	@Override
-	public Uri insert(final Uri uri, final ContentValues values)
-	{
-		throw new UnsupportedOperationException();
-	}
+		executor.execute(new Runnable()
+		{
+			public void run()
+			{
+				try
+				{
+					final Map<String, ExchangeRate> newExchangeRates = registry.fetch(FETCH_DEADLINE_MS);
 
-	@Override
-	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs)
-	{
-		throw new UnsupportedOperationException();
-	}
+					if (newExchangeRates != null)
+					{
+						// keep the last good rate of currencies that couldn't be reached this time
+						final Map<String, ExchangeRate> mergedExchangeRates = new TreeMap<String, ExchangeRate>(snapshot.rates);
+						mergedExchangeRates.putAll(newExchangeRates);
 
-	@Override
-	public int delete(final Uri uri, final String selection, final String[] selectionArgs)
-	{
-		throw new UnsupportedOperationException();
-	}
+						for (final ExchangeRate rate : newExchangeRates.values())
+							history.append(rate.currencyCode, rate.updated, rate.rate.longValue());
 
-	@Override
-	public String getType(final Uri uri)
-	{
-		throw new UnsupportedOperationException();
+						publish(mergedExchangeRates);
+						lastUpdated = System.currentTimeMillis();
+
+						save();
+
+						// also notifies observers of the history
+						getContext().getContentResolver().notifyChange(contentUri(getContext().getPackageName()), null);
+					}
+				}
+				finally
+				{
+					refreshing.set(false);
+				}
+			}
+		});
 	}
 
-	private static Map<String, ExchangeRate> getLitecoinCharts()
+	private synchronized void load()
 	{
-        final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
-        // Keep the BTC rate around for a bit
-        Double btcRate = 0.0;
-		try {
-            String currencies[] = {"USD", "BTC", "RUR"};
-            String urls[] = {"https://btc-e.com/api/2/14/ticker", "https://btc-e.com/api/2/10/ticker", "https://btc-e.com/api/2/ltc_rur/ticker"};
-            for(int i = 0; i < currencies.length; ++i) {
-                final String currencyCode = currencies[i];
-                final URL URL = new URL(urls[i]);
-                final URLConnection connection = URL.openConnection();
-                connection.setConnectTimeout(TIMEOUT_MS);
-                connection.setReadTimeout(TIMEOUT_MS);
-                connection.connect();
-                final StringBuilder content = new StringBuilder();
-
-                Reader reader = null;
-                try
-                {
-                    reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024));
-                    IOUtils.copy(reader, content);
-                    final JSONObject head = new JSONObject(content.toString());
-                    JSONObject ticker = head.getJSONObject("ticker");
-                    Double avg = ticker.getDouble("avg");
-                    String euros = String.format("%.4f", avg);
-                    // Fix things like 3,1250
-                    euros = euros.replace(",", ".");
-                    rates.put(currencyCode, new ExchangeRate(currencyCode, Utils.toNanoCoins(euros), URL.getHost()));
-                    if(currencyCode.equalsIgnoreCase("BTC")) btcRate = avg;
-                }
-                finally
-                {
-                    if (reader != null)
-                        reader.close();
-                }
-            }
-            // Handle LTC/EUR special since we have to do maths
-            final URL URL = new URL("https://btc-e.com/api/2/btc_eur/ticker");
-            final URLConnection connection = URL.openConnection();
-            connection.setConnectTimeout(TIMEOUT_MS);
-            connection.setReadTimeout(TIMEOUT_MS);
-            connection.connect();
-            final StringBuilder content = new StringBuilder();
-
-            Reader reader = null;
-            try
-            {
-                reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024));
-                IOUtils.copy(reader, content);
-                final JSONObject head = new JSONObject(content.toString());
-                JSONObject ticker = head.getJSONObject("ticker");
-                Double avg = ticker.getDouble("avg");
-                // This is bitcoins priced in euros.  We want LTC!
-                avg *= btcRate;
-                String s_avg = String.format("%.4f", avg).replace(',', '.');
-                rates.put("EUR", new ExchangeRate("EUR", Utils.toNanoCoins(s_avg), URL.getHost()));
-            } finally
-            {
-                if (reader != null)
-                    reader.close();
-            }
-            return rates;
-        }
-		catch (final IOException x)
+		if (loaded)
+			return;
+		loaded = true;
+
+		if (!file.exists())
+			return;
+
+		try
 		{
-			x.printStackTrace();
+			final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if (is.readInt() != FILE_MAGIC || is.readInt() != FILE_VERSION)
+					throw new IOException("unknown format");
+
+				final long fileLastUpdated = is.readLong();
+				final int size = is.readInt();
+				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+				for (int i = 0; i < size; i++)
+				{
+					final String currencyCode = is.readUTF();
+					rates.put(currencyCode, new ExchangeRate(currencyCode, BigInteger.valueOf(is.readLong()), is.readUTF(), is.readLong()));
+				}
+
+				if (snapshot.rates.isEmpty())
+				{
+					publish(rates);
+					lastUpdated = fileLastUpdated;
+				}
+
+				Log.i(TAG, "loaded " + size + " exchange rates, last updated " + fileLastUpdated);
+			}
+			finally
+			{
+				is.close();
+			}
 		}
-		catch (final JSONException x)
+		catch (final IOException x)
 		{
-			x.printStackTrace();
+			Log.w(TAG, "cannot read " + file, x);
 		}
+	}
+
+	/**
+	 * Replaces the snapshot queries are answered from. Building it is the only per row work, queries just wrap it.
+	 */
+	private synchronized void publish(final Map<String, ExchangeRate> rates)
+	{
+		final long start = System.currentTimeMillis();
+
+		snapshot = new ExchangeRatesSnapshot(snapshot.version + 1, rates, history);
 
-		return null;
+		Log.i(TAG, "published " + rates.size() + " exchange rates as version " + snapshot.version + ", took "
+				+ (System.currentTimeMillis() - start) + "ms");
 	}
 
-	private static Map<String, ExchangeRate> getBlockchainInfo()
+	private synchronized void save()
 	{
+		final Map<String, ExchangeRate> exchangeRates = snapshot.rates;
+		final File tempFile = new File(file.getAbsolutePath() + ".tmp");
+
 		try
 		{
-			final URL URL = new URL("https://blockchain.info/ticker");
-			final URLConnection connection = URL.openConnection();
-			connection.setConnectTimeout(TIMEOUT_MS);
-			connection.setReadTimeout(TIMEOUT_MS);
-			connection.connect();
-			final StringBuilder content = new StringBuilder();
-
-			Reader reader = null;
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
 			try
 			{
-				reader = new InputStreamReader(new BufferedInputStream(connection.getInputStream(), 1024));
-				IOUtils.copy(reader, content);
-
-				final Map<String, ExchangeRate> rates = new TreeMap<String, ExchangeRate>();
+				os.writeInt(FILE_MAGIC);
+				os.writeInt(FILE_VERSION);
+				os.writeLong(lastUpdated);
+				os.writeInt(exchangeRates.size());
 
-				final JSONObject head = new JSONObject(content.toString());
-				for (final Iterator<String> i = head.keys(); i.hasNext();)
+				for (final ExchangeRate rate : exchangeRates.values())
 				{
-					final String currencyCode = i.next();
-					final JSONObject o = head.getJSONObject(currencyCode);
-					final String rate = o.optString("15m", null);
-
-					if (rate != null)
-						rates.put(currencyCode, new ExchangeRate(currencyCode, Utils.toNanoCoins(rate), URL.getHost()));
+					os.writeUTF(rate.currencyCode);
+					os.writeLong(rate.rate.longValue());
+					os.writeUTF(rate.source);
+					os.writeLong(rate.updated);
 				}
-
-				return rates;
 			}
 			finally
 			{
-				if (reader != null)
-					reader.close();
+				os.close();
 			}
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
 		}
 		catch (final IOException x)
 		{
-			x.printStackTrace();
-		}
-		catch (final JSONException x)
-		{
-			x.printStackTrace();
+			Log.w(TAG, "cannot write " + file, x);
 		}
+	}
 
-		return null;
+	public static ExchangeRate getExchangeRate(final Cursor cursor)
+	{
+		final String currencyCode = cursor.getString(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_CURRENCY_CODE));
+		final BigInteger rate = BigInteger.valueOf(cursor.getLong(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_RATE)));
+		final String source = cursor.getString(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_SOURCE));
+		final long updated = cursor.getLong(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_UPDATED));
+
+		return new ExchangeRate(currencyCode, rate, source, updated);
+	}
+
+	/**
+	 * @return version of the snapshot the cursor was answered from
+	 */
+	public static long getVersion(final Cursor cursor)
+	{
+		return cursor.getExtras().getLong(ExchangeRatesSnapshot.EXTRA_VERSION);
+	}
+
+	/**
+	 * @return true if the cursor was queried with the current version, and therefore holds no rows
+	 */
+	public static boolean isNotModified(final Cursor cursor)
+	{
+		return cursor.getExtras().getBoolean(ExchangeRatesSnapshot.EXTRA_NOT_MODIFIED);
+	}
+
+	/**
+	 * @return rate of about a day before the current one, or null if there is no history yet
+	 */
+	public static BigInteger getRateDayAgo(final Cursor cursor)
+	{
+		final long rate = cursor.getLong(cursor.getColumnIndexOrThrow(ExchangeRatesProvider.KEY_RATE_DAY_AGO));
+
+		return rate != 0 ? BigInteger.valueOf(rate) : null;
+	}
+
+	@Override
+	public Uri insert(final Uri uri, final ContentValues values)
+	{
+		throw new UnsupportedOperationException();
 	}
 
-	// https://bitmarket.eu/api/ticker
+	@Override
+	public int update(final Uri uri, final ContentValues values, final String selection, final String[] selectionArgs)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public int delete(final Uri uri, final String selection, final String[] selectionArgs)
+	{
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public String getType(final Uri uri)
+	{
+		throw new UnsupportedOperationException();
+	}
 }
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.os.Bundle;
+import android.provider.BaseColumns;
+import android.text.format.DateUtils;
+
+import de.schildbach.wallet.litecoin.ExchangeRatesProvider.ExchangeRate;
+
+/**
+ * All exchange rates as of one refresh, laid out in columns once so that queries only have to wrap them in a cursor. Never changes
+ * after construction; a refresh replaces the whole snapshot and gets a higher version.
+ */
+public final class ExchangeRatesSnapshot
+{
+	public final long version;
+	public final Map<String, ExchangeRate> rates;
+
+	private final long[] ids;
+	private final String[] currencyCodes;
+	private final long[] rateValues;
+	private final String[] sources;
+	private final long[] updated;
+	private final long[] ratesDayAgo;
+	private final Map<String, Integer> index;
+	private final Bundle extras;
+	private final Bundle notModifiedExtras;
+
+	public static final String EXTRA_VERSION = "version";
+	public static final String EXTRA_NOT_MODIFIED = "not_modified";
+
+	private static final String[] COLUMN_NAMES = { BaseColumns._ID, ExchangeRatesProvider.KEY_CURRENCY_CODE, ExchangeRatesProvider.KEY_RATE,
+			ExchangeRatesProvider.KEY_SOURCE, ExchangeRatesProvider.KEY_UPDATED, ExchangeRatesProvider.KEY_RATE_DAY_AGO };
+
+	/**
+	 * @param rates
+	 *            by currency code, sorted
+	 * @param history
+	 *            for the rates of a day before now
+	 */
+	public ExchangeRatesSnapshot(final long version, final Map<String, ExchangeRate> rates, final ExchangeRateHistory history)
+	{
+		this.version = version;
+		this.rates = Collections.unmodifiableMap(rates);
+
+		final int size = rates.size();
+		ids = new long[size];
+		currencyCodes = new String[size];
+		rateValues = new long[size];
+		sources = new String[size];
+		updated = new long[size];
+		ratesDayAgo = new long[size];
+		index = new HashMap<String, Integer>(size * 2);
+
+		final long dayAgo = System.currentTimeMillis() - DateUtils.DAY_IN_MILLIS;
+		int row = 0;
+		for (final ExchangeRate rate : rates.values())
+		{
+			ids[row] = rate.currencyCode.hashCode();
+			currencyCodes[row] = rate.currencyCode;
+			rateValues[row] = rate.rate.longValue();
+			sources[row] = rate.source;
+			updated[row] = rate.updated;
+			ratesDayAgo[row] = history != null ? history.rateAt(rate.currencyCode, dayAgo) : 0;
+			index.put(rate.currencyCode, row);
+			row++;
+		}
+
+		extras = new Bundle();
+		extras.putLong(EXTRA_VERSION, version);
+		notModifiedExtras = new Bundle();
+		notModifiedExtras.putLong(EXTRA_VERSION, version);
+		notModifiedExtras.putBoolean(EXTRA_NOT_MODIFIED, true);
+	}
+
+	public Cursor all()
+	{
+		return new SnapshotCursor(0, currencyCodes.length, extras);
+	}
+
+	/**
+	 * @return cursor with the one row of the given currency, or none if there is no rate for it
+	 */
+	public Cursor byCurrencyCode(final String currencyCode)
+	{
+		final Integer row = index.get(currencyCode);
+
+		return row != null ? new SnapshotCursor(row, 1, extras) : new SnapshotCursor(0, 0, extras);
+	}
+
+	/**
+	 * @return cursor without rows, telling the reader that its copy of this version is still current
+	 */
+	public Cursor notModified()
+	{
+		return new SnapshotCursor(0, 0, notModifiedExtras);
+	}
+
+	private final class SnapshotCursor extends AbstractCursor
+	{
+		private final int firstRow;
+		private final int count;
+		private final Bundle cursorExtras;
+
+		public SnapshotCursor(final int firstRow, final int count, final Bundle cursorExtras)
+		{
+			this.firstRow = firstRow;
+			this.count = count;
+			this.cursorExtras = cursorExtras;
+		}
+
+		@Override
+		public int getCount()
+		{
+			return count;
+		}
+
+		@Override
+		public String[] getColumnNames()
+		{
+			return COLUMN_NAMES;
+		}
+
+		@Override
+		public Bundle getExtras()
+		{
+			return cursorExtras;
+		}
+
+		@Override
+		public String getString(final int column)
+		{
+			final int row = firstRow + getPosition();
+
+			switch (column)
+			{
+				case 1:
+					return currencyCodes[row];
+				case 3:
+					return sources[row];
+				default:
+					return Long.toString(getLong(column));
+			}
+		}
+
+		@Override
+		public long getLong(final int column)
+		{
+			final int row = firstRow + getPosition();
+
+			switch (column)
+			{
+				case 0:
+					return ids[row];
+				case 2:
+					return rateValues[row];
+				case 4:
+					return updated[row];
+				case 5:
+					return ratesDayAgo[row];
+				default:
+					return Long.parseLong(getString(column));
+			}
+		}
+
+		@Override
+		public short getShort(final int column)
+		{
+			return (short) getLong(column);
+		}
+
+		@Override
+		public int getInt(final int column)
+		{
+			return (int) getLong(column);
+		}
+
+		@Override
+		public float getFloat(final int column)
+		{
+			return getLong(column);
+		}
+
+		@Override
+		public double getDouble(final int column)
+		{
+			return getLong(column);
+		}
+
+		@Override
+		public boolean isNull(final int column)
+		{
+			return column == 3 && sources[firstRow + getPosition()] == null;
+		}
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.GZIPInputStream;
+
+import android.util.Log;
+
+import com.google.litecoin.core.Utils;
+
+/**
+ * Fetches small documents over HTTP, keeping the validators (ETag, Last-Modified) and body of each response on disk. Later fetches of
+ * the same URL are sent as conditional requests, so an unchanged document costs a 304 without a body. Responses are requested
+ * gzipped. Bodies are always read to the end and closed, so the connection goes back to the platform's keep-alive pool.
+ */
+public final class HttpFetcher
+{
+	public static final class Response
+	{
+		/**
+		 * the current document, either just downloaded or, if not modified, from disk
+		 */
+		public final String body;
+
+		/**
+		 * false if the server confirmed the document on disk is still current
+		 */
+		public final boolean modified;
+
+		/**
+		 * server time from the Date header, or 0 if not sent
+		 */
+		public final long serverTime;
+
+		private Response(final String body, final boolean modified, final long serverTime)
+		{
+			this.body = body;
+			this.modified = modified;
+			this.serverTime = serverTime;
+		}
+	}
+
+	private static final class Entry
+	{
+		public final String etag;
+		public final long lastModified;
+		public final String body;
+
+		public Entry(final String etag, final long lastModified, final String body)
+		{
+			this.etag = etag;
+			this.lastModified = lastModified;
+			this.body = body;
+		}
+	}
+
+	private final File dir;
+
+	private static final int DEFAULT_TIMEOUT_MS = 15 * 1000;
+	private static final int MAX_BODY_SIZE = 1024 * 1024;
+	private static final String DEFAULT_CHARSET = "UTF-8";
+
+	private static final int FILE_MAGIC = 0x4c485454; // LHTT
+	private static final int FILE_VERSION = 1;
+
+	private static final String TAG = "Litecoin" + HttpFetcher.class.getSimpleName();
+
+	public HttpFetcher(final File dir)
+	{
+		this.dir = dir;
+
+		dir.mkdirs();
+	}
+
+	public Response fetch(final URL url) throws IOException
+	{
+		return fetch(url, DEFAULT_TIMEOUT_MS);
+	}
+
+	/**
+	 * Fetches a document, conditionally if it has been fetched before. May be called from several threads at once.
+	 *
+	 * @throws IOException
+	 *             if the request fails or the server answers with anything but 200 or 304
+	 */
+	public Response fetch(final URL url, final int timeoutMs) throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		final File file = new File(dir, fileName(url));
+		final Entry cached = read(file, url);
+
+		final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		connection.setConnectTimeout(timeoutMs);
+		connection.setReadTimeout(timeoutMs);
+		connection.setUseCaches(false);
+		connection.setRequestProperty("User-Agent", Constants.USER_AGENT);
+		// setting this ourselves turns off transparent decompression, see below
+		connection.setRequestProperty("Accept-Encoding", "gzip");
+		if (cached != null)
+		{
+			if (cached.etag != null)
+				connection.setRequestProperty("If-None-Match", cached.etag);
+			if (cached.lastModified > 0)
+				connection.setIfModifiedSince(cached.lastModified);
+		}
+
+		final int responseCode = connection.getResponseCode();
+		final long serverTime = connection.getHeaderFieldDate("Date", 0);
+
+		if (responseCode == HttpURLConnection.HTTP_NOT_MODIFIED && cached != null)
+		{
+			drain(connection);
+
+			Log.i(TAG, url + " not modified, took " + (System.currentTimeMillis() - start) + "ms");
+
+			return new Response(cached.body, false, serverTime);
+		}
+		else if (responseCode != HttpURLConnection.HTTP_OK)
+		{
+			drain(connection);
+
+			throw new IOException("HTTP " + responseCode + " from " + url);
+		}
+
+		InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+		try
+		{
+			if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+				is = new GZIPInputStream(is);
+
+			final byte[] buffer = new byte[1024];
+			int n;
+			while (-1 != (n = is.read(buffer)))
+			{
+				bytes.write(buffer, 0, n);
+				if (bytes.size() > MAX_BODY_SIZE)
+					throw new IOException("body of " + url + " exceeds " + MAX_BODY_SIZE + " bytes");
+			}
+		}
+		finally
+		{
+			is.close();
+		}
+
+		final String body = decode(bytes.toByteArray(), connection.getContentType());
+		final String etag = connection.getHeaderField("ETag");
+		final long lastModified = connection.getHeaderFieldDate("Last-Modified", 0);
+
+		if (etag != null || lastModified > 0)
+			write(file, url, new Entry(etag, lastModified, body));
+		else if (cached != null)
+			file.delete();
+
+		Log.i(TAG, url + " fetched " + bytes.size() + " bytes, took " + (System.currentTimeMillis() - start) + "ms");
+
+		return new Response(body, true, serverTime);
+	}
+
+	private static void drain(final HttpURLConnection connection)
+	{
+		try
+		{
+			InputStream is = connection.getErrorStream();
+			if (is == null)
+				is = connection.getInputStream();
+
+			final byte[] buffer = new byte[256];
+			while (is.read(buffer) != -1)
+				;
+			is.close();
+		}
+		catch (final IOException x)
+		{
+			// the connection is just not reused
+		}
+	}
+
+	private static String decode(final byte[] bytes, final String contentType) throws UnsupportedEncodingException
+	{
+		String charset = DEFAULT_CHARSET;
+
+		if (contentType != null)
+		{
+			for (final String param : contentType.split(";"))
+			{
+				final String trimmed = param.trim();
+				if (trimmed.regionMatches(true, 0, "charset=", 0, 8))
+					charset = trimmed.substring(8).replace("\"", "");
+			}
+		}
+
+		try
+		{
+			return new String(bytes, charset);
+		}
+		catch (final UnsupportedEncodingException x)
+		{
+			return new String(bytes, DEFAULT_CHARSET);
+		}
+	}
+
+	private static String fileName(final URL url)
+	{
+		try
+		{
+			final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			return Utils.bytesToHexString(digest.digest(url.toString().getBytes(DEFAULT_CHARSET)));
+		}
+		catch (final NoSuchAlgorithmException x)
+		{
+			throw new RuntimeException(x);
+		}
+		catch (final UnsupportedEncodingException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	private static Entry read(final File file, final URL url)
+	{
+		if (!file.exists())
+			return null;
+
+		try
+		{
+			final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1024));
+			try
+			{
+				if (is.readInt() != FILE_MAGIC || is.readInt() != FILE_VERSION)
+					return null;
+
+				// guards against hash collisions and stale files
+				if (!is.readUTF().equals(url.toString()))
+					return null;
+
+				final String etag = is.readBoolean() ? is.readUTF() : null;
+				final long lastModified = is.readLong();
+				final byte[] body = new byte[is.readInt()];
+				is.readFully(body);
+
+				return new Entry(etag, lastModified, new String(body, DEFAULT_CHARSET));
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (final IOException x)
+		{
+			Log.w(TAG, "cannot read " + file, x);
+			file.delete();
+
+			return null;
+		}
+	}
+
+	private void write(final File file, final URL url, final Entry entry)
+	{
+		File tempFile = null;
+
+		try
+		{
+			// unique, as the same URL may be fetched concurrently
+			tempFile = File.createTempFile(file.getName(), ".tmp", dir);
+
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 1024));
+			try
+			{
+				os.writeInt(FILE_MAGIC);
+				os.writeInt(FILE_VERSION);
+				os.writeUTF(url.toString());
+				os.writeBoolean(entry.etag != null);
+				if (entry.etag != null)
+					os.writeUTF(entry.etag);
+				os.writeLong(entry.lastModified);
+				final byte[] body = entry.body.getBytes(DEFAULT_CHARSET);
+				os.writeInt(body.length);
+				os.write(body);
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tempFile.renameTo(file))
+				throw new IOException("cannot rename " + tempFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			Log.w(TAG, "cannot write " + file, x);
+
+			if (tempFile != null)
+				tempFile.delete();
+		}
+	}
+}
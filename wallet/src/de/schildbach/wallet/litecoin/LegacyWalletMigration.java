@@ -0,0 +1,170 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+
+import com.google.litecoin.core.Wallet;
+import com.google.litecoin.store.WalletProtobufSerializer;
+
+/**
+ * Converts a Java-serialized wallet, including its transactions, to the protobuf format. The legacy file is only deleted after the
+ * protobuf file has been written and read back successfully.
+ */
+public final class LegacyWalletMigration implements WalletMigrator.Migration
+{
+	private final File legacyFile;
+	private final File walletFile;
+
+	private static final int PROGRESS_READ = 70;
+	private static final int PROGRESS_WRITE = 85;
+	private static final int PROGRESS_REPORT_BYTES = 16 * 1024;
+
+	public LegacyWalletMigration(final File legacyFile, final File walletFile)
+	{
+		this.legacyFile = legacyFile;
+		this.walletFile = walletFile;
+	}
+
+	public boolean isNeeded()
+	{
+		return legacyFile.exists();
+	}
+
+	public void migrate(final WalletMigrator.ProgressListener progressListener) throws IOException
+	{
+		final long length = legacyFile.length();
+
+		// read
+		final Wallet wallet;
+		final ObjectInputStream is = new ObjectInputStream(new ProgressInputStream(new BufferedInputStream(new FileInputStream(legacyFile)))
+		{
+			@Override
+			protected void onBytesRead(final long bytesRead)
+			{
+				progressListener.onProgress(length > 0 ? (int) (bytesRead * PROGRESS_READ / length) : 0);
+			}
+		});
+		try
+		{
+			wallet = (Wallet) is.readObject();
+		}
+		catch (final ClassNotFoundException x)
+		{
+			throw new IOException("cannot read legacy wallet: " + x);
+		}
+		catch (final ClassCastException x)
+		{
+			throw new IOException("cannot read legacy wallet: " + x);
+		}
+		finally
+		{
+			is.close();
+		}
+
+		// write
+		final File tempFile = new File(walletFile.getAbsolutePath() + ".tmp");
+		final FileOutputStream os = new FileOutputStream(tempFile);
+		try
+		{
+			new WalletProtobufSerializer().writeWallet(wallet, os);
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+		progressListener.onProgress(PROGRESS_WRITE);
+
+		// verify
+		final InputStream verifyStream = new FileInputStream(tempFile);
+		try
+		{
+			final Wallet verifyWallet = new WalletProtobufSerializer().readWallet(verifyStream);
+			if (verifyWallet.getKeys().size() != wallet.getKeys().size()
+					|| verifyWallet.getTransactions(true, true).size() != wallet.getTransactions(true, true).size())
+				throw new IOException("migrated wallet does not match legacy wallet");
+		}
+		catch (final IllegalStateException x)
+		{
+			throw new IOException("cannot read migrated wallet: " + x);
+		}
+		finally
+		{
+			verifyStream.close();
+		}
+
+		if (!tempFile.renameTo(walletFile))
+			throw new IOException("cannot rename " + tempFile + " to " + walletFile);
+
+		// delete
+		legacyFile.delete();
+
+		progressListener.onProgress(100);
+	}
+
+	private static abstract class ProgressInputStream extends FilterInputStream
+	{
+		private long bytesRead = 0;
+		private long lastReported = 0;
+
+		public ProgressInputStream(final InputStream in)
+		{
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			final int b = super.read();
+			if (b != -1)
+				count(1);
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] buffer, final int offset, final int count) throws IOException
+		{
+			final int read = super.read(buffer, offset, count);
+			if (read > 0)
+				count(read);
+			return read;
+		}
+
+		private void count(final int read)
+		{
+			bytesRead += read;
+
+			if (bytesRead - lastReported >= PROGRESS_REPORT_BYTES)
+			{
+				lastReported = bytesRead;
+				onBytesRead(bytesRead);
+			}
+		}
+
+		protected abstract void onBytesRead(long bytesRead);
+	}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.DateUtils;
+
+/**
+ * Relative time labels like "5 minutes ago", computed once per minute of the time they describe. All labels expire together on the
+ * minute tick, or when the locale, time or time zone changes, and listeners then rebind whatever they show. Only to be used on the UI
+ * thread.
+ */
+public final class RelativeTimeCache
+{
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onLabelsExpired();
+	}
+
+	private final Context context;
+	private final LabelMap timeSpanLabels = new LabelMap();
+	private final LabelMap dateTimeLabels = new LabelMap();
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	public RelativeTimeCache(final Context context)
+	{
+		this.context = context;
+	}
+
+	/**
+	 * @return label as by {@link DateUtils#getRelativeTimeSpanString(Context, long)}
+	 */
+	public CharSequence getTimeSpan(final long timeMs)
+	{
+		final long minute = timeMs / DateUtils.MINUTE_IN_MILLIS;
+
+		CharSequence label = timeSpanLabels.get(minute);
+		if (label == null)
+		{
+			label = DateUtils.getRelativeTimeSpanString(context, minute * DateUtils.MINUTE_IN_MILLIS);
+			timeSpanLabels.put(minute, label);
+		}
+
+		return label;
+	}
+
+	/**
+	 * @return label as by {@link DateUtils#getRelativeDateTimeString(Context, long, long, long, int)}, with minute resolution and
+	 *         absolute dates after a week
+	 */
+	public CharSequence getDateTime(final long timeMs)
+	{
+		final long minute = timeMs / DateUtils.MINUTE_IN_MILLIS;
+
+		CharSequence label = dateTimeLabels.get(minute);
+		if (label == null)
+		{
+			label = DateUtils.getRelativeDateTimeString(context, minute * DateUtils.MINUTE_IN_MILLIS, DateUtils.MINUTE_IN_MILLIS,
+					DateUtils.WEEK_IN_MILLIS, 0);
+			dateTimeLabels.put(minute, label);
+		}
+
+		return label;
+	}
+
+	public void addListener(final Listener listener)
+	{
+		if (listeners.isEmpty())
+		{
+			// labels may have become stale while nobody was listening for the tick
+			clear();
+
+			final IntentFilter intentFilter = new IntentFilter();
+			intentFilter.addAction(Intent.ACTION_TIME_TICK);
+			intentFilter.addAction(Intent.ACTION_TIME_CHANGED);
+			intentFilter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+			intentFilter.addAction(Intent.ACTION_LOCALE_CHANGED);
+			context.registerReceiver(tickReceiver, intentFilter);
+		}
+
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		listeners.remove(listener);
+
+		if (listeners.isEmpty())
+			context.unregisterReceiver(tickReceiver);
+	}
+
+	private void clear()
+	{
+		timeSpanLabels.clear();
+		dateTimeLabels.clear();
+	}
+
+	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
+	{
+		@Override
+		public void onReceive(final Context context, final Intent intent)
+		{
+			clear();
+
+			for (final Listener listener : listeners)
+				listener.onLabelsExpired();
+		}
+	};
+
+	/**
+	 * Open addressing map from minute to label, so lookups don't box their keys.
+	 */
+	private static final class LabelMap
+	{
+		private static final int INITIAL_CAPACITY = 64;
+
+		private long[] keys = new long[INITIAL_CAPACITY];
+		private CharSequence[] values = new CharSequence[INITIAL_CAPACITY];
+		private int size = 0;
+
+		public CharSequence get(final long key)
+		{
+			final int mask = keys.length - 1;
+			for (int i = index(key, mask);; i = (i + 1) & mask)
+			{
+				if (values[i] == null)
+					return null;
+				if (keys[i] == key)
+					return values[i];
+			}
+		}
+
+		public void put(final long key, final CharSequence value)
+		{
+			if ((size + 1) * 2 > keys.length)
+				grow();
+
+			final int mask = keys.length - 1;
+			int i = index(key, mask);
+			while (values[i] != null && keys[i] != key)
+				i = (i + 1) & mask;
+
+			if (values[i] == null)
+				size++;
+			keys[i] = key;
+			values[i] = value;
+		}
+
+		public void clear()
+		{
+			Arrays.fill(values, null);
+			size = 0;
+		}
+
+		private void grow()
+		{
+			final long[] oldKeys = keys;
+			final CharSequence[] oldValues = values;
+
+			keys = new long[oldKeys.length * 2];
+			values = new CharSequence[oldValues.length * 2];
+			size = 0;
+
+			for (int i = 0; i < oldKeys.length; i++)
+				if (oldValues[i] != null)
+					put(oldKeys[i], oldValues[i]);
+		}
+
+		private static int index(final long key, final int mask)
+		{
+			final int hash = (int) (key ^ (key >>> 32)) * 0x9e3779b9;
+			return (hash ^ (hash >>> 16)) & mask;
+		}
+	}
+}
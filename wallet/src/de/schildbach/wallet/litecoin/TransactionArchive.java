@@ -0,0 +1,411 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import android.util.Log;
+
+import com.google.litecoin.core.Address;
+import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.TransactionConfidence;
+import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
+import com.google.litecoin.core.TransactionInput;
+import com.google.litecoin.core.TransactionOutput;
+import com.google.litecoin.core.Wallet;
+import com.google.litecoin.core.WalletTransaction;
+
+import de.schildbach.wallet.litecoin.util.WalletUtils;
+
+/**
+ * Append-only on-disk archive of fully spent, deeply buried transactions. Records are fixed width, so the archive is indexed by
+ * position and can be paged without keeping it in memory.
+ */
+public final class TransactionArchive
+{
+	public static final class ArchivedTransaction
+	{
+		public final Sha256Hash hash;
+		public final Date time;
+		public final BigInteger value;
+		public final int height;
+		public final boolean coinBase;
+		public final Address address;
+
+		private ArchivedTransaction(final Sha256Hash hash, final Date time, final BigInteger value, final int height, final boolean coinBase,
+				final Address address)
+		{
+			this.hash = hash;
+			this.time = time;
+			this.value = value;
+			this.height = height;
+			this.coinBase = coinBase;
+			this.address = address;
+		}
+
+		public boolean isSent()
+		{
+			return value.signum() < 0;
+		}
+	}
+
+	private static final int RECORD_SIZE = 32 /* hash */+ 8 /* time */+ 8 /* value */+ 4 /* height */+ 1 /* flags */+ 20 /* address */;
+	private static final int FLAG_COINBASE = 1;
+	private static final int FLAG_ADDRESS = 2;
+
+	private static final int PAGE_SIZE = 64;
+	private static final int MAX_CACHED_PAGES = 4;
+
+	private final File file;
+	private int size;
+
+	private final Map<Integer, ArchivedTransaction[]> pageCache = new LinkedHashMap<Integer, ArchivedTransaction[]>(MAX_CACHED_PAGES, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Integer, ArchivedTransaction[]> eldest)
+		{
+			return size() > MAX_CACHED_PAGES;
+		}
+	};
+
+	private static final String TAG = "Litecoin" + TransactionArchive.class.getSimpleName();
+
+	public TransactionArchive(final File file)
+	{
+		this.file = file;
+		this.size = (int) (file.length() / RECORD_SIZE);
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	/** @return archived transaction at position, oldest first */
+	public synchronized ArchivedTransaction get(final int position)
+	{
+		if (position < 0 || position >= size)
+			throw new IndexOutOfBoundsException(Integer.toString(position));
+
+		final int page = position / PAGE_SIZE;
+		ArchivedTransaction[] records = pageCache.get(page);
+
+		if (records == null)
+		{
+			try
+			{
+				records = readPage(page);
+				pageCache.put(page, records);
+			}
+			catch (final IOException x)
+			{
+				throw new RuntimeException(x);
+			}
+		}
+
+		return records[position % PAGE_SIZE];
+	}
+
+	private ArchivedTransaction[] readPage(final int page) throws IOException
+	{
+		final int from = page * PAGE_SIZE;
+		final int count = Math.min(PAGE_SIZE, size - from);
+		final byte[] buf = new byte[count * RECORD_SIZE];
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			raf.seek((long) from * RECORD_SIZE);
+			raf.readFully(buf);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		final ByteBuffer bb = ByteBuffer.wrap(buf);
+		final ArchivedTransaction[] records = new ArchivedTransaction[count];
+		for (int i = 0; i < count; i++)
+			records[i] = readRecord(bb);
+
+		return records;
+	}
+
+	private static ArchivedTransaction readRecord(final ByteBuffer bb)
+	{
+		final byte[] hash = new byte[32];
+		bb.get(hash);
+		final long time = bb.getLong();
+		final long value = bb.getLong();
+		final int height = bb.getInt();
+		final byte flags = bb.get();
+		final byte[] hash160 = new byte[20];
+		bb.get(hash160);
+
+		final Address address = (flags & FLAG_ADDRESS) != 0 ? new Address(Constants.NETWORK_PARAMETERS, hash160) : null;
+
+		return new ArchivedTransaction(new Sha256Hash(hash), time != 0 ? new Date(time) : null, BigInteger.valueOf(value), height,
+				(flags & FLAG_COINBASE) != 0, address);
+	}
+
+	public synchronized Set<Sha256Hash> hashes() throws IOException
+	{
+		final Set<Sha256Hash> hashes = new HashSet<Sha256Hash>(size);
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			for (int i = 0; i < size; i++)
+			{
+				final byte[] hash = new byte[32];
+				raf.seek((long) i * RECORD_SIZE);
+				raf.readFully(hash);
+				hashes.add(new Sha256Hash(hash));
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		return hashes;
+	}
+
+	/**
+	 * Appends records for the given transactions, which still have to be in the wallet so their values can be computed.
+	 */
+	public synchronized void append(final Wallet wallet, final Collection<Transaction> transactions) throws IOException
+	{
+		// cut off partially written record of an interrupted append
+		if (file.length() != (long) size * RECORD_SIZE)
+		{
+			final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength((long) size * RECORD_SIZE);
+			raf.close();
+		}
+
+		final Set<Sha256Hash> alreadyArchived = size > 0 ? hashes() : new HashSet<Sha256Hash>();
+
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+		int appended = 0;
+
+		try
+		{
+			final List<Transaction> sortedTransactions = new ArrayList<Transaction>(transactions);
+			Collections.sort(sortedTransactions, OLDEST_FIRST);
+
+			for (final Transaction tx : sortedTransactions)
+			{
+				if (alreadyArchived.contains(tx.getHash()))
+					continue;
+
+				final BigInteger value = tx.getValue(wallet);
+				final boolean sent = value.signum() < 0;
+				final Address address = sent ? WalletUtils.getToAddress(tx) : WalletUtils.getFromAddress(tx);
+				final Date time = tx.getUpdateTime();
+
+				os.write(tx.getHash().getBytes());
+				os.writeLong(time != null ? time.getTime() : 0);
+				os.writeLong(value.longValue());
+				os.writeInt(tx.getConfidence().getAppearedAtChainHeight());
+				os.writeByte((tx.isCoinBase() ? FLAG_COINBASE : 0) | (address != null ? FLAG_ADDRESS : 0));
+				os.write(address != null ? address.getHash160() : new byte[20]);
+
+				appended++;
+			}
+
+			os.flush();
+		}
+		catch (final ScriptException x)
+		{
+			throw new IOException("cannot archive: " + x);
+		}
+		finally
+		{
+			os.close();
+		}
+
+		size = (int) (file.length() / RECORD_SIZE);
+		pageCache.clear();
+
+		Log.i(TAG, "archived " + appended + " transactions, archive size now " + size);
+	}
+
+	/**
+	 * Drops all records from the given position on, undoing an append whose transactions could not be removed from the wallet.
+	 */
+	public synchronized void truncate(final int newSize) throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength((long) newSize * RECORD_SIZE);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		size = newSize;
+		pageCache.clear();
+
+		Log.i(TAG, "archive truncated to " + size);
+	}
+
+	/**
+	 * @return positions of all archived transactions, newest first
+	 */
+	public synchronized int[] positions()
+	{
+		final int[] positions = new int[size];
+		for (int i = 0; i < size; i++)
+			positions[i] = size - 1 - i;
+		return positions;
+	}
+
+	/**
+	 * @return positions of archived transactions in the given direction, newest first
+	 */
+	public synchronized int[] positions(final boolean sent) throws IOException
+	{
+		final int[] positions = new int[size];
+		int count = 0;
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			for (int i = size - 1; i >= 0; i--)
+			{
+				raf.seek((long) i * RECORD_SIZE + 32 + 8);
+				if ((raf.readLong() < 0) == sent)
+					positions[count++] = i;
+			}
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		final int[] result = new int[count];
+		System.arraycopy(positions, 0, result, 0, count);
+		return result;
+	}
+
+	private static final Comparator<Transaction> OLDEST_FIRST = new Comparator<Transaction>()
+	{
+		public int compare(final Transaction tx1, final Transaction tx2)
+		{
+			final Date updateTime1 = tx1.getUpdateTime();
+			final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
+			final Date updateTime2 = tx2.getUpdateTime();
+			final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
+
+			return time1 < time2 ? -1 : (time1 > time2 ? 1 : 0);
+		}
+	};
+
+	/**
+	 * Determines transactions that can be moved out of the wallet: fully spent, buried at least minDepth blocks, and spent only by
+	 * transactions buried deeper than minDepth. Spenders stay in the wallet and keep their own outputs, but a parent still in the
+	 * wallet would be left with outputs spent by a missing transaction, so parents have to be archivable as well.
+	 */
+	public static Set<Transaction> findArchivable(final Wallet wallet, final int minDepth)
+	{
+		final Set<Transaction> candidates = new HashSet<Transaction>();
+
+		for (final WalletTransaction wtx : wallet.getWalletTransactions())
+		{
+			if (wtx.getPool() != WalletTransaction.Pool.SPENT)
+				continue;
+
+			final Transaction tx = wtx.getTransaction();
+			if (isBuried(tx, minDepth) && isSpentDeeperThan(tx, minDepth))
+				candidates.add(tx);
+		}
+
+		boolean changed = true;
+		while (changed)
+		{
+			changed = false;
+
+			for (final Transaction tx : candidates.toArray(new Transaction[0]))
+			{
+				if (!areParentsArchivable(wallet, tx, candidates))
+				{
+					candidates.remove(tx);
+					changed = true;
+				}
+			}
+		}
+
+		return candidates;
+	}
+
+	private static boolean isBuried(final Transaction tx, final int minDepth)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+
+		return confidence.getConfidenceType() == ConfidenceType.BUILDING && confidence.getDepthInBlocks() >= minDepth;
+	}
+
+	private static boolean isSpentDeeperThan(final Transaction tx, final int minDepth)
+	{
+		for (final TransactionOutput output : tx.getOutputs())
+		{
+			final TransactionInput spentBy = output.getSpentBy();
+			if (spentBy != null && !isBuried(spentBy.getParentTransaction(), minDepth + 1))
+				return false;
+		}
+
+		return true;
+	}
+
+	private static boolean areParentsArchivable(final Wallet wallet, final Transaction tx, final Set<Transaction> candidates)
+	{
+		for (final TransactionInput input : tx.getInputs())
+		{
+			if (input.isCoinBase())
+				continue;
+
+			final Transaction parent = wallet.getTransaction(input.getOutpoint().getHash());
+			if (parent != null && !candidates.contains(parent))
+				return false;
+		}
+
+		return true;
+	}
+}
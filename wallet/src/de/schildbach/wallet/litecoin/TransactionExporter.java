@@ -0,0 +1,345 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+import com.google.litecoin.core.Address;
+import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.TransactionConfidence;
+import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
+import com.google.litecoin.core.TransactionInput;
+import com.google.litecoin.core.TransactionOutput;
+import com.google.litecoin.core.Wallet;
+
+import de.schildbach.wallet.litecoin.TransactionArchive.ArchivedTransaction;
+import de.schildbach.wallet.litecoin.util.Iso8601Format;
+import de.schildbach.wallet.litecoin.util.WalletUtils;
+
+/**
+ * Writes the transaction history as CSV or as JSON lines. Transactions are walked page by page, newest first, followed by the
+ * archive, and each record is written as soon as it has been formatted, so memory use doesn't depend on the length of the history.
+ */
+public final class TransactionExporter
+{
+	public enum Format
+	{
+		CSV("csv", "text/csv"), JSON("json", "application/json");
+
+		public final String fileExtension;
+		public final String mimeType;
+
+		private Format(final String fileExtension, final String mimeType)
+		{
+			this.fileExtension = fileExtension;
+			this.mimeType = mimeType;
+		}
+	}
+
+	public interface ProgressListener
+	{
+		/** will be called back on the exporting thread */
+		void onProgress(int done, int total);
+
+		boolean isCancelled();
+	}
+
+	private final Wallet wallet;
+	private final WalletTransactionIndex transactionIndex;
+	private final TransactionArchive transactionArchive;
+	private final AddressLabelCache labelCache;
+	private final Format format;
+	private final DateFormat dateFormat = Iso8601Format.newDateTimeFormatT();
+
+	private int bestChainHeight = -1;
+
+	private static final int PAGE_SIZE = 100;
+	private static final String[] COLUMNS = { "hash", "time", "value", "fee", "counterparty", "label", "confirmations", "block_height" };
+
+	public TransactionExporter(final Wallet wallet, final WalletTransactionIndex transactionIndex, final TransactionArchive transactionArchive,
+			final AddressLabelCache labelCache, final Format format)
+	{
+		this.wallet = wallet;
+		this.transactionIndex = transactionIndex;
+		this.transactionArchive = transactionArchive;
+		this.labelCache = labelCache;
+		this.format = format;
+
+		dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+	}
+
+	/**
+	 * @return false if cancelled
+	 */
+	public boolean export(final Writer out, final ProgressListener progressListener) throws IOException
+	{
+		// immutable snapshot, shares the transaction references of the index
+		final List<Transaction> transactions = transactionIndex.getTransactions();
+		final int archiveSize = transactionArchive != null ? transactionArchive.size() : 0;
+		final int total = transactions.size() + archiveSize;
+
+		if (format == Format.CSV)
+			writeCsvHeader(out);
+
+		final List<String> pageAddresses = new ArrayList<String>(PAGE_SIZE);
+
+		for (int from = 0; from < transactions.size(); from += PAGE_SIZE)
+		{
+			if (progressListener.isCancelled())
+				return false;
+
+			final List<Transaction> page = transactions.subList(from, Math.min(from + PAGE_SIZE, transactions.size()));
+
+			// labels of the whole page in one go
+			pageAddresses.clear();
+			for (final Transaction tx : page)
+			{
+				final Address address = counterparty(tx);
+				if (address != null)
+					pageAddresses.add(address.toString());
+			}
+			labelCache.load(pageAddresses);
+
+			for (final Transaction tx : page)
+				writeTransaction(out, tx);
+
+			progressListener.onProgress(from + page.size(), total);
+		}
+
+		// archive, newest first
+		for (int i = 0; i < archiveSize; i++)
+		{
+			if (i % PAGE_SIZE == 0)
+			{
+				if (progressListener.isCancelled())
+					return false;
+
+				progressListener.onProgress(transactions.size() + i, total);
+
+				pageAddresses.clear();
+				for (int j = i; j < Math.min(i + PAGE_SIZE, archiveSize); j++)
+				{
+					final Address address = transactionArchive.get(archiveSize - 1 - j).address;
+					if (address != null)
+						pageAddresses.add(address.toString());
+				}
+				labelCache.load(pageAddresses);
+			}
+
+			writeArchivedTransaction(out, transactionArchive.get(archiveSize - 1 - i));
+		}
+
+		out.flush();
+		progressListener.onProgress(total, total);
+
+		return true;
+	}
+
+	private Address counterparty(final Transaction tx)
+	{
+		try
+		{
+			return tx.getValue(wallet).signum() < 0 ? WalletUtils.getToAddress(tx) : WalletUtils.getFromAddress(tx);
+		}
+		catch (final ScriptException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	private void writeTransaction(final Writer out, final Transaction tx) throws IOException
+	{
+		try
+		{
+			final BigInteger value = tx.getValue(wallet);
+			final boolean sent = value.signum() < 0;
+			final Address address = sent ? WalletUtils.getToAddress(tx) : WalletUtils.getFromAddress(tx);
+			final Date time = tx.getUpdateTime();
+
+			final TransactionConfidence confidence = tx.getConfidence();
+			final boolean building = confidence.getConfidenceType() == ConfidenceType.BUILDING;
+			final int depth = building ? confidence.getDepthInBlocks() : 0;
+			final int height = building ? confidence.getAppearedAtChainHeight() : -1;
+
+			// remember the chain height for the confirmations of archived transactions
+			if (building && bestChainHeight < 0)
+				bestChainHeight = height + depth - 1;
+
+			final String addressStr = address != null ? address.toString() : null;
+
+			writeRecord(out, tx.getHash(), time, value, sent ? fee(tx) : null, addressStr, addressStr != null ? labelCache.resolve(addressStr)
+					: null, depth, height);
+		}
+		catch (final ScriptException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	private void writeArchivedTransaction(final Writer out, final ArchivedTransaction tx) throws IOException
+	{
+		final String addressStr = tx.address != null ? tx.address.toString() : null;
+		final int confirmations = bestChainHeight >= 0 && tx.height > 0 ? bestChainHeight - tx.height + 1 : -1;
+
+		writeRecord(out, tx.hash, tx.time, tx.value, null, addressStr, addressStr != null ? labelCache.resolve(addressStr) : null,
+				confirmations, tx.height);
+	}
+
+	/**
+	 * @return fee, or null if not all spent outputs are known
+	 */
+	private static BigInteger fee(final Transaction tx)
+	{
+		BigInteger fee = BigInteger.ZERO;
+
+		for (final TransactionInput input : tx.getInputs())
+		{
+			final TransactionOutput connectedOutput = input.getOutpoint().getConnectedOutput();
+			if (connectedOutput == null)
+				return null;
+			fee = fee.add(connectedOutput.getValue());
+		}
+
+		for (final TransactionOutput output : tx.getOutputs())
+			fee = fee.subtract(output.getValue());
+
+		return fee;
+	}
+
+	private void writeCsvHeader(final Writer out) throws IOException
+	{
+		for (int i = 0; i < COLUMNS.length; i++)
+		{
+			if (i > 0)
+				out.write(',');
+			out.write(COLUMNS[i]);
+		}
+		out.write('\n');
+	}
+
+	/**
+	 * The wallet doesn't keep the timestamps of the blocks its transactions appeared in, so there is no block time column. The update
+	 * time is when the transaction was first seen, which for pending transactions is well before the block.
+	 */
+	private void writeRecord(final Writer out, final Sha256Hash hash, final Date time, final BigInteger value, final BigInteger fee,
+			final String address, final String label, final int confirmations, final int height) throws IOException
+	{
+		final String[] fields = { hash.toString(), time != null ? dateFormat.format(time) : null, WalletUtils.formatValue(value, 8),
+				fee != null ? WalletUtils.formatValue(fee, 8) : null, address, label,
+				confirmations >= 0 ? Integer.toString(confirmations) : null, height > 0 ? Integer.toString(height) : null };
+
+		if (format == Format.CSV)
+		{
+			for (int i = 0; i < fields.length; i++)
+			{
+				if (i > 0)
+					out.write(',');
+				if (fields[i] != null)
+					writeCsvField(out, i == 4 || i == 5 ? neutralizeFormula(fields[i]) : fields[i]);
+			}
+			out.write('\n');
+		}
+		else
+		{
+			out.write('{');
+			for (int i = 0; i < fields.length; i++)
+			{
+				if (i > 0)
+					out.write(',');
+				out.write('"');
+				out.write(COLUMNS[i]);
+				out.write("\":");
+				if (fields[i] == null)
+					out.write("null");
+				else if (i == 6 || i == 7)
+					out.write(fields[i]); // numbers
+				else
+					writeJsonString(out, fields[i]);
+			}
+			out.write("}\n");
+		}
+	}
+
+	/**
+	 * Keeps spreadsheets from evaluating text as a formula. Only needed for text, the numbers are formatted here and a leading minus is
+	 * their sign.
+	 */
+	private static String neutralizeFormula(final String field)
+	{
+		final char first = field.length() > 0 ? field.charAt(0) : 0;
+		if (first == '=' || first == '+' || first == '-' || first == '@' || first == '\t' || first == '\r')
+			return "'" + field;
+		else
+			return field;
+	}
+
+	private static void writeCsvField(final Writer out, final String field) throws IOException
+	{
+		if (field.indexOf(',') < 0 && field.indexOf('"') < 0 && field.indexOf('\n') < 0 && field.indexOf('\r') < 0)
+		{
+			out.write(field);
+			return;
+		}
+
+		out.write('"');
+		for (int i = 0; i < field.length(); i++)
+		{
+			final char c = field.charAt(i);
+			if (c == '"')
+				out.write('"');
+			out.write(c);
+		}
+		out.write('"');
+	}
+
+	private static void writeJsonString(final Writer out, final String str) throws IOException
+	{
+		out.write('"');
+		for (int i = 0; i < str.length(); i++)
+		{
+			final char c = str.charAt(i);
+			if (c == '"' || c == '\\')
+			{
+				out.write('\\');
+				out.write(c);
+			}
+			else if (c == '\n')
+			{
+				out.write("\\n");
+			}
+			else if (c < 0x20)
+			{
+				out.write(String.format("\\u%04x", (int) c));
+			}
+			else
+			{
+				out.write(c);
+			}
+		}
+		out.write('"');
+	}
+}
@@ -0,0 +1,526 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.math.BigInteger;
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.google.litecoin.core.Address;
+import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.Utils;
+import com.google.litecoin.core.Wallet;
+
+import de.schildbach.wallet.litecoin.util.Iso8601Format;
+import de.schildbach.wallet.litecoin.util.WalletUtils;
+
+/**
+ * Searchable index over the wallet transactions, by transaction hash, counterparty address, address book label, amount and time.
+ * Text terms match prefixes of words, ranges are looked up in sorted maps, so queries don't scan the wallet. The index is built on
+ * the background handler and updated from the change sets of the {@link WalletChangeDispatcher}. Every change gets a new version, so
+ * readers can tell whether their results are still current.
+ */
+public final class TransactionSearchIndex implements WalletChangeDispatcher.Listener, AddressLabelCache.Listener
+{
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onSearchIndexChanged(long version);
+	}
+
+	/**
+	 * Matches of a query, together with the version of the index they were taken from.
+	 */
+	public static final class Result
+	{
+		public final long version;
+		public final Set<Sha256Hash> hashes;
+
+		public Result(final long version, final Set<Sha256Hash> hashes)
+		{
+			this.version = version;
+			this.hashes = hashes;
+		}
+	}
+
+	/**
+	 * Parsed search query. Terms are matched as word prefixes and all have to match. Amounts are compared without sign.
+	 */
+	public static final class Query
+	{
+		public final List<String> terms;
+		public final long minValue, maxValue;
+		public final long minTime, maxTime;
+
+		public Query(final List<String> terms, final long minValue, final long maxValue, final long minTime, final long maxTime)
+		{
+			this.terms = terms;
+			this.minValue = minValue;
+			this.maxValue = maxValue;
+			this.minTime = minTime;
+			this.maxTime = maxTime;
+		}
+
+		/**
+		 * Understands <code>&gt;1.5</code> and <code>&lt;10</code> for amounts, <code>2013-05-01</code> and
+		 * <code>2013-05-01..2013-06-30</code> for days. Everything else is a text term.
+		 */
+		public static Query parse(final String query)
+		{
+			final List<String> terms = new ArrayList<String>();
+			long minValue = 0, maxValue = Long.MAX_VALUE;
+			long minTime = 0, maxTime = Long.MAX_VALUE;
+
+			final DateFormat dateFormat = Iso8601Format.newDateFormat();
+
+			for (final String token : query.trim().split("\\s+"))
+			{
+				if (token.length() == 0)
+					continue;
+
+				try
+				{
+					if (token.charAt(0) == '>')
+					{
+						minValue = Utils.toNanoCoins(token.substring(token.startsWith(">=") ? 2 : 1)).longValue();
+						continue;
+					}
+					else if (token.charAt(0) == '<')
+					{
+						maxValue = Utils.toNanoCoins(token.substring(token.startsWith("<=") ? 2 : 1)).longValue();
+						continue;
+					}
+					else if (token.length() >= 10 && Character.isDigit(token.charAt(0)) && token.charAt(4) == '-')
+					{
+						final int separator = token.indexOf("..");
+						final String from = separator >= 0 ? token.substring(0, separator) : token;
+						final String to = separator >= 0 ? token.substring(separator + 2) : token;
+						if (from.length() > 0)
+							minTime = dateFormat.parse(from).getTime();
+						if (to.length() > 0)
+							maxTime = dateFormat.parse(to).getTime() + DateUtils.DAY_IN_MILLIS - 1;
+						continue;
+					}
+				}
+				catch (final ParseException x)
+				{
+					// fall through, treat as text
+				}
+				catch (final ArithmeticException x)
+				{
+					// fall through, treat as text
+				}
+				catch (final NumberFormatException x)
+				{
+					// fall through, treat as text
+				}
+
+				terms.add(token.toLowerCase(Locale.US));
+			}
+
+			return new Query(terms, minValue, maxValue, minTime, maxTime);
+		}
+
+		public boolean isEmpty()
+		{
+			return terms.isEmpty() && minValue == 0 && maxValue == Long.MAX_VALUE && minTime == 0 && maxTime == Long.MAX_VALUE;
+		}
+	}
+
+	private static final class Entry
+	{
+		public final Sha256Hash hash;
+		public final String address;
+		public final long value;
+		public final long time;
+		public String label;
+
+		public Entry(final Sha256Hash hash, final String address, final long value, final long time)
+		{
+			this.hash = hash;
+			this.address = address;
+			this.value = value;
+			this.time = time;
+		}
+	}
+
+	private final Wallet wallet;
+	private final AddressLabelCache labelCache;
+	private final Handler backgroundHandler;
+	private final CountDownLatch built = new CountDownLatch(1);
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+
+	private final Map<Sha256Hash, Entry> entries = new HashMap<Sha256Hash, Entry>();
+	private final Map<String, Set<Entry>> entriesByAddress = new HashMap<String, Set<Entry>>();
+	private final TreeMap<String, Set<Entry>> entriesByToken = new TreeMap<String, Set<Entry>>();
+	private final TreeMap<Long, Set<Entry>> entriesByValue = new TreeMap<Long, Set<Entry>>();
+	private final TreeMap<Long, Set<Entry>> entriesByTime = new TreeMap<Long, Set<Entry>>();
+	private long version = 0;
+
+	private static final String TAG = "Litecoin" + TransactionSearchIndex.class.getSimpleName();
+
+	public TransactionSearchIndex(final Wallet wallet, final AddressLabelCache labelCache, final Handler backgroundHandler)
+	{
+		this.wallet = wallet;
+		this.labelCache = labelCache;
+		this.backgroundHandler = backgroundHandler;
+
+		labelCache.addListener(this);
+
+		backgroundHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				rebuild();
+				built.countDown();
+				notifyListeners();
+			}
+		});
+	}
+
+	private synchronized void rebuild()
+	{
+		final long start = System.currentTimeMillis();
+
+		entries.clear();
+		entriesByAddress.clear();
+		entriesByToken.clear();
+		entriesByValue.clear();
+		entriesByTime.clear();
+
+		final Set<Transaction> transactions = wallet.getTransactions(true, false);
+		final List<Entry> newEntries = new ArrayList<Entry>(transactions.size());
+		for (final Transaction tx : transactions)
+			newEntries.add(newEntry(tx));
+
+		// labels of all counterparties in as few queries as possible
+		final Set<String> addresses = new HashSet<String>();
+		for (final Entry entry : newEntries)
+			if (entry.address != null)
+				addresses.add(entry.address);
+		labelCache.load(addresses);
+
+		for (final Entry entry : newEntries)
+			add(entry);
+
+		version++;
+
+		Log.i(TAG, "indexed " + entries.size() + " transactions, took " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private Entry newEntry(final Transaction tx)
+	{
+		try
+		{
+			final BigInteger value = tx.getValue(wallet);
+			final boolean sent = value.signum() < 0;
+			final Address address = sent ? WalletUtils.getToAddress(tx) : WalletUtils.getFromAddress(tx);
+			final Date updateTime = tx.getUpdateTime();
+
+			return new Entry(tx.getHash(), address != null ? address.toString() : null, value.abs().longValue(), updateTime != null ? updateTime
+					.getTime() : 0);
+		}
+		catch (final ScriptException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	private void add(final Entry entry)
+	{
+		entries.put(entry.hash, entry);
+		put(entriesByValue, entry.value, entry);
+		put(entriesByTime, entry.time, entry);
+		put(entriesByToken, entry.hash.toString(), entry);
+
+		if (entry.address != null)
+		{
+			put(entriesByAddress, entry.address, entry);
+			put(entriesByToken, entry.address.toLowerCase(Locale.US), entry);
+
+			entry.label = labelCache.resolve(entry.address);
+			for (final String word : words(entry.label))
+				put(entriesByToken, word, entry);
+		}
+	}
+
+	private void remove(final Entry entry)
+	{
+		entries.remove(entry.hash);
+		take(entriesByValue, entry.value, entry);
+		take(entriesByTime, entry.time, entry);
+		take(entriesByToken, entry.hash.toString(), entry);
+
+		if (entry.address != null)
+		{
+			take(entriesByAddress, entry.address, entry);
+			take(entriesByToken, entry.address.toLowerCase(Locale.US), entry);
+			for (final String word : words(entry.label))
+				take(entriesByToken, word, entry);
+		}
+	}
+
+	private static <K> void put(final Map<K, Set<Entry>> map, final K key, final Entry entry)
+	{
+		Set<Entry> set = map.get(key);
+		if (set == null)
+		{
+			set = new HashSet<Entry>(2);
+			map.put(key, set);
+		}
+		set.add(entry);
+	}
+
+	private static <K> void take(final Map<K, Set<Entry>> map, final K key, final Entry entry)
+	{
+		final Set<Entry> set = map.get(key);
+		if (set != null)
+		{
+			set.remove(entry);
+			if (set.isEmpty())
+				map.remove(key);
+		}
+	}
+
+	private static List<String> words(final String label)
+	{
+		if (label == null)
+			return Collections.emptyList();
+
+		final List<String> words = new ArrayList<String>();
+		for (final String word : label.toLowerCase(Locale.US).split("[^\\p{L}\\p{N}]+"))
+			if (word.length() > 0)
+				words.add(word);
+
+		return words;
+	}
+
+	public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
+	{
+		if (changes.contains(WalletChangeDispatcher.KIND_REORGANIZE | WalletChangeDispatcher.KIND_CLEARED))
+		{
+			rebuild();
+			notifyListeners();
+			return;
+		}
+
+		if (changes.transactions.isEmpty())
+			return;
+
+		synchronized (this)
+		{
+			for (final Sha256Hash hash : changes.transactions)
+			{
+				final Entry oldEntry = entries.get(hash);
+				if (oldEntry != null)
+					remove(oldEntry);
+
+				final Transaction tx = wallet.getTransaction(hash);
+				if (tx != null)
+					add(newEntry(tx));
+			}
+
+			version++;
+		}
+
+		notifyListeners();
+	}
+
+	public void onLabelsChanged()
+	{
+		backgroundHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				if (relabel())
+					notifyListeners();
+			}
+		});
+	}
+
+	/**
+	 * @return true if any label changed
+	 */
+	private synchronized boolean relabel()
+	{
+		labelCache.load(entriesByAddress.keySet());
+
+		boolean changed = false;
+
+		for (final Map.Entry<String, Set<Entry>> addressEntries : entriesByAddress.entrySet())
+		{
+			final String label = labelCache.resolve(addressEntries.getKey());
+
+			for (final Entry entry : addressEntries.getValue())
+			{
+				if (label != null ? label.equals(entry.label) : entry.label == null)
+					continue;
+
+				for (final String word : words(entry.label))
+					take(entriesByToken, word, entry);
+				entry.label = label;
+				for (final String word : words(label))
+					put(entriesByToken, word, entry);
+				changed = true;
+			}
+		}
+
+		if (changed)
+			version++;
+
+		return changed;
+	}
+
+	public void addListener(final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private void notifyListeners()
+	{
+		final long currentVersion = getVersion();
+
+		callbackHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onSearchIndexChanged(currentVersion);
+			}
+		});
+	}
+
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Blocks until the index has been built.
+	 *
+	 * @return hashes of all transactions matching the query, with the version of the index they were found in
+	 */
+	public Result search(final Query query)
+	{
+		try
+		{
+			built.await();
+		}
+		catch (final InterruptedException x)
+		{
+			throw new RuntimeException(x);
+		}
+
+		synchronized (this)
+		{
+			final long start = System.currentTimeMillis();
+
+			Collection<Entry> candidates = null;
+
+			for (final String term : query.terms)
+				candidates = intersect(candidates, prefixMatches(term));
+
+			if (query.minValue > 0 || query.maxValue < Long.MAX_VALUE)
+				candidates = intersect(candidates, rangeMatches(entriesByValue, query.minValue, query.maxValue));
+
+			if (query.minTime > 0 || query.maxTime < Long.MAX_VALUE)
+				candidates = intersect(candidates, rangeMatches(entriesByTime, query.minTime, query.maxTime));
+
+			if (candidates == null)
+				candidates = entries.values();
+
+			final Set<Sha256Hash> hashes = new HashSet<Sha256Hash>(candidates.size());
+			for (final Entry entry : candidates)
+				hashes.add(entry.hash);
+
+			Log.d(TAG, "found " + hashes.size() + " of " + entries.size() + " transactions, took " + (System.currentTimeMillis() - start)
+					+ "ms");
+
+			return new Result(version, hashes);
+		}
+	}
+
+	private Set<Entry> prefixMatches(final String prefix)
+	{
+		final Set<Entry> matches = new HashSet<Entry>();
+
+		for (final Map.Entry<String, Set<Entry>> tokenEntries : entriesByToken.tailMap(prefix).entrySet())
+		{
+			if (!tokenEntries.getKey().startsWith(prefix))
+				break;
+
+			matches.addAll(tokenEntries.getValue());
+		}
+
+		return matches;
+	}
+
+	private static Set<Entry> rangeMatches(final TreeMap<Long, Set<Entry>> map, final long min, final long max)
+	{
+		if (min > max)
+			return Collections.emptySet();
+
+		final SortedMap<Long, Set<Entry>> range = max < Long.MAX_VALUE ? map.subMap(min, max + 1) : map.tailMap(min);
+
+		final Set<Entry> matches = new HashSet<Entry>();
+		for (final Set<Entry> entries : range.values())
+			matches.addAll(entries);
+
+		return matches;
+	}
+
+	private static Collection<Entry> intersect(final Collection<Entry> candidates, final Set<Entry> matches)
+	{
+		if (candidates == null)
+			return matches;
+
+		final Set<Entry> intersection = new HashSet<Entry>();
+		for (final Entry entry : candidates)
+			if (matches.contains(entry))
+				intersection.add(entry);
+
+		return intersection;
+	}
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.util.Log;
+
+import com.google.litecoin.core.AbstractWalletEventListener;
+import com.google.litecoin.core.Address;
+import com.google.litecoin.core.ECKey;
+import com.google.litecoin.core.Wallet;
+
+/**
+ * Maps hash160 and Base58 address strings to the keys of the wallet, so that lookups don't need to hash and encode every key of
+ * the keychain. Built once when the wallet is loaded and kept up to date via {@link #onKeyAdded(ECKey)}.
+ */
+public final class WalletAddressIndex extends AbstractWalletEventListener
+{
+	private final Map<String, ECKey> keysByAddress = new ConcurrentHashMap<String, ECKey>();
+	private final Map<ByteBuffer, ECKey> keysByHash160 = new ConcurrentHashMap<ByteBuffer, ECKey>();
+	private final Map<ByteBuffer, Address> addressesByHash160 = new ConcurrentHashMap<ByteBuffer, Address>();
+	private final List<Address> addresses = new CopyOnWriteArrayList<Address>();
+
+	private static final String TAG = "Litecoin" + WalletAddressIndex.class.getSimpleName();
+
+	public WalletAddressIndex(final Wallet wallet)
+	{
+		final long start = System.currentTimeMillis();
+
+		final List<ECKey> keys = wallet.getKeys();
+		final List<Address> addresses = new ArrayList<Address>(keys.size());
+		for (final ECKey key : keys)
+			addresses.add(index(key));
+		this.addresses.addAll(addresses);
+
+		Log.i(TAG, "indexed " + keys.size() + " keys, took " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private Address index(final ECKey key)
+	{
+		final byte[] hash160 = key.getPubKeyHash();
+		final Address address = new Address(Constants.NETWORK_PARAMETERS, hash160);
+		final ByteBuffer hashKey = ByteBuffer.wrap(hash160);
+
+		keysByAddress.put(address.toString(), key);
+		keysByHash160.put(hashKey, key);
+		addressesByHash160.put(hashKey, address);
+
+		return address;
+	}
+
+	@Override
+	public void onKeyAdded(final ECKey key)
+	{
+		if (!keysByHash160.containsKey(ByteBuffer.wrap(key.getPubKeyHash())))
+			addresses.add(index(key));
+	}
+
+	public ECKey findKey(final String address)
+	{
+		return address != null ? keysByAddress.get(address) : null;
+	}
+
+	public ECKey findKey(final byte[] hash160)
+	{
+		return hash160 != null ? keysByHash160.get(ByteBuffer.wrap(hash160)) : null;
+	}
+
+	public Address findAddress(final String address)
+	{
+		final ECKey key = findKey(address);
+		return key != null ? addressOf(key) : null;
+	}
+
+	public Address addressOf(final ECKey key)
+	{
+		final Address address = addressesByHash160.get(ByteBuffer.wrap(key.getPubKeyHash()));
+		return address != null ? address : key.toAddress(Constants.NETWORK_PARAMETERS);
+	}
+
+	public boolean isMine(final String address)
+	{
+		return address != null && keysByAddress.containsKey(address);
+	}
+
+	public boolean isMine(final Address address)
+	{
+		return address != null && keysByHash160.containsKey(ByteBuffer.wrap(address.getHash160()));
+	}
+
+	/** addresses in keychain order */
+	public List<Address> getAddresses()
+	{
+		return Collections.unmodifiableList(addresses);
+	}
+
+	public int size()
+	{
+		return addresses.size();
+	}
+}
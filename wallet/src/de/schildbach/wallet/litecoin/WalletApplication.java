@@ -18,9 +18,12 @@
 package de.schildbach.wallet.litecoin;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -28,10 +31,13 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.concurrent.TimeUnit;
+import java.util.Set;
 
 import android.app.ActivityManager;
 import android.app.Application;
@@ -39,6 +45,10 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
 import android.util.Log;
@@ -46,9 +56,13 @@ import android.widget.Toast;
 
 import com.google.litecoin.core.Address;
 import com.google.litecoin.core.ECKey;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
 import com.google.litecoin.core.Wallet;
 import com.google.litecoin.store.WalletProtobufSerializer;
 
+import org.litecoinj.wallet.Protos;
+
 import de.schildbach.wallet.litecoin.service.BlockchainService;
 import de.schildbach.wallet.litecoin.service.BlockchainServiceImpl;
 import de.schildbach.wallet.litecoin.util.CrashReporter;
@@ -63,10 +77,27 @@ public class WalletApplication extends Application
 {
 	private File walletFile;
 	private Wallet wallet;
+	private WalletAddressIndex addressIndex;
+	private WalletTransactionIndex transactionIndex;
+	private WalletBalanceTracker balanceTracker;
+	private WalletChangeDispatcher changeDispatcher;
+	private TransactionSearchIndex searchIndex;
+	private AddressActivityIndex addressActivityIndex;
+	private TransactionArchive transactionArchive;
+	private AddressLabelCache addressLabelCache;
+	private RelativeTimeCache relativeTimeCache;
+	private HttpFetcher httpFetcher;
 	private Intent blockchainServiceIntent;
 	private Intent blockchainServiceCancelCoinsReceivedIntent;
 	private Intent blockchainServiceResetBlockchainIntent;
 	private ActivityManager activityManager;
+	private WalletConsistencyStamp consistencyStamp;
+	private WalletFileSlots walletFileSlots;
+	private WalletMigrator walletMigrator;
+	private HandlerThread backgroundThread;
+	private Handler backgroundHandler;
+	private volatile long lastConsistencyCheck = 0;
+	private boolean consistencyCheckScheduled = false; // only touched on the background handler
 
 	private static final Charset UTF_8 = Charset.forName("UTF-8");
 	private static final String TAG = "Litecoin"+WalletApplication.class.getSimpleName();
@@ -91,53 +122,251 @@ public class WalletApplication extends Application
 
 		activityManager = (ActivityManager) getSystemService(Context.ACTIVITY_SERVICE);
 
+		consistencyStamp = new WalletConsistencyStamp(PreferenceManager.getDefaultSharedPreferences(this));
+
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+		backgroundHandler = new Handler(backgroundThread.getLooper());
+
+		addressLabelCache = new AddressLabelCache(this, backgroundHandler);
+		relativeTimeCache = new RelativeTimeCache(this);
+		httpFetcher = new HttpFetcher(new File(getCacheDir(), Constants.HTTP_CACHE_DIRECTORY));
+
 		blockchainServiceIntent = new Intent(this, BlockchainServiceImpl.class);
 		blockchainServiceCancelCoinsReceivedIntent = new Intent(BlockchainService.ACTION_CANCEL_COINS_RECEIVED, null, this,
 				BlockchainServiceImpl.class);
 		blockchainServiceResetBlockchainIntent = new Intent(BlockchainService.ACTION_RESET_BLOCKCHAIN, null, this, BlockchainServiceImpl.class);
 
 		walletFile = getFileStreamPath(Constants.WALLET_FILENAME_PROTOBUF);
+		walletFileSlots = new WalletFileSlots(getFileStreamPath(Constants.WALLET_FILENAME_PROTOBUF + ".a"),
+				getFileStreamPath(Constants.WALLET_FILENAME_PROTOBUF + ".b"));
+
+		walletMigrator = new WalletMigrator(new LegacyWalletMigration(getFileStreamPath(Constants.WALLET_FILENAME), walletFile));
+
+		final boolean archivingDue = isArchivingDue();
+
+		if (walletMigrator.isNeeded() || archivingDue)
+		{
+			Log.i(TAG, archivingDue ? "archiving transactions" : "found wallet to migrate");
 
+			// wallet will be available as soon as migration and archiving have finished
+			walletMigrator.start(backgroundHandler, new Runnable()
+			{
+				public void run()
+				{
+					initWallet(archivingDue);
+				}
+			});
+		}
+		else
+		{
+			initWallet(false);
+			walletMigrator.markFinished();
+		}
+	}
+
+	/**
+	 * @param archive
+	 *            move old transactions to the archive before anything else gets to see the wallet, only on the background thread
+	 */
+	private void initWallet(final boolean archive)
+	{
 		migrateWalletToProtobuf();
 
 		loadWalletFromProtobuf();
 
+		transactionArchive = new TransactionArchive(getFileStreamPath(Constants.TRANSACTION_ARCHIVE_FILENAME));
+		if (archive)
+			archiveTransactions();
+
+		addressIndex = new WalletAddressIndex(wallet);
+		wallet.addEventListener(addressIndex);
+
+		transactionIndex = new WalletTransactionIndex(wallet);
+		wallet.addEventListener(transactionIndex);
+
+		changeDispatcher = new WalletChangeDispatcher(backgroundHandler);
+		wallet.addEventListener(changeDispatcher);
+
+		balanceTracker = new WalletBalanceTracker(wallet);
+		changeDispatcher.addListener(balanceTracker, WalletChangeDispatcher.KIND_ALL & ~WalletChangeDispatcher.KIND_WALLET,
+				Constants.BALANCE_THROTTLE_MS, backgroundHandler);
+
+		searchIndex = new TransactionSearchIndex(wallet, addressLabelCache, backgroundHandler);
+		changeDispatcher.addListener(searchIndex, WalletChangeDispatcher.KIND_COINS | WalletChangeDispatcher.KIND_REORGANIZE
+				| WalletChangeDispatcher.KIND_CLEARED, 0, backgroundHandler);
+
+		addressActivityIndex = new AddressActivityIndex(wallet, addressIndex, getFileStreamPath(Constants.ADDRESS_ACTIVITY_FILENAME),
+				backgroundHandler);
+		changeDispatcher.addListener(addressActivityIndex, WalletChangeDispatcher.KIND_COINS | WalletChangeDispatcher.KIND_REORGANIZE
+				| WalletChangeDispatcher.KIND_CONFIDENCE | WalletChangeDispatcher.KIND_CLEARED, 0, backgroundHandler);
+
 		backupKeys();
 
-		wallet.autosaveToFile(walletFile, 1, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+		changeDispatcher.addListener(walletAutosaver, WalletChangeDispatcher.KIND_ALL, Constants.WALLET_AUTOSAVE_DELAY_MS, backgroundHandler);
 	}
 
-	private static final class WalletAutosaveEventListener implements Wallet.AutosaveEventListener
+	private final WalletChangeDispatcher.Listener walletAutosaver = new WalletChangeDispatcher.Listener()
 	{
-		public boolean caughtException(final Throwable t)
+		public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
 		{
-			throw new Error(t);
+			try
+			{
+				// the consistency check walks all pools with the wallet locked, so it is left to the throttled verifier
+				protobufSerializeWallet(wallet, false);
+			}
+			catch (final IOException x)
+			{
+				throw new Error("cannot autosave wallet", x);
+			}
+
+			if (!consistencyCheckScheduled)
+			{
+				consistencyCheckScheduled = true;
+
+				final long delay = lastConsistencyCheck + Constants.WALLET_CONSISTENCY_CHECK_INTERVAL_MS - System.currentTimeMillis();
+				backgroundHandler.postDelayed(consistencyVerifier, Math.max(delay, 0));
+			}
 		}
+	};
 
-		public void onBeforeAutoSave(final File file)
+	/**
+	 * Saves the wallet once more with the consistency check, at most once per interval, so the stamp catches up with the autosaves.
+	 */
+	private final Runnable consistencyVerifier = new Runnable()
+	{
+		public void run()
 		{
+			consistencyCheckScheduled = false;
+
+			try
+			{
+				protobufSerializeWallet(wallet, true);
+			}
+			catch (final IOException x)
+			{
+				throw new Error("cannot autosave wallet", x);
+			}
 		}
+	};
 
-		public void onAfterAutoSave(final File file)
+	private void writeWalletSlot(final byte[] payload, final byte[] digest)
+	{
+		try
 		{
-			// make wallets world accessible in test mode
-			if (Constants.TEST)
-				WalletUtils.chmod(file, 0777);
+			walletFileSlots.write(payload, digest);
+		}
+		catch (final IOException x)
+		{
+			// the other slot still holds the previous generation
+			x.printStackTrace();
 		}
 	}
 
 	public Wallet getWallet()
 	{
+		awaitWallet();
+
 		return wallet;
 	}
 
+	public WalletMigrator getWalletMigrator()
+	{
+		return walletMigrator;
+	}
+
+	/**
+	 * Background threads wait for the wallet to be loaded. The main thread must never block on it, so code running there has to check
+	 * {@link WalletMigrator#isFinished()} and defer its work to a {@link WalletMigrator.Listener} until then.
+	 */
+	private void awaitWallet()
+	{
+		if (walletMigrator.isFinished())
+			return;
+
+		if (Looper.myLooper() == Looper.getMainLooper())
+			throw new IllegalStateException("wallet not loaded yet, must not wait on the main thread");
+
+		walletMigrator.await();
+	}
+
+	public WalletAddressIndex getAddressIndex()
+	{
+		awaitWallet();
+
+		return addressIndex;
+	}
+
+	public WalletTransactionIndex getTransactionIndex()
+	{
+		awaitWallet();
+
+		return transactionIndex;
+	}
+
+	public WalletChangeDispatcher getWalletChangeDispatcher()
+	{
+		awaitWallet();
+
+		return changeDispatcher;
+	}
+
+	public TransactionSearchIndex getTransactionSearchIndex()
+	{
+		awaitWallet();
+
+		return searchIndex;
+	}
+
+	public AddressActivityIndex getAddressActivityIndex()
+	{
+		awaitWallet();
+
+		return addressActivityIndex;
+	}
+
+	public WalletBalanceTracker getBalanceTracker()
+	{
+		awaitWallet();
+
+		return balanceTracker;
+	}
+
+	public AddressLabelCache getAddressLabelCache()
+	{
+		return addressLabelCache;
+	}
+
+	public RelativeTimeCache getRelativeTimeCache()
+	{
+		return relativeTimeCache;
+	}
+
+	public Handler getBackgroundHandler()
+	{
+		return backgroundHandler;
+	}
+
+	public HttpFetcher getHttpFetcher()
+	{
+		return httpFetcher;
+	}
+
+	public TransactionArchive getTransactionArchive()
+	{
+		awaitWallet();
+
+		return transactionArchive;
+	}
+
 	private void migrateWalletToProtobuf()
 	{
 		final File oldWalletFile = getFileStreamPath(Constants.WALLET_FILENAME);
 
+		// only left over if the legacy migration failed, so fall back to restoring keys
 		if (oldWalletFile.exists())
 		{
-			Log.i(TAG, "found wallet to migrate");
+			Log.i(TAG, "found wallet to migrate from key backup");
 
 			final long start = System.currentTimeMillis();
 
@@ -147,7 +376,7 @@ public class WalletApplication extends Application
 			try
 			{
 				// write
-				protobufSerializeWallet(wallet);
+				protobufSerializeWallet(wallet, true);
 
 				// delete
 				oldWalletFile.delete();
@@ -167,14 +396,23 @@ public class WalletApplication extends Application
 		{
 			final long start = System.currentTimeMillis();
 
-			FileInputStream walletStream = null;
+			final MessageDigest digest = WalletConsistencyStamp.newDigest();
+			InputStream walletStream = null;
+			boolean recover = false;
 
 			try
 			{
-				walletStream = new FileInputStream(walletFile);
+				walletStream = new DigestInputStream(new FileInputStream(walletFile), digest);
 
 				wallet = new WalletProtobufSerializer().readWallet(walletStream);
 
+				// drain, so the digest covers the whole file
+				final byte[] buf = new byte[1024];
+				int read;
+				do
+					read = walletStream.read(buf);
+				while (read != -1);
+
 				Log.i(TAG, "wallet loaded from: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
 			}
 			catch (final IOException x)
@@ -183,7 +421,7 @@ public class WalletApplication extends Application
 
 				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
 
-				wallet = restoreWalletFromBackup();
+				recover = true;
 			}
 			catch (final IllegalStateException x)
 			{
@@ -191,7 +429,7 @@ public class WalletApplication extends Application
 
 				Toast.makeText(WalletApplication.this, x.getClass().getName(), Toast.LENGTH_LONG).show();
 
-				wallet = restoreWalletFromBackup();
+				recover = true;
 			}
 			finally
 			{
@@ -208,16 +446,45 @@ public class WalletApplication extends Application
 				}
 			}
 
-			if (!wallet.isConsistent())
+			final byte[] walletDigest = digest.digest();
+
+			if (recover)
 			{
-				Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
+				consistencyStamp.clear();
+			}
+			else if (consistencyStamp.matches(walletDigest))
+			{
+				Log.i(TAG, "wallet file matches consistency stamp, skipping check");
+			}
+			else
+			{
+				final long checkStart = System.currentTimeMillis();
+
+				if (wallet.isConsistent())
+				{
+					Log.i(TAG, "wallet consistency checked, took " + (System.currentTimeMillis() - checkStart) + "ms");
+
+					consistencyStamp.record(walletDigest);
+				}
+				else
+				{
+					Toast.makeText(this, "inconsistent wallet: " + walletFile, Toast.LENGTH_LONG).show();
 
-				wallet = restoreWalletFromBackup();
+					consistencyStamp.clear();
+					recover = true;
+				}
 			}
 
+			if (recover)
+				wallet = recoverWallet();
+
 			if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
 				throw new Error("bad wallet network parameters: " + wallet.getParams().getId());
 		}
+		else if ((wallet = recoverWalletFromSlots()) != null)
+		{
+			Log.i(TAG, "missing wallet file recovered from slots");
+		}
 		else
 		{
 			try
@@ -231,7 +498,7 @@ public class WalletApplication extends Application
 
 				try
 				{
-					protobufSerializeWallet(wallet);
+					protobufSerializeWallet(wallet, true);
 					Log.i(TAG, "wallet created: '" + walletFile + "'");
 				}
 				catch (final IOException x2)
@@ -247,6 +514,137 @@ public class WalletApplication extends Application
 				throw new Error("found read-only key, but wallet is likely an encrypted wallet from the future");
 	}
 
+	private boolean isArchivingDue()
+	{
+		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		final int archiveDepth = Integer.parseInt(prefs.getString(Constants.PREFS_KEY_ARCHIVE_DEPTH,
+				Integer.toString(Constants.TRANSACTION_ARCHIVE_DEPTH)));
+		final long lastArchived = prefs.getLong(Constants.PREFS_KEY_LAST_ARCHIVED, 0);
+
+		return archiveDepth > 0 && System.currentTimeMillis() - lastArchived >= Constants.TRANSACTION_ARCHIVE_INTERVAL_MS;
+	}
+
+	private void archiveTransactions()
+	{
+		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
+		final int archiveDepth = Integer.parseInt(prefs.getString(Constants.PREFS_KEY_ARCHIVE_DEPTH,
+				Integer.toString(Constants.TRANSACTION_ARCHIVE_DEPTH)));
+
+		final long start = System.currentTimeMillis();
+
+		final Set<Transaction> archivable = TransactionArchive.findArchivable(wallet, archiveDepth);
+
+		if (archivable.size() >= Constants.TRANSACTION_ARCHIVE_MIN_BATCH)
+		{
+			final int archiveSize = transactionArchive.size();
+			final int walletSize = wallet.getTransactions(true, true).size();
+			boolean pruned = false;
+
+			try
+			{
+				// skips transactions left in the archive by an interrupted pass
+				transactionArchive.append(wallet, archivable);
+
+				try
+				{
+					final Set<Sha256Hash> archivedHashes = new HashSet<Sha256Hash>(archivable.size());
+					for (final Transaction tx : archivable)
+						archivedHashes.add(tx.getHash());
+
+					final Protos.Wallet walletProto = new WalletProtobufSerializer().walletToProto(wallet);
+					final Protos.Wallet.Builder prunedWalletProto = walletProto.toBuilder().clearTransaction();
+					for (final Protos.Transaction txProto : walletProto.getTransactionList())
+						if (!archivedHashes.contains(new Sha256Hash(txProto.getHash().toByteArray())))
+							prunedWalletProto.addTransaction(txProto);
+
+					final byte[] payload = prunedWalletProto.build().toByteArray();
+					final Wallet prunedWallet = new WalletProtobufSerializer().readWallet(new ByteArrayInputStream(payload));
+					if (!prunedWallet.isConsistent())
+						throw new IOException("pruned wallet is inconsistent");
+
+					final byte[] digest = WalletConsistencyStamp.newDigest().digest(payload);
+					writeWalletFile(payload, digest, true);
+					consistencyStamp.record(digest);
+
+					try
+					{
+						// after the pruned wallet is written, so the activity is never counted twice
+						AddressActivityIndex.archive(getFileStreamPath(Constants.ADDRESS_ACTIVITY_FILENAME), new WalletAddressIndex(wallet),
+								archivable, walletSize);
+					}
+					catch (final IOException x)
+					{
+						Log.w(TAG, "cannot keep activity of archived transactions", x);
+					}
+
+					wallet = prunedWallet;
+					pruned = true;
+				}
+				finally
+				{
+					// the wallet still holds the transactions, so they must not show up in the archive as well
+					if (!pruned)
+						transactionArchive.truncate(archiveSize);
+				}
+
+				Log.i(TAG, "moved " + archivable.size() + " transactions to archive, took " + (System.currentTimeMillis() - start) + "ms");
+			}
+			catch (final IOException x)
+			{
+				// wallet stays untouched, archiving will be retried on next start
+				x.printStackTrace();
+				return;
+			}
+			catch (final IllegalStateException x)
+			{
+				x.printStackTrace();
+				return;
+			}
+		}
+
+		// only after a completed pass, so an interrupted one is repeated on next start
+		prefs.edit().putLong(Constants.PREFS_KEY_LAST_ARCHIVED, System.currentTimeMillis()).commit();
+	}
+
+	private Wallet recoverWallet()
+	{
+		final Wallet wallet = recoverWalletFromSlots();
+		if (wallet == null)
+			return restoreWalletFromBackup(); // last resort
+
+		return wallet;
+	}
+
+	private Wallet recoverWalletFromSlots()
+	{
+		final long start = System.currentTimeMillis();
+
+		final Wallet wallet = walletFileSlots.recover();
+		if (wallet == null)
+			return null;
+
+		try
+		{
+			protobufSerializeWallet(wallet, true);
+
+			Log.i(TAG, "wallet recovered from slots, took " + (System.currentTimeMillis() - start) + "ms");
+		}
+		catch (final IOException x)
+		{
+			throw new Error("cannot write recovered wallet", x);
+		}
+
+		// autosaves since the last verified generation are not in the slots, their transactions are only found again by replaying the
+		// block chain
+		Log.i(TAG, "recovered wallet can be older than the last one written, replaying blockchain");
+
+		resetBlockchain();
+
+		Toast.makeText(this, R.string.toast_wallet_recovered, Toast.LENGTH_LONG).show();
+
+		return wallet;
+	}
+
 	private Wallet restoreWalletFromBackup()
 	{
 		try
@@ -310,7 +708,7 @@ public class WalletApplication extends Application
 	{
 		try
 		{
-			protobufSerializeWallet(wallet);
+			protobufSerializeWallet(wallet, false);
 		}
 		catch (final IOException x)
 		{
@@ -318,17 +716,75 @@ public class WalletApplication extends Application
 		}
 	}
 
-	private void protobufSerializeWallet(final Wallet wallet) throws IOException
+	/**
+	 * @param verify
+	 *            check consistency of exactly the serialized state, and stamp the file if it passes
+	 */
+	private synchronized void protobufSerializeWallet(final Wallet wallet, final boolean verify) throws IOException
 	{
 		final long start = System.currentTimeMillis();
 
-		wallet.saveToFile(walletFile);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final DigestOutputStream os = new DigestOutputStream(bytes, WalletConsistencyStamp.newDigest());
+		final boolean consistent;
+		synchronized (wallet)
+		{
+			wallet.saveToFileStream(os);
+			consistent = verify && wallet.isConsistent();
+		}
+		os.close();
+
+		if (verify)
+			lastConsistencyCheck = System.currentTimeMillis();
+
+		final byte[] digest = os.getMessageDigest().digest();
+		writeWalletFile(bytes.toByteArray(), digest, consistent);
+
+		if (consistent)
+		{
+			consistencyStamp.record(digest);
+		}
+		else if (verify)
+		{
+			Log.w(TAG, "wallet inconsistent, full check will be done on next start");
+
+			consistencyStamp.clear();
+		}
+
+		Log.d(TAG, "wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Replaces the wallet file by the given serialized wallet. Only generations that passed the consistency check are rotated into
+	 * the slots, so an autosave writes the wallet just once.
+	 *
+	 * @param rotate
+	 *            keep the serialized wallet as new slot generation
+	 */
+	private void writeWalletFile(final byte[] payload, final byte[] digest, final boolean rotate) throws IOException
+	{
+		if (rotate)
+			writeWalletSlot(payload, digest);
+
+		final File tempFile = new File(walletFile.getAbsolutePath() + ".tmp");
+		final FileOutputStream os = new FileOutputStream(tempFile);
+		try
+		{
+			os.write(payload);
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tempFile.renameTo(walletFile))
+			throw new IOException("cannot rename " + tempFile + " to " + walletFile);
 
 		// make wallets world accessible in test mode
 		if (Constants.TEST)
 			WalletUtils.chmod(walletFile, 0777);
-
-		Log.d(TAG, "wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
 	}
 
 	private void backupKeys()
@@ -363,22 +819,15 @@ public class WalletApplication extends Application
 
 	public Address determineSelectedAddress()
 	{
-		final ArrayList<ECKey> keychain = wallet.keychain;
-
 		final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this);
 		final String selectedAddress = prefs.getString(Constants.PREFS_KEY_SELECTED_ADDRESS, null);
 
-		if (selectedAddress != null)
-		{
-			for (final ECKey key : keychain)
-			{
-				final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
-				if (address.toString().equals(selectedAddress))
-					return address;
-			}
-		}
+		final WalletAddressIndex addressIndex = getAddressIndex();
+		final Address address = addressIndex.findAddress(selectedAddress);
+		if (address != null)
+			return address;
 
-		return keychain.get(0).toAddress(Constants.NETWORK_PARAMETERS);
+		return addressIndex.getAddresses().get(0);
 	}
 
 	public void startBlockchainService(final boolean cancelCoinsReceived)
@@ -402,6 +851,18 @@ public class WalletApplication extends Application
         android.os.Process.killProcess(android.os.Process.myPid());
 	}
 
+	/**
+	 * Clears the transactions of the wallet before replaying the blockchain. The wallet doesn't report this, so the indexes are told
+	 * here.
+	 */
+	public void clearWalletTransactions()
+	{
+		awaitWallet();
+
+		wallet.clearTransactions(0);
+		transactionIndex.reset();
+		changeDispatcher.onTransactionsCleared();
+	}
 
 	public final int applicationVersionCode()
 	{
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.math.BigInteger;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.TransactionConfidence;
+import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
+import com.google.litecoin.core.TransactionInput;
+import com.google.litecoin.core.TransactionOutput;
+import com.google.litecoin.core.Wallet;
+import com.google.litecoin.core.Wallet.BalanceType;
+
+/**
+ * Publishes versioned snapshots of the wallet balance. The balance is kept as the sum of what each transaction contributes, so a change
+ * set only costs recomputing the transactions it names and the ones they spend from. Reorganizations and clearing recompute
+ * everything, and every so often the running sums are checked against {@link Wallet#getBalance(BalanceType)}, in test builds after
+ * every change set.
+ */
+public final class WalletBalanceTracker implements WalletChangeDispatcher.Listener
+{
+	public static final class Balance
+	{
+		public final long version;
+		public final BigInteger available;
+		public final BigInteger estimated;
+
+		private Balance(final long version, final BigInteger available, final BigInteger estimated)
+		{
+			this.version = version;
+			this.available = available;
+			this.estimated = estimated;
+		}
+
+		public BigInteger pending()
+		{
+			return estimated.subtract(available);
+		}
+	}
+
+	public interface Listener
+	{
+		/** will be called back on UI thread */
+		void onBalanceChanged(Balance balance);
+	}
+
+	private static final class Contribution
+	{
+		public final ConfidenceType confidenceType;
+		public final boolean immature;
+		public final boolean selectable;
+		public final long available;
+		public final long estimated;
+
+		public Contribution(final ConfidenceType confidenceType, final boolean immature, final boolean selectable, final long available,
+				final long estimated)
+		{
+			this.confidenceType = confidenceType;
+			this.immature = immature;
+			this.selectable = selectable;
+			this.available = available;
+			this.estimated = estimated;
+		}
+	}
+
+	private final Wallet wallet;
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private volatile Balance balance;
+
+	// only touched on the background handler, or in the constructor
+	private final Map<Sha256Hash, Contribution> contributions = new HashMap<Sha256Hash, Contribution>();
+	private long available;
+	private long estimated;
+	private int updatesSinceCheck = 0;
+
+	// test builds check every change set, so any deviation from the wallet shows up right away
+	private static final int CHECK_INTERVAL_UPDATES = Constants.TEST ? 1 : 100;
+
+	private static final String TAG = "Litecoin" + WalletBalanceTracker.class.getSimpleName();
+
+	public WalletBalanceTracker(final Wallet wallet)
+	{
+		this.wallet = wallet;
+
+		recomputeAll();
+		balance = new Balance(0, BigInteger.valueOf(available), BigInteger.valueOf(estimated));
+	}
+
+	public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
+	{
+		final long start = System.currentTimeMillis();
+
+		if (changes.contains(WalletChangeDispatcher.KIND_REORGANIZE | WalletChangeDispatcher.KIND_KEYS | WalletChangeDispatcher.KIND_CLEARED))
+		{
+			recomputeAll();
+		}
+		else
+		{
+			update(changes.transactions);
+
+			if (++updatesSinceCheck >= CHECK_INTERVAL_UPDATES)
+				check();
+		}
+
+		publish(start);
+	}
+
+	private void update(final Set<Sha256Hash> hashes)
+	{
+		synchronized (wallet)
+		{
+			final Set<Sha256Hash> replaced = new HashSet<Sha256Hash>();
+			final Set<Sha256Hash> parents = new HashSet<Sha256Hash>();
+
+			for (final Sha256Hash hash : hashes)
+			{
+				final Transaction tx = wallet.getTransaction(hash);
+				final Contribution previous = contributions.get(hash);
+
+				// depth bumps only matter for coinbases that are not yet mature, broadcasts only for own pending transactions
+				if (tx != null && previous != null && !previous.immature
+						&& previous.confidenceType == tx.getConfidence().getConfidenceType() && previous.selectable == isSelectable(tx))
+					continue;
+
+				replace(hash, tx);
+				replaced.add(hash);
+
+				// spending or giving up an output changes what its transaction contributes
+				if (tx != null)
+					for (final TransactionInput input : tx.getInputs())
+						if (!input.isCoinBase())
+							parents.add(input.getOutpoint().getHash());
+			}
+
+			parents.removeAll(replaced);
+			for (final Sha256Hash hash : parents)
+				if (contributions.containsKey(hash))
+					replace(hash, wallet.getTransaction(hash));
+		}
+	}
+
+	private void replace(final Sha256Hash hash, final Transaction tx)
+	{
+		final Contribution previous = tx != null ? contributions.put(hash, contribution(tx)) : contributions.remove(hash);
+		if (previous != null)
+		{
+			available -= previous.available;
+			estimated -= previous.estimated;
+		}
+
+		final Contribution current = contributions.get(hash);
+		if (current != null)
+		{
+			available += current.available;
+			estimated += current.estimated;
+		}
+	}
+
+	private void recomputeAll()
+	{
+		contributions.clear();
+		available = 0;
+		estimated = 0;
+		updatesSinceCheck = 0;
+
+		synchronized (wallet)
+		{
+			for (final Transaction tx : wallet.getTransactions(true, true))
+				replace(tx.getHash(), tx);
+		}
+	}
+
+	/**
+	 * Compares the running sums with a full scan, and falls back to the full scan if they differ.
+	 */
+	private void check()
+	{
+		updatesSinceCheck = 0;
+
+		final long fullAvailable;
+		final long fullEstimated;
+		synchronized (wallet)
+		{
+			fullAvailable = wallet.getBalance(BalanceType.AVAILABLE).longValue();
+			fullEstimated = wallet.getBalance(BalanceType.ESTIMATED).longValue();
+		}
+
+		if (fullAvailable != available || fullEstimated != estimated)
+		{
+			Log.w(TAG, "incremental balance " + available + "/" + estimated + " differs from full scan " + fullAvailable + "/" + fullEstimated);
+
+			recomputeAll();
+		}
+	}
+
+	/**
+	 * Mirrors {@link Wallet#getBalance(BalanceType)}. Transactions in the chain or pending count their outputs that are ours and not
+	 * spent yet, also by pending transactions. For the available balance, coinbases have to be mature, and pending transactions have to
+	 * be our own and seen by more than one peer, like the default coin selector wants them.
+	 */
+	private Contribution contribution(final Transaction tx)
+	{
+		final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+		final boolean selectable = isSelectable(tx);
+		long txAvailable = 0;
+		long txEstimated = 0;
+		boolean immature = false;
+
+		if (confidenceType == ConfidenceType.BUILDING || confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN)
+		{
+			immature = !tx.isMature();
+
+			for (final TransactionOutput output : tx.getOutputs())
+			{
+				if (output.isAvailableForSpending() && output.isMine(wallet))
+				{
+					final long value = output.getValue().longValue();
+					txEstimated += value;
+					if (!immature && selectable)
+						txAvailable += value;
+				}
+			}
+		}
+
+		return new Contribution(confidenceType, immature, selectable, txAvailable, txEstimated);
+	}
+
+	private static boolean isSelectable(final Transaction tx)
+	{
+		final TransactionConfidence confidence = tx.getConfidence();
+		final ConfidenceType confidenceType = confidence.getConfidenceType();
+
+		if (confidenceType == ConfidenceType.BUILDING)
+			return true;
+
+		return confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN && confidence.getSource().equals(TransactionConfidence.Source.SELF)
+				&& confidence.numBroadcastPeers() > 1;
+	}
+
+	private void publish(final long start)
+	{
+		final Balance previous = balance;
+		if (available == previous.available.longValue() && estimated == previous.estimated.longValue())
+			return;
+
+		final Balance newBalance = new Balance(previous.version + 1, BigInteger.valueOf(available), BigInteger.valueOf(estimated));
+		balance = newBalance;
+
+		Log.d(TAG, "balance version " + newBalance.version + ", took " + (System.currentTimeMillis() - start) + "ms");
+
+		callbackHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onBalanceChanged(newBalance);
+			}
+		});
+	}
+
+	/**
+	 * @return latest snapshot, never scans the wallet
+	 */
+	public Balance getBalance()
+	{
+		return balance;
+	}
+
+	public void addListener(final Listener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+}
@@ -30,9 +30,6 @@ import android.text.Editable;
 import android.text.SpannableStringBuilder;
 import android.widget.RemoteViews;
 
-import com.google.litecoin.core.Wallet;
-import com.google.litecoin.core.Wallet.BalanceType;
-
 import de.schildbach.wallet.litecoin.ui.RequestCoinsActivity;
 import de.schildbach.wallet.litecoin.ui.SendCoinsActivity;
 import de.schildbach.wallet.litecoin.ui.WalletActivity;
@@ -48,10 +45,33 @@ public class WalletBalanceWidgetProvider extends AppWidgetProvider
 	public void onUpdate(final Context context, final AppWidgetManager appWidgetManager, final int[] appWidgetIds)
 	{
 		final WalletApplication application = (WalletApplication) context.getApplicationContext();
-		final Wallet wallet = application.getWallet();
-		final BigInteger balance = wallet.getBalance(BalanceType.ESTIMATED);
+		final WalletMigrator walletMigrator = application.getWalletMigrator();
+
+		if (walletMigrator.isFinished())
+		{
+			final BigInteger balance = application.getBalanceTracker().getBalance().estimated;
 
-		updateWidgets(context, appWidgetManager, appWidgetIds, balance);
+			updateWidgets(context, appWidgetManager, appWidgetIds, balance);
+		}
+		else
+		{
+			// wallet is still loading in the background, the main thread must not wait for it
+			walletMigrator.addListener(new WalletMigrator.Listener()
+			{
+				public void onMigrationProgress(final int progress)
+				{
+				}
+
+				public void onMigrationFinished()
+				{
+					walletMigrator.removeListener(this);
+
+					final BigInteger balance = application.getBalanceTracker().getBalance().estimated;
+
+					updateWidgets(application, appWidgetManager, appWidgetIds, balance);
+				}
+			});
+		}
 	}
 
 	public static void updateWidgets(final Context context, final AppWidgetManager appWidgetManager, final int[] appWidgetIds,
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.math.BigInteger;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.google.litecoin.core.ECKey;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.Wallet;
+import com.google.litecoin.core.WalletEventListener;
+
+/**
+ * The only wallet event listener of the user interface. Wallet callbacks happen with the wallet locked on the network thread, so they
+ * just append to a lock-free queue. The queue is drained on the background handler into change sets, which are coalesced and handed
+ * to each listener on its own handler, at most once per its throttle interval.
+ */
+public final class WalletChangeDispatcher implements WalletEventListener
+{
+	public static final int KIND_COINS = 1 << 0;
+	public static final int KIND_REORGANIZE = 1 << 1;
+	public static final int KIND_CONFIDENCE = 1 << 2;
+	public static final int KIND_KEYS = 1 << 3;
+	/** all transactions were removed from the wallet, which the wallet itself doesn't report */
+	public static final int KIND_CLEARED = 1 << 4;
+	/** anything about the wallet changed, including state that has no specific callback like the last seen block */
+	public static final int KIND_WALLET = 1 << 5;
+	public static final int KIND_ALL = KIND_COINS | KIND_REORGANIZE | KIND_CONFIDENCE | KIND_KEYS | KIND_CLEARED | KIND_WALLET;
+
+	public static final class ChangeSet
+	{
+		public final int kinds;
+		/** transactions that were sent, received or changed confidence */
+		public final Set<Sha256Hash> transactions;
+		/** subset of transactions that were reported by onCoinsReceived */
+		public final Set<Sha256Hash> receivedTransactions;
+
+		private ChangeSet(final int kinds, final Set<Sha256Hash> transactions, final Set<Sha256Hash> receivedTransactions)
+		{
+			this.kinds = kinds;
+			this.transactions = Collections.unmodifiableSet(transactions);
+			this.receivedTransactions = Collections.unmodifiableSet(receivedTransactions);
+		}
+
+		public boolean contains(final int kind)
+		{
+			return (kinds & kind) != 0;
+		}
+	}
+
+	public interface Listener
+	{
+		/** will be called back on the handler the listener was added with */
+		void onWalletChanged(ChangeSet changes);
+	}
+
+	private static final class Event
+	{
+		public final int kind;
+		public final Sha256Hash hash;
+		public final boolean received;
+
+		public Event(final int kind, final Sha256Hash hash, final boolean received)
+		{
+			this.kind = kind;
+			this.hash = hash;
+			this.received = received;
+		}
+	}
+
+	private static final class Subscription implements Runnable
+	{
+		public final Listener listener;
+		public final int kinds;
+		public final long throttleMs;
+		public final Handler handler;
+
+		private int pendingKinds = 0;
+		private Set<Sha256Hash> pendingTransactions = new HashSet<Sha256Hash>();
+		private Set<Sha256Hash> pendingReceivedTransactions = new HashSet<Sha256Hash>();
+		private boolean scheduled = false;
+		private boolean cancelled = false;
+		private long lastDeliveryTime = 0;
+
+		public Subscription(final Listener listener, final int kinds, final long throttleMs, final Handler handler)
+		{
+			this.listener = listener;
+			this.kinds = kinds;
+			this.throttleMs = throttleMs;
+			this.handler = handler;
+		}
+
+		public synchronized void add(final ChangeSet changes)
+		{
+			if (cancelled || (changes.kinds & kinds) == 0)
+				return;
+
+			pendingKinds |= changes.kinds & kinds;
+			pendingTransactions.addAll(changes.transactions);
+			pendingReceivedTransactions.addAll(changes.receivedTransactions);
+
+			if (!scheduled)
+			{
+				scheduled = true;
+
+				final long delay = lastDeliveryTime + throttleMs - System.currentTimeMillis();
+				if (delay > 0)
+					handler.postDelayed(this, delay);
+				else
+					handler.post(this);
+			}
+		}
+
+		public synchronized void cancel()
+		{
+			cancelled = true;
+			handler.removeCallbacks(this);
+		}
+
+		public void run()
+		{
+			final ChangeSet changes;
+
+			synchronized (this)
+			{
+				if (cancelled)
+					return;
+
+				changes = new ChangeSet(pendingKinds, pendingTransactions, pendingReceivedTransactions);
+				pendingKinds = 0;
+				pendingTransactions = new HashSet<Sha256Hash>();
+				pendingReceivedTransactions = new HashSet<Sha256Hash>();
+				scheduled = false;
+				lastDeliveryTime = System.currentTimeMillis();
+			}
+
+			try
+			{
+				listener.onWalletChanged(changes);
+			}
+			catch (final RejectedExecutionException x)
+			{
+				Log.d(TAG, "RejectedExecutionException delivering wallet changes");
+			}
+		}
+	}
+
+	private final Handler backgroundHandler;
+	private final ConcurrentLinkedQueue<Event> events = new ConcurrentLinkedQueue<Event>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+	private final List<Subscription> subscriptions = new CopyOnWriteArrayList<Subscription>();
+
+	private static final String TAG = "Litecoin" + WalletChangeDispatcher.class.getSimpleName();
+
+	public WalletChangeDispatcher(final Handler backgroundHandler)
+	{
+		this.backgroundHandler = backgroundHandler;
+	}
+
+	public void addListener(final Listener listener, final int kinds, final long throttleMs, final Handler handler)
+	{
+		subscriptions.add(new Subscription(listener, kinds, throttleMs, handler));
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		for (final Subscription subscription : subscriptions)
+		{
+			if (subscription.listener == listener)
+			{
+				subscription.cancel();
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		enqueue(new Event(KIND_COINS, tx.getHash(), true));
+	}
+
+	public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		enqueue(new Event(KIND_COINS, tx.getHash(), false));
+	}
+
+	public void onReorganize(final Wallet wallet)
+	{
+		enqueue(new Event(KIND_REORGANIZE, null, false));
+	}
+
+	public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+	{
+		enqueue(new Event(KIND_CONFIDENCE, tx.getHash(), false));
+	}
+
+	public void onKeyAdded(final ECKey key)
+	{
+		enqueue(new Event(KIND_KEYS, null, false));
+	}
+
+	/**
+	 * To be called after the transactions of the wallet have been cleared, e.g. for replaying the blockchain.
+	 */
+	public void onTransactionsCleared()
+	{
+		enqueue(new Event(KIND_CLEARED, null, false));
+	}
+
+	public void onWalletChanged(final Wallet wallet)
+	{
+		// a new best block only updates the last seen block, which is reported by this callback alone if no transaction is affected
+		enqueue(new Event(KIND_WALLET, null, false));
+	}
+
+	private void enqueue(final Event event)
+	{
+		events.offer(event);
+
+		if (!drainScheduled.getAndSet(true))
+			backgroundHandler.post(drainRunnable);
+	}
+
+	private final Runnable drainRunnable = new Runnable()
+	{
+		public void run()
+		{
+			drainScheduled.set(false);
+
+			int kinds = 0;
+			final Set<Sha256Hash> transactions = new HashSet<Sha256Hash>();
+			final Set<Sha256Hash> receivedTransactions = new HashSet<Sha256Hash>();
+
+			Event event;
+			while ((event = events.poll()) != null)
+			{
+				kinds |= event.kind;
+
+				if (event.hash != null)
+				{
+					transactions.add(event.hash);
+					if (event.received)
+						receivedTransactions.add(event.hash);
+				}
+			}
+
+			if (kinds == 0)
+				return;
+
+			final ChangeSet changes = new ChangeSet(kinds, transactions, receivedTransactions);
+			for (final Subscription subscription : subscriptions)
+				subscription.add(changes);
+		}
+	};
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.content.SharedPreferences;
+
+import com.google.litecoin.core.Utils;
+
+/**
+ * Remembers the digest of the last wallet file whose contents passed {@link com.google.litecoin.core.Wallet#isConsistent()}, so the full
+ * check can be skipped when loading an unchanged file.
+ */
+public final class WalletConsistencyStamp
+{
+	private final SharedPreferences prefs;
+
+	public WalletConsistencyStamp(final SharedPreferences prefs)
+	{
+		this.prefs = prefs;
+	}
+
+	public boolean matches(final byte[] digest)
+	{
+		final String stamp = prefs.getString(Constants.PREFS_KEY_WALLET_CONSISTENCY_DIGEST, null);
+
+		return stamp != null && digest != null && stamp.equals(Utils.bytesToHexString(digest));
+	}
+
+	public void record(final byte[] digest)
+	{
+		prefs.edit().putString(Constants.PREFS_KEY_WALLET_CONSISTENCY_DIGEST, Utils.bytesToHexString(digest)).commit();
+	}
+
+	public void clear()
+	{
+		prefs.edit().remove(Constants.PREFS_KEY_WALLET_CONSISTENCY_DIGEST).commit();
+	}
+
+	public static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (final NoSuchAlgorithmException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+import android.util.Log;
+
+import com.google.litecoin.core.Wallet;
+import com.google.litecoin.store.WalletProtobufSerializer;
+
+/**
+ * Keeps the last two consistent generations of the wallet file in alternating A/B slots. Each slot carries a header with generation counter and
+ * checksum and is replaced by writing a temporary file and renaming it, so a torn write can only ever damage the older generation.
+ */
+public final class WalletFileSlots
+{
+	private static final int MAGIC = 0x4c544357; // "LTCW"
+	private static final int HEADER_SIZE = 4 /* magic */+ 8 /* generation */+ 4 /* length */+ 32 /* sha256 */;
+
+	private final File[] slots;
+	private long generation = -1;
+
+	private static final String TAG = "Litecoin" + WalletFileSlots.class.getSimpleName();
+
+	public WalletFileSlots(final File slotA, final File slotB)
+	{
+		this.slots = new File[] { slotA, slotB };
+	}
+
+	private static final class Slot
+	{
+		public final long generation;
+		public final byte[] payload;
+
+		public Slot(final long generation, final byte[] payload)
+		{
+			this.generation = generation;
+			this.payload = payload;
+		}
+	}
+
+	/**
+	 * Writes the given serialized wallet into the slot holding the older generation.
+	 *
+	 * @param checksum
+	 *            SHA-256 of payload, as computed while serializing
+	 */
+	public synchronized void write(final byte[] payload, final byte[] checksum) throws IOException
+	{
+		final long start = System.currentTimeMillis();
+
+		final long nextGeneration = newestGeneration() + 1;
+
+		final File slot = slots[(int) (nextGeneration % 2)];
+		final File tempFile = new File(slot.getAbsolutePath() + ".tmp");
+
+		final FileOutputStream fos = new FileOutputStream(tempFile);
+		try
+		{
+			final DataOutputStream os = new DataOutputStream(fos);
+			os.writeInt(MAGIC);
+			os.writeLong(nextGeneration);
+			os.writeInt(payload.length);
+			os.write(checksum);
+			os.write(payload);
+			os.flush();
+			fos.getFD().sync();
+		}
+		finally
+		{
+			fos.close();
+		}
+
+		if (!tempFile.renameTo(slot))
+			throw new IOException("cannot rename " + tempFile + " to " + slot);
+
+		generation = nextGeneration;
+
+		Log.d(TAG, "wallet generation " + generation + " written to: '" + slot + "', took " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	/**
+	 * Tries the intact slots from newest to oldest generation. The wallet file is usually written more often than the slots, so the
+	 * transactions of the recovered wallet can lag behind the block chain and the caller has to replay the chain.
+	 *
+	 * @return first wallet that can be read and is consistent, or null if there is none
+	 */
+	public synchronized Wallet recover()
+	{
+		final long newestGeneration = newestGeneration();
+
+		final Slot[] candidates = new Slot[] { read(0), read(1) };
+		if (candidates[0] != null && candidates[1] != null && candidates[1].generation > candidates[0].generation)
+		{
+			final Slot newer = candidates[1];
+			candidates[1] = candidates[0];
+			candidates[0] = newer;
+		}
+
+		for (final Slot slot : candidates)
+		{
+			if (slot == null)
+				continue;
+
+			try
+			{
+				final Wallet wallet = new WalletProtobufSerializer().readWallet(new ByteArrayInputStream(slot.payload));
+
+				if (wallet.isConsistent())
+				{
+					final boolean stale = slot.generation < newestGeneration;
+
+					Log.i(TAG, "wallet recovered from generation " + slot.generation + (stale ? ", newest was " + newestGeneration : ""));
+
+					return wallet;
+				}
+				else
+				{
+					Log.w(TAG, "wallet generation " + slot.generation + " is inconsistent");
+				}
+			}
+			catch (final IOException x)
+			{
+				Log.w(TAG, "cannot parse wallet generation " + slot.generation, x);
+			}
+			catch (final IllegalStateException x)
+			{
+				Log.w(TAG, "cannot parse wallet generation " + slot.generation, x);
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * @return newest generation whose header can be read, even if its payload is damaged, or -1 if none
+	 */
+	private long newestGeneration()
+	{
+		if (generation < 0)
+			generation = Math.max(generation(0), generation(1));
+
+		return generation;
+	}
+
+	private long generation(final int index)
+	{
+		final File slot = slots[index];
+		if (!slot.exists())
+			return -1;
+
+		try
+		{
+			final DataInputStream is = new DataInputStream(new FileInputStream(slot));
+			try
+			{
+				if (is.readInt() != MAGIC)
+					return -1;
+
+				return is.readLong();
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (final IOException x)
+		{
+			return -1;
+		}
+	}
+
+	private Slot read(final int index)
+	{
+		final File slot = slots[index];
+		if (!slot.exists() || slot.length() < HEADER_SIZE)
+			return null;
+
+		try
+		{
+			final DataInputStream is = new DataInputStream(new FileInputStream(slot));
+			try
+			{
+				if (is.readInt() != MAGIC)
+					return null;
+
+				final long generation = is.readLong();
+				final int length = is.readInt();
+				if (length < 0 || length != slot.length() - HEADER_SIZE)
+				{
+					Log.w(TAG, "torn wallet generation " + generation + " in: '" + slot + "'");
+					return null;
+				}
+
+				final byte[] checksum = new byte[32];
+				is.readFully(checksum);
+				final byte[] payload = new byte[length];
+				is.readFully(payload);
+
+				if (!Arrays.equals(checksum, WalletConsistencyStamp.newDigest().digest(payload)))
+				{
+					Log.w(TAG, "checksum mismatch for wallet generation " + generation + " in: '" + slot + "'");
+					return null;
+				}
+
+				return new Slot(generation, payload);
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+		catch (final IOException x)
+		{
+			Log.w(TAG, "cannot read: '" + slot + "'", x);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Runs a chain of wallet file format migrations on a background thread and reports overall progress. New format bumps are added as
+ * further {@link Migration}s; each one is expected to leave its source in place until its output has been completely written.
+ */
+public final class WalletMigrator
+{
+	public interface Migration
+	{
+		/** @return true if there is something to migrate */
+		boolean isNeeded();
+
+		void migrate(ProgressListener progressListener) throws IOException;
+	}
+
+	public interface ProgressListener
+	{
+		/** @param progress progress of a single migration, from 0 to 100 */
+		void onProgress(int progress);
+	}
+
+	public interface Listener
+	{
+		/** @param progress overall progress, from 0 to 100 */
+		void onMigrationProgress(int progress);
+
+		void onMigrationFinished();
+	}
+
+	private final List<Migration> migrations;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private final CountDownLatch finished = new CountDownLatch(1);
+	private final Handler callbackHandler = new Handler(Looper.getMainLooper());
+	private volatile int progress = 0;
+
+	private static final String TAG = "Litecoin" + WalletMigrator.class.getSimpleName();
+
+	public WalletMigrator(final Migration... migrations)
+	{
+		this.migrations = Arrays.asList(migrations);
+	}
+
+	public boolean isNeeded()
+	{
+		for (final Migration migration : migrations)
+			if (migration.isNeeded())
+				return true;
+
+		return false;
+	}
+
+	/**
+	 * Runs all needed migrations on the given handler, followed by onFinished. Listeners are notified on the main thread.
+	 */
+	public void start(final Handler handler, final Runnable onFinished)
+	{
+		handler.post(new Runnable()
+		{
+			public void run()
+			{
+				final List<Migration> needed = new ArrayList<Migration>();
+				for (final Migration migration : migrations)
+					if (migration.isNeeded())
+						needed.add(migration);
+
+				for (int i = 0; i < needed.size(); i++)
+				{
+					final Migration migration = needed.get(i);
+					final int base = i * 100 / needed.size();
+					final int count = needed.size();
+					final long start = System.currentTimeMillis();
+
+					try
+					{
+						migration.migrate(new ProgressListener()
+						{
+							public void onProgress(final int migrationProgress)
+							{
+								notifyProgress(base + migrationProgress / count);
+							}
+						});
+
+						Log.i(TAG, migration.getClass().getSimpleName() + " done, took " + (System.currentTimeMillis() - start) + "ms");
+					}
+					catch (final IOException x)
+					{
+						Log.w(TAG, migration.getClass().getSimpleName() + " failed", x);
+					}
+				}
+
+				onFinished.run();
+
+				finished.countDown();
+				notifyFinished();
+			}
+		});
+	}
+
+	public boolean isFinished()
+	{
+		return finished.getCount() == 0;
+	}
+
+	/**
+	 * Blocks until all migrations have finished. Returns immediately if no migration was needed. Never call on the main thread, use a
+	 * {@link Listener} there.
+	 */
+	public void await()
+	{
+		try
+		{
+			finished.await();
+		}
+		catch (final InterruptedException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	public void markFinished()
+	{
+		finished.countDown();
+	}
+
+	public void addListener(final Listener listener)
+	{
+		listeners.add(listener);
+
+		listener.onMigrationProgress(progress);
+		if (isFinished())
+			listener.onMigrationFinished();
+	}
+
+	public void removeListener(final Listener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	private void notifyProgress(final int progress)
+	{
+		this.progress = progress;
+
+		callbackHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onMigrationProgress(progress);
+			}
+		});
+	}
+
+	private void notifyFinished()
+	{
+		callbackHandler.post(new Runnable()
+		{
+			public void run()
+			{
+				for (final Listener listener : listeners)
+					listener.onMigrationFinished();
+			}
+		});
+	}
+}
@@ -0,0 +1,332 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin;
+
+import java.math.BigInteger;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+import android.util.Log;
+
+import com.google.litecoin.core.AbstractWalletEventListener;
+import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
+import com.google.litecoin.core.Transaction;
+import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
+import com.google.litecoin.core.Wallet;
+
+/**
+ * Keeps the transactions of the wallet sorted by pending state and update time, split into received and sent views. Coin and
+ * confidence events only move the affected transaction, so the transaction list doesn't need to value and sort the whole history
+ * on every change.
+ */
+public final class WalletTransactionIndex extends AbstractWalletEventListener
+{
+	private static final class Entry
+	{
+		public final Transaction tx;
+		public final boolean sent;
+		public final boolean pending;
+		public final long time;
+
+		public Entry(final Transaction tx, final boolean sent)
+		{
+			this.tx = tx;
+			this.sent = sent;
+			this.pending = tx.getConfidence().getConfidenceType() == ConfidenceType.NOT_SEEN_IN_CHAIN;
+			final Date updateTime = tx.getUpdateTime();
+			this.time = updateTime != null ? updateTime.getTime() : 0;
+		}
+	}
+
+	private static final Comparator<Entry> ENTRY_COMPARATOR = new Comparator<Entry>()
+	{
+		public int compare(final Entry entry1, final Entry entry2)
+		{
+			if (entry1.pending != entry2.pending)
+				return entry1.pending ? -1 : 1;
+
+			if (entry1.time > entry2.time)
+				return -1;
+			else if (entry1.time < entry2.time)
+				return 1;
+
+			// stable order for transactions with identical time
+			final int hashCode1 = entry1.tx.getHash().hashCode();
+			final int hashCode2 = entry2.tx.getHash().hashCode();
+			if (hashCode1 != hashCode2)
+				return hashCode1 < hashCode2 ? -1 : 1;
+
+			return entry1.tx.getHash().toString().compareTo(entry2.tx.getHash().toString());
+		}
+	};
+
+	/**
+	 * One sorted view. Copy on write: the entries are only copied when changed after a reader took a snapshot of them, so changes
+	 * nobody looked at in between cost no allocation.
+	 */
+	private static final class View
+	{
+		private ArrayList<Entry> entries = new ArrayList<Entry>();
+		private List<Transaction> snapshot = null;
+
+		private List<Entry> mutable()
+		{
+			if (snapshot != null)
+			{
+				// a reader holds the current list, leave it alone
+				entries = new ArrayList<Entry>(entries);
+				snapshot = null;
+			}
+
+			return entries;
+		}
+
+		public void clear()
+		{
+			entries = new ArrayList<Entry>();
+			snapshot = null;
+		}
+
+		public void add(final Entry entry)
+		{
+			mutable().add(entry);
+		}
+
+		public void sort()
+		{
+			Collections.sort(mutable(), ENTRY_COMPARATOR);
+		}
+
+		public void insert(final Entry entry)
+		{
+			final int index = Collections.binarySearch(entries, entry, ENTRY_COMPARATOR);
+			mutable().add(index < 0 ? -index - 1 : index, entry);
+		}
+
+		public void remove(final Entry entry)
+		{
+			final int index = Collections.binarySearch(entries, entry, ENTRY_COMPARATOR);
+			if (index >= 0)
+				mutable().remove(index);
+		}
+
+		public int size()
+		{
+			return entries.size();
+		}
+
+		public List<Transaction> snapshot()
+		{
+			if (snapshot == null)
+				snapshot = new TransactionList(entries);
+
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Read only list of the transactions of entries that are never changed again.
+	 */
+	private static final class TransactionList extends AbstractList<Transaction> implements RandomAccess
+	{
+		private final List<Entry> entries;
+
+		public TransactionList(final List<Entry> entries)
+		{
+			this.entries = entries;
+		}
+
+		@Override
+		public Transaction get(final int location)
+		{
+			return entries.get(location).tx;
+		}
+
+		@Override
+		public int size()
+		{
+			return entries.size();
+		}
+	}
+
+	private final Wallet wallet;
+	private final Map<Sha256Hash, Entry> entries = new HashMap<Sha256Hash, Entry>();
+	private final View all = new View();
+	private final View received = new View();
+	private final View sent = new View();
+
+	private long version = 0;
+
+	private static final String TAG = "Litecoin" + WalletTransactionIndex.class.getSimpleName();
+
+	public WalletTransactionIndex(final Wallet wallet)
+	{
+		this.wallet = wallet;
+
+		rebuild();
+	}
+
+	private synchronized void rebuild()
+	{
+		final long start = System.currentTimeMillis();
+
+		entries.clear();
+		all.clear();
+		received.clear();
+		sent.clear();
+
+		for (final Transaction tx : wallet.getTransactions(true, false))
+		{
+			final Entry entry = newEntry(tx);
+			entries.put(tx.getHash(), entry);
+			all.add(entry);
+			(entry.sent ? sent : received).add(entry);
+		}
+
+		all.sort();
+		received.sort();
+		sent.sort();
+
+		version++;
+
+		Log.i(TAG, "indexed " + entries.size() + " transactions, took " + (System.currentTimeMillis() - start) + "ms");
+	}
+
+	private synchronized void update(final Transaction tx, final boolean revalue)
+	{
+		final Entry oldEntry = entries.get(tx.getHash());
+		final Entry newEntry = oldEntry != null && !revalue ? new Entry(tx, oldEntry.sent) : newEntry(tx);
+
+		if (oldEntry != null)
+		{
+			if (oldEntry.sent == newEntry.sent && oldEntry.pending == newEntry.pending && oldEntry.time == newEntry.time)
+				return;
+
+			all.remove(oldEntry);
+			(oldEntry.sent ? sent : received).remove(oldEntry);
+		}
+
+		entries.put(tx.getHash(), newEntry);
+		all.insert(newEntry);
+		(newEntry.sent ? sent : received).insert(newEntry);
+
+		version++;
+	}
+
+	private Entry newEntry(final Transaction tx)
+	{
+		try
+		{
+			final BigInteger value = tx.getValue(wallet);
+			return new Entry(tx, value.signum() < 0);
+		}
+		catch (final ScriptException x)
+		{
+			throw new RuntimeException(x);
+		}
+	}
+
+	@Override
+	public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		update(tx, true);
+	}
+
+	@Override
+	public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	{
+		update(tx, true);
+	}
+
+	@Override
+	public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+	{
+		// value doesn't change with confidence, only position might
+		update(tx, false);
+	}
+
+	@Override
+	public void onReorganize(final Wallet wallet)
+	{
+		// transactions can move between pools, so start over
+		rebuild();
+	}
+
+	/**
+	 * Starts over after changes the wallet doesn't report, like clearing its transactions.
+	 */
+	public void reset()
+	{
+		rebuild();
+	}
+
+	/** @return changes whenever the order or membership of any view changes */
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	/** @return all transactions, pending first, then newest first */
+	public synchronized List<Transaction> getTransactions()
+	{
+		return all.snapshot();
+	}
+
+	public synchronized List<Transaction> getReceivedTransactions()
+	{
+		return received.snapshot();
+	}
+
+	public synchronized List<Transaction> getSentTransactions()
+	{
+		return sent.snapshot();
+	}
+
+	/**
+	 * Looks up the given transactions, for example search matches, in the order of the views. Costs in the number of hashes, not in the
+	 * size of the wallet. Hashes not in the index are left out.
+	 */
+	public synchronized List<Transaction> select(final Collection<Sha256Hash> hashes, final boolean includeReceived, final boolean includeSent)
+	{
+		final List<Entry> selected = new ArrayList<Entry>(hashes.size());
+		for (final Sha256Hash hash : hashes)
+		{
+			final Entry entry = entries.get(hash);
+			if (entry != null && (entry.sent ? includeSent : includeReceived))
+				selected.add(entry);
+		}
+
+		Collections.sort(selected, ENTRY_COMPARATOR);
+
+		return new TransactionList(selected);
+	}
+
+	public synchronized int size()
+	{
+		return all.size();
+	}
+}
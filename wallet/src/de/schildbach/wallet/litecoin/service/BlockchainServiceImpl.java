@@ -41,6 +41,7 @@ import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
 import android.net.Uri;
 import android.net.wifi.WifiManager;
 import android.net.wifi.WifiManager.WifiLock;
@@ -57,17 +58,20 @@ import android.util.Log;
 
 import com.google.litecoin.core.*;
 import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
-import com.google.litecoin.core.Wallet.BalanceType;
 import com.google.litecoin.discovery.*;
 import com.google.litecoin.store.BlockStore;
 import com.google.litecoin.store.BlockStoreException;
 
 import com.google.litecoin.store.SPVBlockStore;
+import de.schildbach.wallet.litecoin.AddressActivityIndex;
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.ExchangeRatesProvider;
 import de.schildbach.wallet.litecoin.WalletApplication;
+import de.schildbach.wallet.litecoin.WalletBalanceTracker;
 import de.schildbach.wallet.litecoin.WalletBalanceWidgetProvider;
+import de.schildbach.wallet.litecoin.WalletChangeDispatcher;
+import de.schildbach.wallet.litecoin.WalletMigrator;
 import de.schildbach.wallet.litecoin.ui.WalletActivity;
-import de.schildbach.wallet.litecoin.util.ThrottelingWalletChangeListener;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -99,58 +103,62 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	private final List<Address> notificationAddresses = new LinkedList<Address>();
 	private int bestChainHeightEver;
 	private boolean resetBlockchainOnShutdown = false;
+	private boolean meteredNetwork = true;
 
 	private static final int MAX_LAST_CHAIN_HEIGHTS = 10;
 	private static final int IDLE_TIMEOUT_MIN = 2;
-
-	private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+	private static final long EXCHANGE_RATES_MAX_AGE_MS = 45 * DateUtils.MINUTE_IN_MILLIS;
 
 	private static final String TAG = "Litecoin"+BlockchainServiceImpl.class.getSimpleName();
 
-	private final WalletEventListener walletEventListener = new ThrottelingWalletChangeListener(APPWIDGET_THROTTLE_MS)
+	private final WalletBalanceTracker.Listener balanceListener = new WalletBalanceTracker.Listener()
 	{
-		@Override
-		public void onThrotteledWalletChanged()
+		public void onBalanceChanged(final WalletBalanceTracker.Balance balance)
 		{
 			notifyWidgets();
 		}
+	};
 
-		@Override
-		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
+	private final WalletChangeDispatcher.Listener coinsReceivedListener = new WalletChangeDispatcher.Listener()
+	{
+		public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
 		{
-			try
-			{
-				final Address from;
-				if (!tx.isCoinBase())
-				{
-					final TransactionInput input = tx.getInputs().get(0);
-					from = input.getFromAddress();
-				}
-				else
-				{
-					from = null;
-				}
+			final Wallet wallet = application.getWallet();
+			final int bestChainHeight = blockChain.getBestChainHeight();
+			final boolean replaying = bestChainHeight < bestChainHeightEver;
 
-				final BigInteger amount = tx.getValue(wallet);
-				final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+			for (final Sha256Hash hash : changes.receivedTransactions)
+			{
+				final Transaction tx = wallet.getTransaction(hash);
+				if (tx == null)
+					continue;
 
-				handler.post(new Runnable()
+				try
 				{
-					public void run()
+					final Address from;
+					if (!tx.isCoinBase())
 					{
-						final boolean isReceived = amount.signum() > 0;
-						final int bestChainHeight = blockChain.getBestChainHeight();
-						final boolean replaying = bestChainHeight < bestChainHeightEver;
-						final boolean isReplayedTx = confidenceType == ConfidenceType.BUILDING && replaying;
-
-						if (isReceived && !isReplayedTx)
-							notifyCoinsReceived(from, amount);
+						final TransactionInput input = tx.getInputs().get(0);
+						from = input.getFromAddress();
 					}
-				});
-			}
-			catch (final ScriptException x)
-			{
-				throw new RuntimeException(x);
+					else
+					{
+						from = null;
+					}
+
+					final BigInteger amount = tx.getValue(wallet);
+					final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
+
+					final boolean isReceived = amount.signum() > 0;
+					final boolean isReplayedTx = confidenceType == ConfidenceType.BUILDING && replaying;
+
+					if (isReceived && !isReplayedTx)
+						notifyCoinsReceived(from, amount);
+				}
+				catch (final ScriptException x)
+				{
+					throw new RuntimeException(x);
+				}
 			}
 		}
 	};
@@ -324,6 +332,14 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				// final boolean isFailover = intent.getBooleanExtra(ConnectivityManager.EXTRA_IS_FAILOVER, false);
 				Log.i(TAG, "network is " + (hasConnectivity ? "up" : "down") + (reason != null ? ": " + reason : ""));
 
+				NetworkInfo network = intent.getParcelableExtra(ConnectivityManager.EXTRA_NETWORK_INFO);
+				if (network == null || !network.isConnected())
+					network = intent.getParcelableExtra(ConnectivityManager.EXTRA_OTHER_NETWORK_INFO);
+				if (network != null && network.isConnected())
+					meteredNetwork = isMetered(network);
+				else if (!hasConnectivity)
+					meteredNetwork = true;
+
 				check();
 			}
 			else if (Intent.ACTION_BATTERY_CHANGED.equals(action))
@@ -443,6 +459,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 				// start peergroup
 				peerGroup.start();
 				peerGroup.startBlockChainDownload(blockchainDownloadListener);
+
+				refreshExchangeRates();
 			}
 			else if (!hasEverything && peerGroup != null)
 			{
@@ -522,9 +540,39 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			}
 
 			lastChainHeight = chainHeight;
+
+			refreshExchangeRates();
 		}
 	};
 
+	/**
+	 * Piggybacks on the connectivity and wakelock held for the blockchain, so rates are fresh when the user looks and no extra wakeups
+	 * are needed for them. Refreshes a bit earlier than a query would, so that queries don't have to wait.
+	 */
+	private void refreshExchangeRates()
+	{
+		if (peerGroup == null)
+			return;
+
+		if (meteredNetwork && prefs.getBoolean(Constants.PREFS_KEY_EXCHANGE_RATES_UNMETERED_ONLY, false))
+			return;
+
+		application.getBackgroundHandler().post(new Runnable()
+		{
+			public void run()
+			{
+				ExchangeRatesProvider.refreshIfOlder(BlockchainServiceImpl.this, EXCHANGE_RATES_MAX_AGE_MS);
+			}
+		});
+	}
+
+	private static boolean isMetered(final NetworkInfo network)
+	{
+		final int type = network.getType();
+
+		return (type != ConnectivityManager.TYPE_WIFI && type != ConnectivityManager.TYPE_ETHERNET) || network.isRoaming();
+	}
+
 	public class LocalBinder extends Binder
 	{
 		public BlockchainService getService()
@@ -571,7 +619,6 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		application = (WalletApplication) getApplication();
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
-		final Wallet wallet = application.getWallet();
 
 		final int versionCode = application.applicationVersionCode();
 		prefs.edit().putInt(Constants.PREFS_KEY_LAST_VERSION, versionCode).commit();
@@ -582,6 +629,47 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		sendBroadcastPeerState(0);
 
+		blockChainFile = new File(getDir("blockstore", Context.MODE_WORLD_READABLE | Context.MODE_WORLD_WRITEABLE), Constants.BLOCKCHAIN_FILENAME);
+
+		// the wallet may still be loading in the background, the main thread must not wait for it
+		application.getWalletMigrator().addListener(walletLoadedListener);
+	}
+
+	private final WalletMigrator.Listener walletLoadedListener = new WalletMigrator.Listener()
+	{
+		public void onMigrationProgress(final int progress)
+		{
+		}
+
+		public void onMigrationFinished()
+		{
+			application.getWalletMigrator().removeListener(this);
+
+			if (blockChain == null)
+				initBlockchain();
+		}
+	};
+
+	private final AddressActivityIndex.BlockTimes blockTimes = new AddressActivityIndex.BlockTimes()
+	{
+		public long getBlockTime(final Sha256Hash blockHash)
+		{
+			try
+			{
+				final StoredBlock block = blockStore.get(blockHash);
+				return block != null ? block.getHeader().getTimeSeconds() * DateUtils.SECOND_IN_MILLIS : 0;
+			}
+			catch (final BlockStoreException x)
+			{
+				return 0;
+			}
+		}
+	};
+
+	private void initBlockchain()
+	{
+		final Wallet wallet = application.getWallet();
+
 		final IntentFilter intentFilter = new IntentFilter();
 		intentFilter.addAction(ConnectivityManager.CONNECTIVITY_ACTION);
 		intentFilter.addAction(Intent.ACTION_BATTERY_CHANGED);
@@ -589,14 +677,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 		intentFilter.addAction(Intent.ACTION_DEVICE_STORAGE_OK);
 		registerReceiver(connectivityReceiver, intentFilter);
 
-		blockChainFile = new File(getDir("blockstore", Context.MODE_WORLD_READABLE | Context.MODE_WORLD_WRITEABLE), Constants.BLOCKCHAIN_FILENAME);
         final boolean blockChainFileExists = blockChainFile.exists();
 
 		if (!blockChainFileExists)
 		{
 			Log.d(TAG, "blockchain does not exist, resetting wallet");
 
-			wallet.clearTransactions(0);
+			application.clearWalletTransactions();
 			copyBlockchainSnapshot(blockChainFile);
 		}
 
@@ -638,7 +725,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 			throw new Error("blockchain cannot be created", x);
 		}
 
-		application.getWallet().addEventListener(walletEventListener);
+		application.getWalletChangeDispatcher().addListener(coinsReceivedListener, WalletChangeDispatcher.KIND_COINS, 0, handler);
+		application.getBalanceTracker().addListener(balanceListener);
+		application.getAddressActivityIndex().setBlockTimes(blockTimes);
 
 		registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
 	}
@@ -707,9 +796,19 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	{
 		Log.d(TAG, ".onDestroy()");
 
-		unregisterReceiver(tickReceiver);
+		application.getWalletMigrator().removeListener(walletLoadedListener);
+
+		// not set up if stopped before the wallet was loaded
+		final boolean initialized = blockChain != null;
 
-		application.getWallet().removeEventListener(walletEventListener);
+		if (initialized)
+		{
+			unregisterReceiver(tickReceiver);
+
+			application.getBalanceTracker().removeListener(balanceListener);
+			application.getWalletChangeDispatcher().removeListener(coinsReceivedListener);
+			application.getAddressActivityIndex().setBlockTimes(null);
+		}
 
 		if (peerGroup != null)
 		{
@@ -722,7 +821,8 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		peerConnectivityListener.stop();
 
-		unregisterReceiver(connectivityReceiver);
+		if (initialized)
+			unregisterReceiver(connectivityReceiver);
 
 		removeBroadcastPeerState();
 		removeBroadcastBlockchainState();
@@ -731,16 +831,19 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		delayHandler.removeCallbacksAndMessages(null);
 
-		try
-		{
-			blockStore.close();
-		}
-		catch (final BlockStoreException x)
+		if (initialized)
 		{
-			throw new RuntimeException(x);
-		}
+			try
+			{
+				blockStore.close();
+			}
+			catch (final BlockStoreException x)
+			{
+				throw new RuntimeException(x);
+			}
 
-		application.saveWallet();
+			application.saveWallet();
+		}
 
 		if (wakeLock.isHeld())
 		{
@@ -790,6 +893,9 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 	{
 		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
 
+		if (blockChain == null)
+			return blocks;
+
 		try
 		{
 			StoredBlock block = blockChain.getChainHead();
@@ -858,8 +964,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
 		if (appWidgetIds.length > 0)
 		{
-			final Wallet wallet = application.getWallet();
-			final BigInteger balance = wallet.getBalance(BalanceType.ESTIMATED);
+			final BigInteger balance = application.getBalanceTracker().getBalance().estimated;
 
 			WalletBalanceWidgetProvider.updateWidgets(this, appWidgetManager, appWidgetIds, balance);
 		}
@@ -21,6 +21,8 @@ import java.util.Locale;
 
 import android.app.AlertDialog;
 import android.app.AlertDialog.Builder;
+import android.app.ProgressDialog;
+import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
@@ -32,6 +34,7 @@ import com.actionbarsherlock.app.SherlockFragmentActivity;
 
 import de.schildbach.wallet.litecoin.Constants;
 import de.schildbach.wallet.litecoin.WalletApplication;
+import de.schildbach.wallet.litecoin.WalletMigrator;
 import de.schildbach.wallet.litecoin.R;
 
 /**
@@ -40,15 +43,85 @@ import de.schildbach.wallet.litecoin.R;
 public abstract class AbstractWalletActivity extends SherlockFragmentActivity
 {
 	private WalletApplication application;
+	private boolean waitingForWallet = false;
+	private ProgressDialog walletProgressDialog;
 
 	@Override
 	protected void onCreate(final Bundle savedInstanceState)
 	{
-		super.onCreate(savedInstanceState);
-
 		application = (WalletApplication) getApplication();
+
+		if (application.getWalletMigrator().isFinished())
+		{
+			super.onCreate(savedInstanceState);
+		}
+		else
+		{
+			// restored fragments would need the wallet right away, so the activity is started over once it is available
+			super.onCreate(null);
+
+			waitForWallet();
+		}
+	}
+
+	@Override
+	protected void onDestroy()
+	{
+		if (walletProgressDialog != null)
+		{
+			application.getWalletMigrator().removeListener(walletLoadedListener);
+			walletProgressDialog.dismiss();
+			walletProgressDialog = null;
+		}
+
+		super.onDestroy();
+	}
+
+	/**
+	 * @return true while the wallet is still being loaded in the background, in which case subclasses must not set up their views
+	 */
+	protected final boolean isWaitingForWallet()
+	{
+		return waitingForWallet;
 	}
 
+	private void waitForWallet()
+	{
+		waitingForWallet = true;
+
+		walletProgressDialog = new ProgressDialog(this);
+		walletProgressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		walletProgressDialog.setMessage(getString(R.string.wallet_loading_progress));
+		walletProgressDialog.setCancelable(false);
+		walletProgressDialog.setMax(100);
+		walletProgressDialog.show();
+
+		application.getWalletMigrator().addListener(walletLoadedListener);
+	}
+
+	private final WalletMigrator.Listener walletLoadedListener = new WalletMigrator.Listener()
+	{
+		public void onMigrationProgress(final int progress)
+		{
+			if (walletProgressDialog != null)
+				walletProgressDialog.setProgress(progress);
+		}
+
+		public void onMigrationFinished()
+		{
+			if (walletProgressDialog == null)
+				return;
+
+			application.getWalletMigrator().removeListener(this);
+			walletProgressDialog.dismiss();
+			walletProgressDialog = null;
+
+			startActivity(getIntent().addFlags(Intent.FLAG_ACTIVITY_NO_ANIMATION));
+			finish();
+			overridePendingTransition(0, 0);
+		}
+	};
+
 	protected WalletApplication getWalletApplication()
 	{
 		return application;
@@ -30,9 +30,7 @@ import android.support.v4.view.ViewPager;
 import com.actionbarsherlock.app.ActionBar;
 import com.actionbarsherlock.view.MenuItem;
 import com.google.litecoin.core.Address;
-import com.google.litecoin.core.ECKey;
 
-import de.schildbach.wallet.litecoin.Constants;
 import de.schildbach.wallet.litecoin.util.ViewPagerTabs;
 import de.schildbach.wallet.litecoin.R;
 
@@ -58,6 +56,9 @@ public final class AddressBookActivity extends AbstractWalletActivity
 	{
 		super.onCreate(savedInstanceState);
 
+		if (isWaitingForWallet())
+			return;
+
 		setContentView(R.layout.address_book_content);
 
 		final ActionBar actionBar = getSupportActionBar();
@@ -112,14 +113,7 @@ public final class AddressBookActivity extends AbstractWalletActivity
 
 	/* private */void updateFragments()
 	{
-		final ArrayList<ECKey> keychain = getWalletApplication().getWallet().keychain;
-		final ArrayList<Address> addresses = new ArrayList<Address>(keychain.size());
-
-		for (final ECKey key : keychain)
-		{
-			final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
-			addresses.add(address);
-		}
+		final ArrayList<Address> addresses = new ArrayList<Address>(getWalletApplication().getAddressIndex().getAddresses());
 
 		sendingAddressesFragment.setWalletAddresses(addresses);
 	}
@@ -238,7 +238,7 @@ public final class AmountCalculatorFragment extends DialogFragment implements Lo
 
 	public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
 	{
-		if (data != null)
+		if (data != null && data.getCount() > 0)
 		{
 			data.moveToFirst();
 			exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
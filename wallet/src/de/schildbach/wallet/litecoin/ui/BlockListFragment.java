@@ -46,8 +46,11 @@ import com.google.litecoin.core.Block;
 import com.google.litecoin.core.StoredBlock;
 
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.RelativeTimeCache;
+import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.service.BlockchainService;
 import de.schildbach.wallet.litecoin.service.BlockchainServiceImpl;
+import de.schildbach.wallet.litecoin.util.HashFormatCache;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -57,6 +60,7 @@ import de.schildbach.wallet.litecoin.R;
 public final class BlockListFragment extends SherlockListFragment implements LoaderCallbacks<List<StoredBlock>>
 {
 	private AbstractWalletActivity activity;
+	private RelativeTimeCache relativeTimeCache;
 	private LoaderManager loaderManager;
 
 	private BlockchainService service;
@@ -74,6 +78,7 @@ public final class BlockListFragment extends SherlockListFragment implements Loa
 		super.onAttach(activity);
 
 		this.activity = (AbstractWalletActivity) activity;
+		this.relativeTimeCache = ((WalletApplication) activity.getApplication()).getRelativeTimeCache();
 		this.loaderManager = getLoaderManager();
 	}
 
@@ -99,7 +104,7 @@ public final class BlockListFragment extends SherlockListFragment implements Loa
 	{
 		super.onResume();
 
-		activity.registerReceiver(tickReceiver, new IntentFilter(Intent.ACTION_TIME_TICK));
+		relativeTimeCache.addListener(relativeTimeListener);
 
 		adapter.notifyDataSetChanged();
 	}
@@ -107,7 +112,7 @@ public final class BlockListFragment extends SherlockListFragment implements Loa
 	@Override
 	public void onPause()
 	{
-		activity.unregisterReceiver(tickReceiver);
+		relativeTimeCache.removeListener(relativeTimeListener);
 
 		super.onPause();
 	}
@@ -146,10 +151,9 @@ public final class BlockListFragment extends SherlockListFragment implements Loa
 		}
 	};
 
-	private final BroadcastReceiver tickReceiver = new BroadcastReceiver()
+	private final RelativeTimeCache.Listener relativeTimeListener = new RelativeTimeCache.Listener()
 	{
-		@Override
-		public void onReceive(final Context context, final Intent intent)
+		public void onLabelsExpired()
 		{
 			adapter.notifyDataSetChanged();
 		}
@@ -192,10 +196,10 @@ public final class BlockListFragment extends SherlockListFragment implements Loa
 
 			final TextView rowTime = (TextView) row.findViewById(R.id.block_list_row_time);
 			final long timeMs = header.getTimeSeconds() * DateUtils.SECOND_IN_MILLIS;
-			rowTime.setText(DateUtils.getRelativeDateTimeString(activity, timeMs, DateUtils.MINUTE_IN_MILLIS, DateUtils.WEEK_IN_MILLIS, 0));
+			rowTime.setText(relativeTimeCache.getDateTime(timeMs));
 
 			final TextView rowHash = (TextView) row.findViewById(R.id.block_list_row_hash);
-			rowHash.setText(WalletUtils.formatHash(null, header.getHashAsString(), 8, 0, ' '));
+			rowHash.setText(HashFormatCache.get(header.getHashAsString(), 8, 0, ' '));
 
 			return row;
 		}
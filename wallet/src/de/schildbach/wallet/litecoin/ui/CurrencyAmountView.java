@@ -40,9 +40,8 @@ import android.widget.FrameLayout;
 import android.widget.TextView;
 import android.widget.TextView.OnEditorActionListener;
 
-import com.google.litecoin.core.Utils;
-
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.util.NanoCoinFormat;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -180,8 +179,9 @@ public final class CurrencyAmountView extends FrameLayout
 
 	public BigInteger getAmount()
 	{
-		if (isValidAmount())
-			return Utils.toNanoCoins(textView.getText().toString().trim());
+		final long nanoCoins = NanoCoinFormat.parse(textView.getText());
+		if (nanoCoins >= 0)
+			return BigInteger.valueOf(nanoCoins);
 		else
 			return null;
 	}
@@ -234,22 +234,8 @@ public final class CurrencyAmountView extends FrameLayout
 
 	private boolean isValidAmount()
 	{
-		final String amount = textView.getText().toString().trim();
-
-		try
-		{
-			if (amount.length() > 0)
-			{
-				final BigInteger nanoCoins = Utils.toNanoCoins(amount);
-				if (nanoCoins.signum() >= 0)
-					return true;
-			}
-		}
-		catch (final Exception x)
-		{
-		}
-
-		return false;
+		// negative amounts are not valid input, and neither is NanoCoinFormat.INVALID
+		return NanoCoinFormat.parse(textView.getText()) >= 0;
 	}
 
 	private final OnClickListener deleteClickListener = new OnClickListener()
@@ -29,6 +29,7 @@ import android.text.style.RelativeSizeSpan;
 import android.util.AttributeSet;
 import android.widget.TextView;
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.util.NanoCoinFormat;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -44,6 +45,7 @@ public final class CurrencyTextView extends TextView
 	private boolean alwaysSigned = false;
 	private RelativeSizeSpan prefixRelativeSizeSpan = null;
 	private RelativeSizeSpan insignificantRelativeSizeSpan = null;
+	private final StringBuilder builder = new StringBuilder(32);
 
 	public CurrencyTextView(final Context context)
 	{
@@ -123,13 +125,11 @@ public final class CurrencyTextView extends TextView
 
 		if (amount != null)
 		{
-			final String s;
-			if (alwaysSigned)
-				s = WalletUtils.formatValue(amount, Constants.CURRENCY_PLUS_SIGN, Constants.CURRENCY_MINUS_SIGN, precision);
-			else
-				s = WalletUtils.formatValue(amount, precision);
+			builder.setLength(0);
+			NanoCoinFormat.format(builder, amount.longValue(), alwaysSigned ? Constants.CURRENCY_PLUS_SIGN : "",
+					alwaysSigned ? Constants.CURRENCY_MINUS_SIGN : "-", precision);
 
-			text = new SpannableStringBuilder(s);
+			text = new SpannableStringBuilder(builder);
 			WalletUtils.formatSignificant(text, insignificantRelativeSizeSpan);
 
 			if (prefix != null)
@@ -34,6 +34,9 @@ public final class ExchangeRatesActivity extends AbstractWalletActivity
 	{
 		super.onCreate(savedInstanceState);
 
+		if (isWaitingForWallet())
+			return;
+
 		setContentView(R.layout.exchange_rates_content);
 
 		final ActionBar actionBar = getSupportActionBar();
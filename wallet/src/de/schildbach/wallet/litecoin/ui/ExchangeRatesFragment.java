@@ -44,14 +44,12 @@ import com.actionbarsherlock.view.Menu;
 import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.google.litecoin.core.Utils;
-import com.google.litecoin.core.Wallet;
-import com.google.litecoin.core.Wallet.BalanceType;
 
 import de.schildbach.wallet.litecoin.Constants;
 import de.schildbach.wallet.litecoin.ExchangeRatesProvider;
 import de.schildbach.wallet.litecoin.ExchangeRatesProvider.ExchangeRate;
 import de.schildbach.wallet.litecoin.WalletApplication;
-import de.schildbach.wallet.litecoin.util.ThrottelingWalletChangeListener;
+import de.schildbach.wallet.litecoin.WalletBalanceTracker;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -70,10 +68,9 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 	private BigInteger balance;
 	private String defaultCurrency;
 
-	private final ThrottelingWalletChangeListener walletChangeListener = new ThrottelingWalletChangeListener()
+	private final WalletBalanceTracker.Listener balanceListener = new WalletBalanceTracker.Listener()
 	{
-		@Override
-		public void onThrotteledWalletChanged()
+		public void onBalanceChanged(final WalletBalanceTracker.Balance balance)
 		{
 			updateView();
 		}
@@ -95,8 +92,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 	{
 		super.onCreate(savedInstanceState);
 
-		final Wallet wallet = application.getWallet();
-		wallet.addEventListener(walletChangeListener);
+		application.getBalanceTracker().addListener(balanceListener);
 	}
 
 	@Override
@@ -126,6 +122,18 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 				rateView.setPrecision(Constants.LOCAL_PRECISION);
 				rateView.setAmount(WalletUtils.localValue(Utils.COIN, exchangeRate.rate));
 
+				final TextView trendView = (TextView) view.findViewById(R.id.exchange_rate_row_trend);
+				final BigInteger rateDayAgo = ExchangeRatesProvider.getRateDayAgo(cursor);
+				if (rateDayAgo != null)
+				{
+					trendView.setText(context.getString(R.string.exchange_rates_fragment_trend, WalletUtils.percentChange(exchangeRate.rate, rateDayAgo)));
+					trendView.setVisibility(View.VISIBLE);
+				}
+				else
+				{
+					trendView.setVisibility(View.GONE);
+				}
+
 				final CurrencyTextView walletView = (CurrencyTextView) view.findViewById(R.id.exchange_rate_row_balance);
 				walletView.setPrecision(Constants.LOCAL_PRECISION);
 				walletView.setAmount(WalletUtils.localValue(balance, exchangeRate.rate));
@@ -160,8 +168,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 	@Override
 	public void onDestroy()
 	{
-		application.getWallet().removeEventListener(walletChangeListener);
-		walletChangeListener.removeCallbacks();
+		application.getBalanceTracker().removeListener(balanceListener);
 
 		super.onDestroy();
 	}
@@ -226,7 +233,7 @@ public final class ExchangeRatesFragment extends SherlockListFragment implements
 
 	private void updateView()
 	{
-		balance = application.getWallet().getBalance(BalanceType.ESTIMATED);
+		balance = application.getBalanceTracker().getBalance().estimated;
 
 		final ListAdapter adapter = getListAdapter();
 		if (adapter != null)
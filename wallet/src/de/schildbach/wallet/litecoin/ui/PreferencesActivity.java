@@ -136,6 +136,9 @@ public final class PreferencesActivity extends SherlockPreferenceActivity implem
 				@Override
 				protected CharSequence collectWalletDump()
 				{
+					if (!application.getWalletMigrator().isFinished())
+						return null;
+
 					return application.getWallet().toString(false, null);
 				}
 			};
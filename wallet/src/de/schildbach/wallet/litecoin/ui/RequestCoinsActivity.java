@@ -40,6 +40,9 @@ public final class RequestCoinsActivity extends AbstractWalletActivity
 	{
 		super.onCreate(savedInstanceState);
 
+		if (isWaitingForWallet())
+			return;
+
 		setContentView(R.layout.request_coins_content);
 
 		final ActionBar actionBar = getSupportActionBar();
@@ -115,15 +115,9 @@ public final class RequestCoinsFragment extends SherlockFragment implements Amou
 		final WalletAddressesAdapter adapter = new WalletAddressesAdapter(activity, keys, false);
 		addressView.setAdapter(adapter);
 		final Address selectedAddress = application.determineSelectedAddress();
-		for (int i = 0; i < keys.size(); i++)
-		{
-			final Address address = keys.get(i).toAddress(Constants.NETWORK_PARAMETERS);
-			if (address.equals(selectedAddress))
-			{
-				addressView.setSelection(i);
-				break;
-			}
-		}
+		final int selectedPosition = application.getAddressIndex().getAddresses().indexOf(selectedAddress);
+		if (selectedPosition >= 0)
+			addressView.setSelection(selectedPosition);
 
 		includeLabelView = (CheckBox) view.findViewById(R.id.request_coins_fragment_include_label);
 
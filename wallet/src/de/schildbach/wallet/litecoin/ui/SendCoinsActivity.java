@@ -51,6 +51,9 @@ public final class SendCoinsActivity extends AbstractWalletActivity
 	{
 		super.onCreate(savedInstanceState);
 
+		if (isWaitingForWallet())
+			return;
+
 		setContentView(R.layout.send_coins_content);
 
 		getWalletApplication().startBlockchainService(false);
@@ -64,6 +67,13 @@ public final class SendCoinsActivity extends AbstractWalletActivity
 	@Override
 	protected void onNewIntent(final Intent intent)
 	{
+		if (isWaitingForWallet())
+		{
+			// picked up when the activity is started over
+			setIntent(intent);
+			return;
+		}
+
 		handleIntent(intent);
 	}
 
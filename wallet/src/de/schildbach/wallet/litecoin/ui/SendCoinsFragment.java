@@ -24,14 +24,12 @@ import android.annotation.SuppressLint;
 import android.app.Activity;
 import android.app.AlertDialog;
 import android.content.ComponentName;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
-import android.database.ContentObserver;
 import android.database.Cursor;
 import android.os.Bundle;
 import android.os.Handler;
@@ -66,6 +64,7 @@ import com.google.zxing.integration.android.IntentIntegrator;
 import com.google.zxing.integration.android.IntentIntegratorSupportV4;
 import com.google.zxing.integration.android.IntentResult;
 import de.schildbach.wallet.litecoin.AddressBookProvider;
+import de.schildbach.wallet.litecoin.AddressLabelCache;
 import de.schildbach.wallet.litecoin.Constants;
 import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.integration.android.LitecoinIntegration;
@@ -81,7 +80,6 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 {
 	private AbstractWalletActivity activity;
 	private WalletApplication application;
-	private ContentResolver contentResolver;
 	private SharedPreferences prefs;
 	private Wallet wallet;
 
@@ -187,10 +185,9 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 		}
 	};
 
-	private final ContentObserver contentObserver = new ContentObserver(handler)
+	private final AddressLabelCache.Listener labelListener = new AddressLabelCache.Listener()
 	{
-		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged()
 		{
 			updateView();
 		}
@@ -229,7 +226,6 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 
 		this.activity = (AbstractWalletActivity) activity;
 		application = (WalletApplication) activity.getApplication();
-		contentResolver = activity.getContentResolver();
 		prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 		wallet = application.getWallet();
 	}
@@ -449,7 +445,7 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 	{
 		super.onResume();
 
-		contentResolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, contentObserver);
+		application.getAddressLabelCache().addListener(labelListener);
 
 		amountView.setListener(amountsListener);
 
@@ -465,7 +461,7 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 
 		amountView.setListener(null);
 
-		contentResolver.unregisterContentObserver(contentObserver);
+		application.getAddressLabelCache().removeListener(labelListener);
 
 		super.onPause();
 	}
@@ -838,7 +834,7 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 			final TextView labelView = (TextView) viewGroup.findViewById(R.id.address_book_row_label);
 			labelView.setText(label);
 			final TextView addressView = (TextView) viewGroup.findViewById(R.id.address_book_row_address);
-			addressView.setText(WalletUtils.formatHash(address, Constants.ADDRESS_FORMAT_GROUP_SIZE, Constants.ADDRESS_FORMAT_LINE_SIZE));
+			addressView.setText(WalletUtils.formatHashCached(address, Constants.ADDRESS_FORMAT_GROUP_SIZE, Constants.ADDRESS_FORMAT_LINE_SIZE));
 		}
 
 		@Override
@@ -865,7 +861,7 @@ public final class SendCoinsFragment extends SherlockFragment implements AmountC
 			receivingStaticView.setVisibility(View.VISIBLE);
 			receivingStaticAddressView.setText(WalletUtils.formatAddress(validatedAddress, Constants.ADDRESS_FORMAT_GROUP_SIZE,
 					Constants.ADDRESS_FORMAT_LINE_SIZE));
-			final String label = AddressBookProvider.resolveLabel(activity, validatedAddress.toString());
+			final String label = application.getAddressLabelCache().lookup(validatedAddress.toString());
 			receivingStaticLabelView.setText(label != null ? label
 					: (receivingLabel != null ? receivingLabel : getString(R.string.address_unlabeled)));
 			receivingStaticLabelView.setTextColor(label != null ? R.color.fg_significant : R.color.fg_insignificant);
@@ -69,6 +69,9 @@ public final class TransactionActivity extends AbstractWalletActivity
 	{
 		super.onCreate(savedInstanceState);
 
+		if (isWaitingForWallet())
+			return;
+
 		nfcManager = getSystemService(Context.NFC_SERVICE);
 
 		setContentView(R.layout.transaction_content);
@@ -84,7 +87,8 @@ public final class TransactionActivity extends AbstractWalletActivity
 	{
 		super.onResume();
 
-		updateView();
+		if (!isWaitingForWallet())
+			updateView();
 	}
 
 	@Override
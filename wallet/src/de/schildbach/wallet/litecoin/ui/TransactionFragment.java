@@ -47,6 +47,7 @@ import com.google.litecoin.core.Wallet;
 
 import de.schildbach.wallet.litecoin.AddressBookProvider;
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.WalletAddressIndex;
 import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.util.Base43;
 import de.schildbach.wallet.litecoin.util.BitmapFragment;
@@ -92,7 +93,9 @@ public final class TransactionFragment extends SherlockFragment
 
 	public void update(final Transaction tx)
 	{
-		final Wallet wallet = ((WalletApplication) activity.getApplication()).getWallet();
+		final WalletApplication application = (WalletApplication) activity.getApplication();
+		final Wallet wallet = application.getWallet();
+		final WalletAddressIndex addressIndex = application.getAddressIndex();
 
 		final byte[] serializedTx = tx.unsafeLitecoinSerialize();
 
@@ -101,7 +104,7 @@ public final class TransactionFragment extends SherlockFragment
 		try
 		{
 			from = tx.getInputs().get(0).getFromAddress();
-			fromMine = wallet.isPubKeyHashMine(from.getHash160());
+			fromMine = addressIndex.isMine(from);
 		}
 		catch (final ScriptException x)
 		{
@@ -113,7 +116,7 @@ public final class TransactionFragment extends SherlockFragment
 		try
 		{
 			to = tx.getOutputs().get(0).getScriptPubKey().getToAddress();
-			toMine = wallet.isPubKeyHashMine(to.getHash160());
+			toMine = addressIndex.isMine(to);
 		}
 		catch (final ScriptException x)
 		{
@@ -18,33 +18,40 @@
 package de.schildbach.wallet.litecoin.ui;
 
 import java.math.BigInteger;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.content.Context;
 import android.content.res.Resources;
 import android.graphics.Color;
 import android.graphics.Typeface;
-import android.text.format.DateUtils;
+import android.os.Handler;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.BaseAdapter;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.google.litecoin.core.Address;
 import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
 import com.google.litecoin.core.Transaction;
 import com.google.litecoin.core.TransactionConfidence;
 import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
 import com.google.litecoin.core.Wallet;
 
-import de.schildbach.wallet.litecoin.AddressBookProvider;
+import de.schildbach.wallet.litecoin.AddressLabelCache;
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.RelativeTimeCache;
+import de.schildbach.wallet.litecoin.TransactionArchive;
+import de.schildbach.wallet.litecoin.TransactionArchive.ArchivedTransaction;
+import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.util.CircularProgressView;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
@@ -59,7 +66,9 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final Wallet wallet;
 	private final int maxConnectedPeers;
 
-	private final List<Transaction> transactions = new ArrayList<Transaction>();
+	private List<Transaction> transactions = Collections.emptyList();
+	private TransactionArchive archive;
+	private int[] archivedPositions = new int[0];
 	private int precision = Constants.LTC_PRECISION;
 
 	private final int colorSignificant;
@@ -68,8 +77,18 @@ public class TransactionsListAdapter extends BaseAdapter
 	private final int colorCircularBuilding = Color.parseColor("#44ff44");
 	private final String textCoinBase;
 
-	private final Map<String, String> labelCache = new HashMap<String, String>();
-	private final static String CACHE_NULL_MARKER = "";
+	private Handler backgroundHandler;
+	private ListView listView;
+	private final Handler handler = new Handler();
+	private final Map<Sha256Hash, TransactionRow> rows = new ConcurrentHashMap<Sha256Hash, TransactionRow>();
+	private final Set<Sha256Hash> staleRows = Collections.synchronizedSet(new HashSet<Sha256Hash>());
+	private volatile int windowFirst = 0, windowLast = PAGE_SIZE;
+
+	private static final int PAGE_SIZE = 32;
+	private static final int PREFETCH_PAGES = 1;
+
+	private final AddressLabelCache labelCache;
+	private final RelativeTimeCache relativeTimeCache;
 
 	private static final String CONFIDENCE_SYMBOL_NOT_IN_BEST_CHAIN = "!";
 	private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
@@ -82,6 +101,9 @@ public class TransactionsListAdapter extends BaseAdapter
 
 		this.wallet = wallet;
 		this.maxConnectedPeers = maxConnectedPeers;
+		final WalletApplication application = (WalletApplication) context.getApplicationContext();
+		this.labelCache = application.getAddressLabelCache();
+		this.relativeTimeCache = application.getRelativeTimeCache();
 
 		final Resources resources = context.getResources();
 		colorSignificant = resources.getColor(R.color.fg_significant);
@@ -97,217 +119,576 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
-	public void clear()
+	/**
+	 * Row models of the visible window are computed on the given handler rather than while binding. Without, they are computed on
+	 * demand.
+	 */
+	public void setBackgroundHandler(final Handler backgroundHandler)
 	{
-		transactions.clear();
+		this.backgroundHandler = backgroundHandler;
+	}
 
-		notifyDataSetChanged();
+	/**
+	 * Lets confidence changes rebind just the affected rows of the given list, instead of the whole list.
+	 */
+	public void setListView(final ListView listView)
+	{
+		this.listView = listView;
 	}
 
-	public void replace(final Transaction tx)
+	public void clear()
 	{
-		transactions.clear();
-		transactions.add(tx);
+		replace(Collections.<Transaction> emptyList());
+	}
 
-		notifyDataSetChanged();
+	public void replace(final Transaction tx)
+	{
+		replace(Collections.singletonList(tx));
 	}
 
-	public void replace(final Collection<Transaction> transactions)
+	/**
+	 * @param transactions
+	 *            immutable list, will be referenced rather than copied
+	 */
+	public void replace(final List<Transaction> transactions)
 	{
-		this.transactions.clear();
-		this.transactions.addAll(transactions);
+		this.transactions = transactions;
 
 		notifyDataSetChanged();
+
+		prefetchWindow();
 	}
 
-	public int getCount()
+	/**
+	 * Marks the row model of a transaction as outdated, for example because its confidence changed. The stale model keeps being
+	 * bound until its replacement has been computed.
+	 */
+	public void invalidate(final Sha256Hash hash)
 	{
-		return transactions.size();
+		if (rows.containsKey(hash))
+			staleRows.add(hash);
 	}
 
-	public Transaction getItem(final int position)
+	/**
+	 * Marks all row models as outdated, for example after a reorganize.
+	 */
+	public void invalidateAll()
 	{
-		return transactions.get(position);
+		staleRows.addAll(rows.keySet());
 	}
 
-	public long getItemId(final int position)
+	/**
+	 * Recomputes outdated row models of the visible window.
+	 */
+	public void refresh()
 	{
-		return WalletUtils.longHash(transactions.get(position).getHash());
+		if (backgroundHandler != null)
+			prefetchWindow();
+		else
+			notifyDataSetChanged();
 	}
 
-	@Override
-	public boolean hasStableIds()
+	/**
+	 * Keeps row models only for the visible window plus prefetch margin, evicting those that were scrolled away.
+	 */
+	public void setVisibleRange(final int firstVisible, final int visibleCount)
 	{
-		return true;
+		final int first = Math.max((firstVisible / PAGE_SIZE - PREFETCH_PAGES) * PAGE_SIZE, 0);
+		final int last = ((firstVisible + visibleCount) / PAGE_SIZE + PREFETCH_PAGES + 1) * PAGE_SIZE;
+		if (first == windowFirst && last == windowLast)
+			return;
+
+		windowFirst = first;
+		windowLast = last;
+
+		prefetchWindow();
 	}
 
-	public View getView(final int position, View row, final ViewGroup parent)
+	private void prefetchWindow()
 	{
-		if (row == null)
-			row = inflater.inflate(R.layout.transaction_row, null);
+		if (backgroundHandler == null)
+			return;
 
-		final Transaction tx = getItem(position);
-		final TransactionConfidence confidence = tx.getConfidence();
-		final ConfidenceType confidenceType = confidence.getConfidenceType();
-		final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+		final List<Transaction> transactions = this.transactions;
 
-		try
+		backgroundHandler.removeCallbacksAndMessages(null);
+		backgroundHandler.post(new Runnable()
 		{
-			final BigInteger value = tx.getValue(wallet);
-			final boolean sent = value.signum() < 0;
+			public void run()
+			{
+				final int first = Math.min(windowFirst, transactions.size());
+				final int last = Math.min(windowLast, transactions.size());
+				final Set<Sha256Hash> window = new HashSet<Sha256Hash>(last - first);
+				final Set<Sha256Hash> rebind = new HashSet<Sha256Hash>();
+				boolean changed = false;
+
+				for (int i = first; i < last; i++)
+				{
+					final Transaction tx = transactions.get(i);
+					final Sha256Hash hash = tx.getHash();
+					window.add(hash);
+
+					final TransactionRow row = rows.get(hash);
+					if (row == null || row.tx != tx)
+					{
+						rows.put(hash, new TransactionRow(tx));
+						changed = true;
+					}
+					else if (staleRows.remove(hash))
+					{
+						// most confidence changes don't change anything that is displayed
+						final TransactionRow newRow = new TransactionRow(tx);
+						rows.put(hash, newRow);
+						if (!newRow.displaysSameAs(row))
+							rebind.add(hash);
+					}
+				}
+
+				// evict rows scrolled away
+				rows.keySet().retainAll(window);
+				staleRows.retainAll(window);
+
+				// labels of the whole window in one go
+				if (labelCache.load(rowAddresses()))
+					changed = true;
+
+				if (changed)
+				{
+					handler.post(new Runnable()
+					{
+						public void run()
+						{
+							notifyDataSetChanged();
+						}
+					});
+				}
+				else if (!rebind.isEmpty())
+				{
+					handler.post(new Runnable()
+					{
+						public void run()
+						{
+							rebindRows(rebind);
+						}
+					});
+				}
+			}
+		});
+	}
 
-			final CircularProgressView rowConfidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
-			final TextView rowConfidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
+	/**
+	 * Updates just the time labels of the visible rows, for example because they expired on the minute tick.
+	 */
+	public void rebindTimes()
+	{
+		if (listView == null)
+		{
+			notifyDataSetChanged();
+			return;
+		}
 
-			final int textColor;
-			if (confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN)
-			{
-				final boolean isValid = isOwn && confidence.numBroadcastPeers() > 1;
+		final int firstPosition = listView.getFirstVisiblePosition();
+		final int childCount = listView.getChildCount();
 
-				rowConfidenceCircular.setVisibility(View.VISIBLE);
-				rowConfidenceTextual.setVisibility(View.GONE);
-				textColor = isValid ? colorSignificant : colorInsignificant;
+		for (int i = 0; i < childCount; i++)
+		{
+			final int position = firstPosition + i;
+			if (position >= getCount())
+				break;
 
-				rowConfidenceCircular.setProgress(1);
-				rowConfidenceCircular.setMaxProgress(1);
-				rowConfidenceCircular.setSize(confidence.numBroadcastPeers());
-				rowConfidenceCircular.setMaxSize(maxConnectedPeers - 1);
-				rowConfidenceCircular.setColors(colorInsignificant, colorInsignificant);
+			final Object tag = listView.getChildAt(i).getTag();
+			if (tag instanceof ViewHolder)
+			{
+				final Object item = getItem(position);
+				final long time;
+				if (item instanceof ArchivedTransaction)
+					time = ((ArchivedTransaction) item).time != null ? ((ArchivedTransaction) item).time.getTime() : 0;
+				else
+					time = getRow((Transaction) item).time;
+
+				bindTime((ViewHolder) tag, time);
 			}
-			else if (confidenceType == ConfidenceType.BUILDING)
+		}
+	}
+
+	private void rebindRows(final Set<Sha256Hash> hashes)
+	{
+		if (listView == null)
+		{
+			notifyDataSetChanged();
+			return;
+		}
+
+		final int firstPosition = listView.getFirstVisiblePosition();
+		final int childCount = listView.getChildCount();
+
+		for (int i = 0; i < childCount; i++)
+		{
+			final int position = firstPosition + i;
+			if (position >= transactions.size())
+				break;
+
+			final Transaction tx = transactions.get(position);
+			if (hashes.contains(tx.getHash()))
 			{
-				rowConfidenceCircular.setVisibility(View.VISIBLE);
-				rowConfidenceTextual.setVisibility(View.GONE);
-				textColor = colorSignificant;
+				final Object tag = listView.getChildAt(i).getTag();
+				if (tag instanceof ViewHolder)
+					bind((ViewHolder) tag, getRow(tx), true);
+			}
+		}
+	}
+
+	private TransactionRow getRow(final Transaction tx)
+	{
+		final TransactionRow row = rows.get(tx.getHash());
+
+		// without background handler, there is nobody else to replace stale rows
+		if (row != null && row.tx == tx && (backgroundHandler != null || !staleRows.remove(tx.getHash())))
+			return row;
+
+		// not prefetched yet, or no background handler; kept so further binds and sorting don't compute it again, evicted with the
+		// window
+		final TransactionRow newRow = new TransactionRow(tx);
+		rows.put(tx.getHash(), newRow);
+		return newRow;
+	}
 
-				rowConfidenceCircular.setProgress(confidence.getDepthInBlocks());
-				rowConfidenceCircular.setMaxProgress(tx.isCoinBase() ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth()
-						: Constants.MAX_NUM_CONFIRMATIONS);
-				rowConfidenceCircular.setSize(1);
-				rowConfidenceCircular.setMaxSize(1);
-				rowConfidenceCircular.setColors(colorCircularBuilding, Color.DKGRAY);
+	/**
+	 * Everything needed to bind a transaction row, so binding doesn't have to value the transaction against the wallet or parse
+	 * scripts.
+	 */
+	private final class TransactionRow
+	{
+		public final Transaction tx;
+		public final BigInteger value;
+		public final boolean sent;
+		public final boolean coinBase;
+		public final Address address;
+		public final long time;
+		public final int textColor;
+
+		public final boolean confidenceCircular;
+		public final int confidenceProgress, confidenceMaxProgress, confidenceSize, confidenceMaxSize;
+		public final int confidenceColorFg, confidenceColorBg;
+		public final String confidenceSymbol;
+		public final int confidenceSymbolColor;
+
+		public final int messageResId;
+		public final int messageColor;
+
+		public TransactionRow(final Transaction tx)
+		{
+			final TransactionConfidence confidence = tx.getConfidence();
+			final ConfidenceType confidenceType = confidence.getConfidenceType();
+			final boolean isOwn = confidence.getSource().equals(TransactionConfidence.Source.SELF);
+
+			try
+			{
+				this.tx = tx;
+				this.value = tx.getValue(wallet);
+				this.sent = value.signum() < 0;
+				this.coinBase = tx.isCoinBase();
+				this.address = sent ? WalletUtils.getToAddress(tx) : WalletUtils.getFromAddress(tx);
 			}
-			else if (confidenceType == ConfidenceType.NOT_IN_BEST_CHAIN)
+			catch (final ScriptException x)
 			{
-				rowConfidenceCircular.setVisibility(View.GONE);
-				rowConfidenceTextual.setVisibility(View.VISIBLE);
-				textColor = colorSignificant;
-
-				rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_NOT_IN_BEST_CHAIN);
-				rowConfidenceTextual.setTextColor(Color.RED);
+				throw new RuntimeException(x);
 			}
-			else if (confidenceType == ConfidenceType.DEAD)
+
+			if (confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN)
 			{
-				rowConfidenceCircular.setVisibility(View.GONE);
-				rowConfidenceTextual.setVisibility(View.VISIBLE);
-				textColor = Color.RED;
+				final boolean isValid = isOwn && confidence.numBroadcastPeers() > 1;
 
-				rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_DEAD);
-				rowConfidenceTextual.setTextColor(Color.RED);
+				textColor = isValid ? colorSignificant : colorInsignificant;
+				confidenceCircular = true;
+				confidenceProgress = 1;
+				confidenceMaxProgress = 1;
+				confidenceSize = confidence.numBroadcastPeers();
+				confidenceMaxSize = maxConnectedPeers - 1;
+				confidenceColorFg = colorInsignificant;
+				confidenceColorBg = colorInsignificant;
+				confidenceSymbol = null;
+				confidenceSymbolColor = 0;
+			}
+			else if (confidenceType == ConfidenceType.BUILDING)
+			{
+				textColor = colorSignificant;
+				confidenceCircular = true;
+				confidenceProgress = confidence.getDepthInBlocks();
+				confidenceMaxProgress = coinBase ? Constants.NETWORK_PARAMETERS.getSpendableCoinbaseDepth() : Constants.MAX_NUM_CONFIRMATIONS;
+				confidenceSize = 1;
+				confidenceMaxSize = 1;
+				confidenceColorFg = colorCircularBuilding;
+				confidenceColorBg = Color.DKGRAY;
+				confidenceSymbol = null;
+				confidenceSymbolColor = 0;
 			}
 			else
 			{
-				rowConfidenceCircular.setVisibility(View.GONE);
-				rowConfidenceTextual.setVisibility(View.VISIBLE);
-				textColor = colorInsignificant;
-
-				rowConfidenceTextual.setText(CONFIDENCE_SYMBOL_UNKNOWN);
-				rowConfidenceTextual.setTextColor(colorInsignificant);
+				confidenceCircular = false;
+				confidenceProgress = confidenceMaxProgress = confidenceSize = confidenceMaxSize = 0;
+				confidenceColorFg = confidenceColorBg = 0;
+
+				if (confidenceType == ConfidenceType.NOT_IN_BEST_CHAIN)
+				{
+					textColor = colorSignificant;
+					confidenceSymbol = CONFIDENCE_SYMBOL_NOT_IN_BEST_CHAIN;
+					confidenceSymbolColor = Color.RED;
+				}
+				else if (confidenceType == ConfidenceType.DEAD)
+				{
+					textColor = Color.RED;
+					confidenceSymbol = CONFIDENCE_SYMBOL_DEAD;
+					confidenceSymbolColor = Color.RED;
+				}
+				else
+				{
+					textColor = colorInsignificant;
+					confidenceSymbol = CONFIDENCE_SYMBOL_UNKNOWN;
+					confidenceSymbolColor = colorInsignificant;
+				}
 			}
 
-			final TextView rowTime = (TextView) row.findViewById(R.id.transaction_row_time);
-			final Date time = tx.getUpdateTime();
-			rowTime.setText(time != null ? (DateUtils.getRelativeTimeSpanString(context, time.getTime())) : null);
-			rowTime.setTextColor(textColor);
-
-			final TextView rowFromTo = (TextView) row.findViewById(R.id.transaction_row_fromto);
-			rowFromTo.setText(sent ? R.string.symbol_to : R.string.symbol_from);
-			rowFromTo.setTextColor(textColor);
-
-			final TextView rowAddress = (TextView) row.findViewById(R.id.transaction_row_address);
-			final Address address = sent ? WalletUtils.getToAddress(tx) : WalletUtils.getFromAddress(tx);
-			final String label;
-			if (tx.isCoinBase())
-				label = textCoinBase;
-			else if (address != null)
-				label = resolveLabel(address.toString());
-			else
-				label = "?";
-			rowAddress.setTextColor(textColor);
-			rowAddress.setText(label != null ? label : address.toString());
-			rowAddress.setTypeface(label != null ? Typeface.DEFAULT : Typeface.MONOSPACE);
-
-			final CurrencyTextView rowValue = (CurrencyTextView) row.findViewById(R.id.transaction_row_value);
-			rowValue.setTextColor(textColor);
-			rowValue.setAlwaysSigned(true);
-			rowValue.setPrecision(precision);
-			rowValue.setAmount(value);
-
-			final View rowExtend = row.findViewById(R.id.transaction_row_extend);
-			final TextView rowMessage = (TextView) row.findViewById(R.id.transaction_row_message);
+			final Date updateTime = tx.getUpdateTime();
+			time = updateTime != null ? updateTime.getTime() : 0;
+
 			final boolean isLocked = tx.getLockTime() > 0;
-			rowExtend.setVisibility(View.GONE);
 			if (isOwn && confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN && confidence.numBroadcastPeers() <= 1)
 			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_own_unbroadcasted);
-				rowMessage.setTextColor(colorInsignificant);
+				messageResId = R.string.transaction_row_message_own_unbroadcasted;
+				messageColor = colorInsignificant;
 			}
 			else if (!sent && confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN && isLocked)
 			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_locked);
-				rowMessage.setTextColor(colorError);
+				messageResId = R.string.transaction_row_message_received_unconfirmed_locked;
+				messageColor = colorError;
 			}
 			else if (!sent && confidenceType == ConfidenceType.NOT_SEEN_IN_CHAIN && !isLocked)
 			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_unlocked);
-				rowMessage.setTextColor(colorInsignificant);
+				messageResId = R.string.transaction_row_message_received_unconfirmed_unlocked;
+				messageColor = colorInsignificant;
 			}
 			else if (!sent && confidenceType == ConfidenceType.NOT_IN_BEST_CHAIN)
 			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_unconfirmed_unlocked);
-				rowMessage.setTextColor(colorError);
+				messageResId = R.string.transaction_row_message_received_unconfirmed_unlocked;
+				messageColor = colorError;
 			}
 			else if (!sent && confidenceType == ConfidenceType.DEAD)
 			{
-				rowExtend.setVisibility(View.VISIBLE);
-				rowMessage.setText(R.string.transaction_row_message_received_dead);
-				rowMessage.setTextColor(colorError);
+				messageResId = R.string.transaction_row_message_received_dead;
+				messageColor = colorError;
 			}
+			else
+			{
+				messageResId = 0;
+				messageColor = 0;
+			}
+		}
 
-			return row;
+		/**
+		 * @return true if binding the other row wouldn't change anything on screen
+		 */
+		public boolean displaysSameAs(final TransactionRow other)
+		{
+			return value.equals(other.value) && textColor == other.textColor && confidenceCircular == other.confidenceCircular
+					&& confidenceProgress == other.confidenceProgress && confidenceMaxProgress == other.confidenceMaxProgress
+					&& confidenceSize == other.confidenceSize && confidenceMaxSize == other.confidenceMaxSize
+					&& confidenceColorFg == other.confidenceColorFg && confidenceColorBg == other.confidenceColorBg
+					&& equals(confidenceSymbol, other.confidenceSymbol) && confidenceSymbolColor == other.confidenceSymbolColor
+					&& messageResId == other.messageResId && messageColor == other.messageColor
+					&& time == other.time;
 		}
-		catch (final ScriptException x)
+
+		private boolean equals(final Object o1, final Object o2)
 		{
-			throw new RuntimeException(x);
+			return o1 != null ? o1.equals(o2) : o2 == null;
 		}
 	}
 
-	private String resolveLabel(final String address)
+	private static final class ViewHolder
 	{
-		final String cachedLabel = labelCache.get(address);
-		if (cachedLabel == null)
+		public final CircularProgressView confidenceCircular;
+		public final TextView confidenceTextual;
+		public final TextView time;
+		public final TextView fromTo;
+		public final TextView address;
+		public final CurrencyTextView value;
+		public final View extend;
+		public final TextView message;
+
+		public ViewHolder(final View row)
 		{
-			final String label = AddressBookProvider.resolveLabel(context, address);
-			if (label != null)
-				labelCache.put(address, label);
-			else
-				labelCache.put(address, CACHE_NULL_MARKER);
-			return label;
+			confidenceCircular = (CircularProgressView) row.findViewById(R.id.transaction_row_confidence_circular);
+			confidenceTextual = (TextView) row.findViewById(R.id.transaction_row_confidence_textual);
+			time = (TextView) row.findViewById(R.id.transaction_row_time);
+			fromTo = (TextView) row.findViewById(R.id.transaction_row_fromto);
+			address = (TextView) row.findViewById(R.id.transaction_row_address);
+			value = (CurrencyTextView) row.findViewById(R.id.transaction_row_value);
+			extend = row.findViewById(R.id.transaction_row_extend);
+			message = (TextView) row.findViewById(R.id.transaction_row_message);
+
+			value.setAlwaysSigned(true);
 		}
+	}
+
+	/**
+	 * Archived transactions are listed after the live ones, in the given order of archive positions.
+	 */
+	public void setArchived(final TransactionArchive archive, final int[] positions)
+	{
+		this.archive = archive;
+		this.archivedPositions = positions != null ? positions : new int[0];
+
+		notifyDataSetChanged();
+	}
+
+	public int getCount()
+	{
+		return transactions.size() + archivedPositions.length;
+	}
+
+	/**
+	 * @return either a {@link Transaction} or an {@link ArchivedTransaction}
+	 */
+	public Object getItem(final int position)
+	{
+		if (position < transactions.size())
+			return transactions.get(position);
+		else
+			return archive.get(archivedPositions[position - transactions.size()]);
+	}
+
+	public long getItemId(final int position)
+	{
+		final Object item = getItem(position);
+		if (item instanceof Transaction)
+			return WalletUtils.longHash(((Transaction) item).getHash());
 		else
+			return WalletUtils.longHash(((ArchivedTransaction) item).hash);
+	}
+
+	@Override
+	public boolean hasStableIds()
+	{
+		return true;
+	}
+
+	public View getView(final int position, View row, final ViewGroup parent)
+	{
+		if (row == null)
 		{
-			return cachedLabel != CACHE_NULL_MARKER ? cachedLabel : null;
+			row = inflater.inflate(R.layout.transaction_row, null);
+			row.setTag(new ViewHolder(row));
 		}
+
+		final ViewHolder holder = (ViewHolder) row.getTag();
+
+		final Object item = getItem(position);
+		if (item instanceof ArchivedTransaction)
+			bindArchived(holder, (ArchivedTransaction) item);
+		else
+			bind(holder, getRow((Transaction) item), false);
+
+		return row;
 	}
 
-	public void clearLabelCache()
+	/**
+	 * @param rebind
+	 *            true if the row already shows the same transaction, so its confidence may be animated
+	 */
+	private void bind(final ViewHolder holder, final TransactionRow txRow, final boolean rebind)
 	{
-		labelCache.clear();
+		if (txRow.confidenceCircular)
+		{
+			holder.confidenceCircular.setVisibility(View.VISIBLE);
+			holder.confidenceTextual.setVisibility(View.GONE);
 
-		notifyDataSetChanged();
+			holder.confidenceCircular.setState(txRow.confidenceProgress, txRow.confidenceMaxProgress, txRow.confidenceSize,
+					txRow.confidenceMaxSize, txRow.confidenceColorFg, txRow.confidenceColorBg, rebind);
+		}
+		else
+		{
+			holder.confidenceCircular.setVisibility(View.GONE);
+			holder.confidenceTextual.setVisibility(View.VISIBLE);
+
+			holder.confidenceTextual.setText(txRow.confidenceSymbol);
+			holder.confidenceTextual.setTextColor(txRow.confidenceSymbolColor);
+		}
+
+		bindTime(holder, txRow.time);
+		holder.time.setTextColor(txRow.textColor);
+
+		holder.fromTo.setText(txRow.sent ? R.string.symbol_to : R.string.symbol_from);
+		holder.fromTo.setTextColor(txRow.textColor);
+
+		bindAddress(holder, txRow.coinBase, txRow.address, txRow.textColor);
+
+		holder.value.setTextColor(txRow.textColor);
+		holder.value.setPrecision(precision);
+		holder.value.setAmount(txRow.value);
+
+		if (txRow.messageResId != 0)
+		{
+			holder.extend.setVisibility(View.VISIBLE);
+			holder.message.setText(txRow.messageResId);
+			holder.message.setTextColor(txRow.messageColor);
+		}
+		else
+		{
+			holder.extend.setVisibility(View.GONE);
+		}
+	}
+
+	private void bindArchived(final ViewHolder holder, final ArchivedTransaction tx)
+	{
+		holder.confidenceCircular.setVisibility(View.VISIBLE);
+		holder.confidenceTextual.setVisibility(View.GONE);
+		holder.confidenceCircular.setState(1, 1, 1, 1, colorCircularBuilding, Color.DKGRAY, false);
+
+		bindTime(holder, tx.time != null ? tx.time.getTime() : 0);
+		holder.time.setTextColor(colorSignificant);
+
+		holder.fromTo.setText(tx.isSent() ? R.string.symbol_to : R.string.symbol_from);
+		holder.fromTo.setTextColor(colorSignificant);
+
+		bindAddress(holder, tx.coinBase, tx.address, colorSignificant);
+
+		holder.value.setTextColor(colorSignificant);
+		holder.value.setPrecision(precision);
+		holder.value.setAmount(tx.value);
+
+		holder.extend.setVisibility(View.GONE);
+	}
+
+	private void bindTime(final ViewHolder holder, final long time)
+	{
+		holder.time.setText(time != 0 ? relativeTimeCache.getTimeSpan(time) : null);
+	}
+
+	private void bindAddress(final ViewHolder holder, final boolean coinBase, final Address address, final int textColor)
+	{
+		final String label;
+		if (coinBase)
+			label = textCoinBase;
+		else if (address != null)
+			label = labelCache.lookup(address.toString());
+		else
+			label = "?";
+		holder.address.setTextColor(textColor);
+		holder.address.setText(label != null ? label : address.toString());
+		holder.address.setTypeface(label != null ? Typeface.DEFAULT : Typeface.MONOSPACE);
+	}
+
+	/**
+	 * @return addresses of the row models currently held, for prefetching their labels
+	 */
+	private Set<String> rowAddresses()
+	{
+		final Set<String> addresses = new HashSet<String>();
+		for (final TransactionRow row : rows.values())
+			if (row.address != null)
+				addresses.add(row.address.toString());
+
+		return addresses;
 	}
 }
@@ -17,35 +17,37 @@
 
 package de.schildbach.wallet.litecoin.ui;
 
+import java.io.IOException;
 import java.math.BigInteger;
 import java.text.DateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
 import android.app.Activity;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
-import android.database.ContentObserver;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.preference.PreferenceManager;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
 import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.Loader;
+import android.text.Editable;
 import android.text.SpannableStringBuilder;
+import android.text.TextWatcher;
 import android.text.format.DateUtils;
 import android.text.style.StyleSpan;
 import android.util.Log;
 import android.view.View;
+import android.widget.AbsListView;
+import android.widget.AbsListView.OnScrollListener;
+import android.widget.EditText;
 import android.widget.ListView;
 
 import com.actionbarsherlock.app.SherlockListFragment;
@@ -55,13 +57,18 @@ import com.actionbarsherlock.view.MenuInflater;
 import com.actionbarsherlock.view.MenuItem;
 import com.google.litecoin.core.Address;
 import com.google.litecoin.core.ScriptException;
+import com.google.litecoin.core.Sha256Hash;
 import com.google.litecoin.core.Transaction;
-import com.google.litecoin.core.TransactionConfidence.ConfidenceType;
 import com.google.litecoin.core.Wallet;
 
-import de.schildbach.wallet.litecoin.AddressBookProvider;
+import de.schildbach.wallet.litecoin.AddressLabelCache;
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.RelativeTimeCache;
+import de.schildbach.wallet.litecoin.TransactionArchive;
+import de.schildbach.wallet.litecoin.TransactionSearchIndex;
 import de.schildbach.wallet.litecoin.WalletApplication;
+import de.schildbach.wallet.litecoin.WalletChangeDispatcher;
+import de.schildbach.wallet.litecoin.WalletTransactionIndex;
 import de.schildbach.wallet.litecoin.util.ThrottelingWalletChangeListener;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
@@ -81,16 +88,20 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	private WalletApplication application;
 	private Wallet wallet;
 	private SharedPreferences prefs;
-	private ContentResolver resolver;
 	private LoaderManager loaderManager;
 
 	private TransactionsListAdapter adapter;
 
 	private Direction direction;
+	private String query = "";
+	private EditText searchView;
 
 	private final Handler handler = new Handler();
+	private HandlerThread backgroundThread;
 
 	private static final String KEY_DIRECTION = "direction";
+	private static final String KEY_QUERY = "query";
+	private static final long SEARCH_DELAY_MS = 300;
 	private static final long THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
 
 	public static TransactionsListFragment instance(final Direction direction)
@@ -104,12 +115,19 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		return fragment;
 	}
 
-	private final ContentObserver addressBookObserver = new ContentObserver(handler)
+	private final AddressLabelCache.Listener labelListener = new AddressLabelCache.Listener()
 	{
-		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsChanged()
 		{
-			adapter.clearLabelCache();
+			adapter.notifyDataSetChanged();
+		}
+	};
+
+	private final RelativeTimeCache.Listener relativeTimeListener = new RelativeTimeCache.Listener()
+	{
+		public void onLabelsExpired()
+		{
+			adapter.rebindTimes();
 		}
 	};
 
@@ -122,7 +140,6 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		this.application = (WalletApplication) activity.getApplication();
 		this.wallet = application.getWallet();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
-		this.resolver = activity.getContentResolver();
 		this.loaderManager = getLoaderManager();
 	}
 
@@ -132,25 +149,42 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		super.onCreate(savedInstanceState);
 
 		setRetainInstance(true);
+		setHasOptionsMenu(true);
 
 		this.direction = (Direction) getArguments().getSerializable(KEY_DIRECTION);
 
+		backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+		backgroundThread.start();
+
 		adapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers());
+		adapter.setBackgroundHandler(new Handler(backgroundThread.getLooper()));
 		setListAdapter(adapter);
 	}
 
+	@Override
+	public void onDestroy()
+	{
+		backgroundThread.getLooper().quit();
+
+		super.onDestroy();
+	}
+
 	@Override
 	public void onResume()
 	{
 		super.onResume();
 
-		resolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, addressBookObserver);
+		application.getAddressLabelCache().addListener(labelListener);
+		application.getRelativeTimeCache().addListener(relativeTimeListener);
 
 		prefs.registerOnSharedPreferenceChangeListener(this);
 
-		loaderManager.initLoader(0, null, this);
+		loaderManager.initLoader(0, queryArgs(), this);
+		if (query.length() == 0)
+			loaderManager.initLoader(1, null, archiveLoaderCallbacks);
 
-		wallet.addEventListener(transactionChangeListener);
+		application.getWalletChangeDispatcher().addListener(transactionChangeListener,
+				WalletChangeDispatcher.KIND_ALL & ~WalletChangeDispatcher.KIND_WALLET, THROTTLE_MS, handler);
 
 		updateView();
 	}
@@ -160,6 +194,39 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	{
 		super.onViewCreated(view, savedInstanceState);
 
+		updateEmptyText();
+
+		adapter.setListView(getListView());
+
+		getListView().setOnScrollListener(new OnScrollListener()
+		{
+			public void onScroll(final AbsListView view, final int firstVisibleItem, final int visibleItemCount, final int totalItemCount)
+			{
+				adapter.setVisibleRange(firstVisibleItem, visibleItemCount);
+			}
+
+			public void onScrollStateChanged(final AbsListView view, final int scrollState)
+			{
+			}
+		});
+	}
+
+	@Override
+	public void onDestroyView()
+	{
+		adapter.setListView(null);
+
+		super.onDestroyView();
+	}
+
+	private void updateEmptyText()
+	{
+		if (query.length() > 0)
+		{
+			setEmptyText(getString(R.string.wallet_transactions_fragment_empty_text_search));
+			return;
+		}
+
 		final SpannableStringBuilder emptyText = new SpannableStringBuilder(
 				getString(direction == Direction.SENT ? R.string.wallet_transactions_fragment_empty_text_sent
 						: R.string.wallet_transactions_fragment_empty_text_received));
@@ -170,17 +237,104 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		setEmptyText(emptyText);
 	}
 
+	@Override
+	public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater)
+	{
+		inflater.inflate(R.menu.wallet_transactions_fragment_options, menu);
+
+		final MenuItem searchItem = menu.findItem(R.id.wallet_transactions_options_search);
+		final EditText searchView = (EditText) searchItem.getActionView();
+		searchView.setText(query);
+		searchView.addTextChangedListener(new TextWatcher()
+		{
+			public void afterTextChanged(final Editable s)
+			{
+				handler.removeCallbacks(searchRunnable);
+				handler.postDelayed(searchRunnable, SEARCH_DELAY_MS);
+			}
+
+			public void beforeTextChanged(final CharSequence s, final int start, final int count, final int after)
+			{
+			}
+
+			public void onTextChanged(final CharSequence s, final int start, final int before, final int count)
+			{
+			}
+		});
+		searchItem.setOnActionExpandListener(new MenuItem.OnActionExpandListener()
+		{
+			public boolean onMenuItemActionExpand(final MenuItem item)
+			{
+				searchView.requestFocus();
+				return true;
+			}
+
+			public boolean onMenuItemActionCollapse(final MenuItem item)
+			{
+				searchView.setText(null);
+				return true;
+			}
+		});
+
+		this.searchView = searchView;
+
+		super.onCreateOptionsMenu(menu, inflater);
+	}
+
+	private final Runnable searchRunnable = new Runnable()
+	{
+		public void run()
+		{
+			if (searchView != null)
+				search(searchView.getText().toString().trim());
+		}
+	};
+
+	private void search(final String query)
+	{
+		if (query.equals(this.query))
+			return;
+
+		final boolean wasSearching = this.query.length() > 0;
+		this.query = query;
+
+		loaderManager.restartLoader(0, queryArgs(), this);
+
+		// archived transactions aren't indexed, so they are hidden while searching
+		if (query.length() > 0 && !wasSearching)
+		{
+			loaderManager.destroyLoader(1);
+			adapter.setArchived(null, null);
+		}
+		else if (query.length() == 0 && wasSearching)
+		{
+			loaderManager.initLoader(1, null, archiveLoaderCallbacks);
+		}
+
+		updateEmptyText();
+	}
+
+	private Bundle queryArgs()
+	{
+		final Bundle args = new Bundle();
+		args.putString(KEY_QUERY, query);
+		return args;
+	}
+
 	@Override
 	public void onPause()
 	{
-		wallet.removeEventListener(transactionChangeListener);
-		transactionChangeListener.removeCallbacks();
+		handler.removeCallbacks(searchRunnable);
 
+		application.getWalletChangeDispatcher().removeListener(transactionChangeListener);
+
+		loaderManager.destroyLoader(1);
 		loaderManager.destroyLoader(0);
 
 		prefs.unregisterOnSharedPreferenceChangeListener(this);
 
-		resolver.unregisterContentObserver(addressBookObserver);
+		application.getRelativeTimeCache().removeListener(relativeTimeListener);
+		application.getAddressLabelCache().removeListener(labelListener);
 
 		super.onPause();
 	}
@@ -188,7 +342,11 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	@Override
 	public void onListItemClick(final ListView l, final View v, final int position, final long id)
 	{
-		final Transaction tx = (Transaction) adapter.getItem(position);
+		final Object item = adapter.getItem(position);
+		if (!(item instanceof Transaction))
+			return; // archived transactions are not in the wallet any more
+
+		final Transaction tx = (Transaction) item;
 
 		activity.startActionMode(new ActionMode.Callback()
 		{
@@ -224,7 +382,7 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 					if (tx.isCoinBase())
 						label = getString(R.string.wallet_transactions_fragment_coinbase);
 					else if (address != null)
-						label = AddressBookProvider.resolveLabel(activity, address.toString());
+						label = application.getAddressLabelCache().lookup(address.toString());
 					else
 						label = "?";
 
@@ -275,7 +433,10 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 
 	public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
 	{
-		return new TransactionsLoader(activity, wallet, direction);
+		final String query = args != null ? args.getString(KEY_QUERY) : null;
+
+		return new TransactionsLoader(activity, application.getWalletChangeDispatcher(), application.getTransactionIndex(),
+				application.getTransactionSearchIndex(), direction, query != null ? TransactionSearchIndex.Query.parse(query) : null);
 	}
 
 	public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
@@ -288,27 +449,58 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		adapter.clear();
 	}
 
-	private final ThrottelingWalletChangeListener transactionChangeListener = new ThrottelingWalletChangeListener(THROTTLE_MS)
+	private final LoaderCallbacks<int[]> archiveLoaderCallbacks = new LoaderCallbacks<int[]>()
 	{
-		@Override
-		public void onThrotteledWalletChanged()
+		public Loader<int[]> onCreateLoader(final int id, final Bundle args)
 		{
-			adapter.notifyDataSetChanged();
+			return new ArchiveLoader(activity, application.getTransactionArchive(), direction);
+		}
+
+		public void onLoadFinished(final Loader<int[]> loader, final int[] positions)
+		{
+			adapter.setArchived(application.getTransactionArchive(), positions);
+		}
+
+		public void onLoaderReset(final Loader<int[]> loader)
+		{
+			adapter.setArchived(null, null);
+		}
+	};
+
+	private final WalletChangeDispatcher.Listener transactionChangeListener = new WalletChangeDispatcher.Listener()
+	{
+		public void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
+		{
+			if (changes.contains(WalletChangeDispatcher.KIND_REORGANIZE | WalletChangeDispatcher.KIND_CLEARED))
+				adapter.invalidateAll();
+			else
+				for (final Sha256Hash hash : changes.transactions)
+					adapter.invalidate(hash);
+
+			adapter.refresh();
 		}
 	};
 
 	private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>>
 	{
-		private final Wallet wallet;
+		private final WalletChangeDispatcher changeDispatcher;
+		private final WalletTransactionIndex transactionIndex;
+		private final TransactionSearchIndex searchIndex;
 		private final Direction direction;
+		private final TransactionSearchIndex.Query query;
+		private volatile long searchVersion = -1;
 
-		private TransactionsLoader(final Context context, final Wallet wallet, final Direction direction)
+		private TransactionsLoader(final Context context, final WalletChangeDispatcher changeDispatcher,
+				final WalletTransactionIndex transactionIndex, final TransactionSearchIndex searchIndex, final Direction direction,
+				final TransactionSearchIndex.Query query)
 		{
 			super(context);
 
-			this.wallet = wallet;
+			this.changeDispatcher = changeDispatcher;
+			this.transactionIndex = transactionIndex;
+			this.searchIndex = searchIndex;
 			this.direction = direction;
-
+			this.query = query;
 		}
 
 		@Override
@@ -316,8 +508,8 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		{
 			super.onStartLoading();
 
-			wallet.addEventListener(transactionAddRemoveListener);
-			transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
+			transactionAddRemoveListener.subscribe(changeDispatcher);
+			searchIndex.addListener(searchIndexListener);
 
 			forceLoad();
 		}
@@ -325,8 +517,8 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		@Override
 		protected void onStopLoading()
 		{
-			wallet.removeEventListener(transactionAddRemoveListener);
-			transactionAddRemoveListener.removeCallbacks();
+			transactionAddRemoveListener.unsubscribe(changeDispatcher);
+			searchIndex.removeListener(searchIndexListener);
 
 			super.onStopLoading();
 		}
@@ -334,28 +526,34 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 		@Override
 		public List<Transaction> loadInBackground()
 		{
-			final Set<Transaction> transactions = wallet.getTransactions(true, false);
-			final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
-
-			try
+			if (query != null && !query.isEmpty())
 			{
-				for (final Transaction tx : transactions)
-				{
-					final boolean sent = tx.getValue(wallet).signum() < 0;
-					if ((direction == Direction.RECEIVED && !sent) || direction == null || (direction == Direction.SENT && sent))
-						filteredTransactions.add(tx);
-				}
-			}
-			catch (final ScriptException x)
-			{
-				throw new RuntimeException(x);
-			}
+				// matches come from the postings, the transaction index only puts them in order
+				final TransactionSearchIndex.Result result = searchIndex.search(query);
+				searchVersion = result.version;
 
-			Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
+				return transactionIndex.select(result.hashes, direction != Direction.SENT, direction != Direction.RECEIVED);
+			}
 
-			return filteredTransactions;
+			// index is kept sorted incrementally, so this just picks up its current snapshot
+			if (direction == Direction.RECEIVED)
+				return transactionIndex.getReceivedTransactions();
+			else if (direction == Direction.SENT)
+				return transactionIndex.getSentTransactions();
+			else
+				return transactionIndex.getTransactions();
 		}
 
+		private final TransactionSearchIndex.Listener searchIndexListener = new TransactionSearchIndex.Listener()
+		{
+			public void onSearchIndexChanged(final long version)
+			{
+				// the search index applies wallet changes after the transaction index, so load again once it caught up
+				if (query != null && !query.isEmpty() && version != searchVersion)
+					forceLoad();
+			}
+		};
+
 		private final ThrottelingWalletChangeListener transactionAddRemoveListener = new ThrottelingWalletChangeListener(THROTTLE_MS, true, true,
 				false)
 		{
@@ -373,30 +571,46 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
                 }
 			}
 		};
+	}
 
-		private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>()
+	private static class ArchiveLoader extends AsyncTaskLoader<int[]>
+	{
+		private final TransactionArchive archive;
+		private final Direction direction;
+
+		private ArchiveLoader(final Context context, final TransactionArchive archive, final Direction direction)
 		{
-			public int compare(final Transaction tx1, final Transaction tx2)
-			{
-				final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.NOT_SEEN_IN_CHAIN;
-				final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.NOT_SEEN_IN_CHAIN;
+			super(context);
 
-				if (pending1 != pending2)
-					return pending1 ? -1 : 1;
+			this.archive = archive;
+			this.direction = direction;
+		}
 
-				final Date updateTime1 = tx1.getUpdateTime();
-				final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-				final Date updateTime2 = tx2.getUpdateTime();
-				final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
+		@Override
+		protected void onStartLoading()
+		{
+			super.onStartLoading();
+
+			forceLoad();
+		}
 
-				if (time1 > time2)
-					return -1;
-				else if (time1 < time2)
-					return 1;
+		@Override
+		public int[] loadInBackground()
+		{
+			try
+			{
+				if (direction == null)
+					return archive.positions();
 				else
-					return 0;
+					return archive.positions(direction == Direction.SENT);
 			}
-		};
+			catch (final IOException x)
+			{
+				Log.w("Litecoin", "cannot read transaction archive", x);
+
+				return new int[0];
+			}
+		}
 	}
 
 	public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
@@ -408,7 +622,5 @@ public class TransactionsListFragment extends SherlockListFragment implements Lo
 	private void updateView()
 	{
 		adapter.setPrecision(Integer.parseInt(prefs.getString(Constants.PREFS_KEY_LTC_PRECISION, Integer.toString(Constants.LTC_PRECISION))));
-
-		adapter.clearLabelCache();
 	}
 }
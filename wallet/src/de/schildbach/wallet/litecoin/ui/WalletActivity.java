@@ -18,19 +18,19 @@
 package de.schildbach.wallet.litecoin.ui;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.net.URL;
-import java.net.URLConnection;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -38,9 +38,11 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
+import android.app.ProgressDialog;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.content.DialogInterface.OnClickListener;
@@ -78,6 +80,8 @@ import com.google.litecoin.core.ECKey;
 import com.google.litecoin.core.Wallet;
 
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.HttpFetcher;
+import de.schildbach.wallet.litecoin.TransactionExporter;
 import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.util.CrashReporter;
 import de.schildbach.wallet.litecoin.util.EncryptionUtils;
@@ -111,9 +115,16 @@ public final class WalletActivity extends AbstractWalletActivity
 		super.onCreate(savedInstanceState);
 
 		application = getWalletApplication();
-		wallet = application.getWallet();
 		prefs = PreferenceManager.getDefaultSharedPreferences(this);
 
+		if (!isWaitingForWallet())
+			initView();
+	}
+
+	private void initView()
+	{
+		wallet = application.getWallet();
+
 		setContentView(R.layout.wallet_content);
 
 		checkAlerts();
@@ -192,7 +203,8 @@ public final class WalletActivity extends AbstractWalletActivity
 	{
 		super.onResume();
 
-		getWalletApplication().startBlockchainService(true);
+		if (!isWaitingForWallet())
+			application.startBlockchainService(true);
 
 		checkLowStorageAlert();
 	}
@@ -202,6 +214,9 @@ public final class WalletActivity extends AbstractWalletActivity
 	{
 		super.onCreateOptionsMenu(menu);
 
+		if (wallet == null)
+			return false; // still loading
+
 		getSupportMenuInflater().inflate(R.menu.wallet_options, menu);
 		menu.findItem(R.id.wallet_options_donate).setVisible(!Constants.TEST);
 
@@ -213,6 +228,9 @@ public final class WalletActivity extends AbstractWalletActivity
 	{
 		super.onPrepareOptionsMenu(menu);
 
+		if (wallet == null)
+			return false;
+
 		final Resources res = getResources();
 		final String externalStorageState = Environment.getExternalStorageState();
 
@@ -221,6 +239,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		menu.findItem(R.id.wallet_options_import_keys).setEnabled(
 				Environment.MEDIA_MOUNTED.equals(externalStorageState) || Environment.MEDIA_MOUNTED_READ_ONLY.equals(externalStorageState));
 		menu.findItem(R.id.wallet_options_export_keys).setEnabled(Environment.MEDIA_MOUNTED.equals(externalStorageState));
+		menu.findItem(R.id.wallet_options_export_transactions).setEnabled(Environment.MEDIA_MOUNTED.equals(externalStorageState));
 		menu.findItem(R.id.wallet_options_disconnect).setVisible(prefs.getBoolean(Constants.PREFS_KEY_CONNECTIVITY_NOTIFICATION, true));
 
 		return true;
@@ -263,6 +282,10 @@ public final class WalletActivity extends AbstractWalletActivity
 				showDialog(DIALOG_EXPORT_KEYS);
 				return true;
 
+			case R.id.wallet_options_export_transactions:
+				handleExportTransactions();
+				return true;
+
 			case R.id.wallet_options_disconnect:
 				handleDisconnect();
 				return true;
@@ -612,13 +635,10 @@ public final class WalletActivity extends AbstractWalletActivity
 				try
 				{
 					final int versionCode = getWalletApplication().applicationVersionCode();
-					final URLConnection connection = new URL(Constants.VERSION_URL + "?current=" + versionCode).openConnection();
-					connection.connect();
-					final long serverTime = connection.getHeaderFieldDate("Date", 0);
-					final InputStream is = connection.getInputStream();
-					final BufferedReader reader = new BufferedReader(new InputStreamReader(is), 64);
-					final int serverVersionCode = Integer.parseInt(reader.readLine().trim().split("\\s+")[0]);
-					reader.close();
+					final HttpFetcher.Response response = getWalletApplication().getHttpFetcher().fetch(
+							new URL(Constants.VERSION_URL + "?current=" + versionCode));
+					final long serverTime = response.serverTime;
+					final int serverVersionCode = Integer.parseInt(response.body.trim().split("\\s+")[0]);
 
 					if (serverTime > 0)
 					{
@@ -886,6 +906,129 @@ public final class WalletActivity extends AbstractWalletActivity
 		}
 	}
 
+	private void handleExportTransactions()
+	{
+		final TransactionExporter.Format[] formats = TransactionExporter.Format.values();
+		final String[] items = new String[formats.length];
+		for (int i = 0; i < formats.length; i++)
+			items[i] = formats[i].name();
+
+		new AlertDialog.Builder(this).setInverseBackgroundForced(true).setTitle(R.string.wallet_export_transactions_title)
+				.setItems(items, new OnClickListener()
+				{
+					public void onClick(final DialogInterface dialog, final int which)
+					{
+						exportTransactions(formats[which]);
+					}
+				}).show();
+	}
+
+	private void exportTransactions(final TransactionExporter.Format format)
+	{
+		Constants.EXTERNAL_WALLET_BACKUP_DIR.mkdirs();
+		final Date date = new Date();
+		final File file = new File(Constants.EXTERNAL_WALLET_BACKUP_DIR, Constants.EXTERNAL_TRANSACTIONS_EXPORT + "-"
+				+ Iso8601Format.newDateFormat().format(date) + "-" + date.getTime() + "." + format.fileExtension);
+
+		final WalletApplication application = getWalletApplication();
+		final TransactionExporter exporter = new TransactionExporter(wallet, application.getTransactionIndex(),
+				application.getTransactionArchive(), application.getAddressLabelCache(), format);
+
+		final AtomicBoolean cancelled = new AtomicBoolean(false);
+
+		final ProgressDialog progressDialog = new ProgressDialog(this);
+		progressDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+		progressDialog.setMessage(getString(R.string.wallet_export_transactions_progress));
+		progressDialog.setCancelable(true);
+		progressDialog.setOnCancelListener(new OnCancelListener()
+		{
+			public void onCancel(final DialogInterface dialog)
+			{
+				cancelled.set(true);
+			}
+		});
+		progressDialog.show();
+
+		new Thread()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					final boolean completed;
+					final Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"),
+							Constants.TRANSACTION_EXPORT_BUFFER_SIZE);
+					try
+					{
+						completed = exporter.export(out, new TransactionExporter.ProgressListener()
+						{
+							public void onProgress(final int done, final int total)
+							{
+								runOnUiThread(new Runnable()
+								{
+									public void run()
+									{
+										progressDialog.setMax(total);
+										progressDialog.setProgress(done);
+									}
+								});
+							}
+
+							public boolean isCancelled()
+							{
+								return cancelled.get();
+							}
+						});
+					}
+					finally
+					{
+						out.close();
+					}
+
+					if (!completed)
+						file.delete();
+
+					runOnUiThread(new Runnable()
+					{
+						public void run()
+						{
+							progressDialog.dismiss();
+
+							if (completed)
+							{
+								final Intent intent = new Intent(Intent.ACTION_SEND);
+								intent.setType(format.mimeType);
+								intent.putExtra(Intent.EXTRA_SUBJECT, file.getName());
+								intent.putExtra(Intent.EXTRA_STREAM, Uri.fromFile(file));
+								startActivity(Intent.createChooser(intent, getString(R.string.wallet_export_transactions_title)));
+							}
+						}
+					});
+				}
+				catch (final IOException x)
+				{
+					file.delete();
+
+					runOnUiThread(new Runnable()
+					{
+						public void run()
+						{
+							progressDialog.dismiss();
+
+							new AlertDialog.Builder(WalletActivity.this).setInverseBackgroundForced(true)
+									.setIcon(android.R.drawable.ic_dialog_alert).setTitle(R.string.wallet_export_transactions_title)
+									.setMessage(getString(R.string.wallet_export_transactions_failure, x.getMessage()))
+									.setNeutralButton(R.string.button_dismiss, null).show();
+						}
+					});
+
+					x.printStackTrace();
+				}
+			}
+		}.start();
+	}
+
 	private void exportPrivateKeys(final String password, Bundle args)
 	{
 		try
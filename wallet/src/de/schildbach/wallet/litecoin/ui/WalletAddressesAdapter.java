@@ -17,7 +17,11 @@
 
 package de.schildbach.wallet.litecoin.ui;
 
+import java.math.BigInteger;
 import java.text.DateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 
@@ -33,8 +37,12 @@ import android.widget.TextView;
 import com.google.litecoin.core.Address;
 import com.google.litecoin.core.ECKey;
 
-import de.schildbach.wallet.litecoin.AddressBookProvider;
+import de.schildbach.wallet.litecoin.AddressActivityIndex;
+import de.schildbach.wallet.litecoin.AddressLabelCache;
 import de.schildbach.wallet.litecoin.Constants;
+import de.schildbach.wallet.litecoin.RelativeTimeCache;
+import de.schildbach.wallet.litecoin.WalletAddressIndex;
+import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -45,10 +53,16 @@ public class WalletAddressesAdapter extends BaseAdapter
 	private final int colorInsignificant;
 	private final int colorLessSignificant;
 	private final LayoutInflater inflater;
+	private final WalletAddressIndex addressIndex;
+	private final AddressLabelCache labelCache;
+	private final AddressActivityIndex activityIndex;
+	private final RelativeTimeCache relativeTimeCache;
 
 	private final List<ECKey> keys;
+	private List<ECKey> sortedKeys = null;
 	private final boolean showKeyCreationTime;
 	private String selectedAddress = null;
+	private int precision = Constants.LTC_PRECISION;
 
 	public WalletAddressesAdapter(final Context context, final List<ECKey> keys, final boolean showKeyCreationTime)
 	{
@@ -59,9 +73,19 @@ public class WalletAddressesAdapter extends BaseAdapter
 		colorInsignificant = res.getColor(R.color.fg_insignificant);
 		colorLessSignificant = res.getColor(R.color.fg_less_significant);
 		inflater = LayoutInflater.from(context);
+		final WalletApplication application = (WalletApplication) context.getApplicationContext();
+		addressIndex = application.getAddressIndex();
+		labelCache = application.getAddressLabelCache();
+		activityIndex = application.getAddressActivityIndex();
+		relativeTimeCache = application.getRelativeTimeCache();
 
 		this.keys = keys;
 		this.showKeyCreationTime = showKeyCreationTime;
+
+		final List<String> addresses = new ArrayList<String>(keys.size());
+		for (final ECKey key : keys)
+			addresses.add(addressIndex.addressOf(key).toString());
+		labelCache.prefetch(addresses);
 	}
 
 	public void setSelectedAddress(final String selectedAddress)
@@ -71,25 +95,75 @@ public class WalletAddressesAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	public void setPrecision(final int precision)
+	{
+		this.precision = precision;
+
+		notifyDataSetChanged();
+	}
+
+	/**
+	 * Lists the most recently active addresses first, using the totals of the {@link AddressActivityIndex}.
+	 */
+	public void setSortByActivity(final boolean sortByActivity)
+	{
+		sortedKeys = sortByActivity ? new ArrayList<ECKey>() : null;
+
+		notifyDataSetChanged();
+	}
+
+	@Override
+	public void notifyDataSetChanged()
+	{
+		if (sortedKeys != null)
+		{
+			sortedKeys = new ArrayList<ECKey>(keys);
+			Collections.sort(sortedKeys, activityComparator);
+		}
+
+		super.notifyDataSetChanged();
+	}
+
+	private final Comparator<ECKey> activityComparator = new Comparator<ECKey>()
+	{
+		public int compare(final ECKey key1, final ECKey key2)
+		{
+			final long lastSeen1 = activityIndex.getActivity(addressIndex.addressOf(key1)).lastSeen;
+			final long lastSeen2 = activityIndex.getActivity(addressIndex.addressOf(key2)).lastSeen;
+
+			if (lastSeen1 > lastSeen2)
+				return -1;
+			else if (lastSeen1 < lastSeen2)
+				return 1;
+			else
+				return 0;
+		}
+	};
+
+	private List<ECKey> keys()
+	{
+		return sortedKeys != null ? sortedKeys : keys;
+	}
+
 	public int getCount()
 	{
-		return keys.size();
+		return keys().size();
 	}
 
 	public Object getItem(final int position)
 	{
-		return keys.get(position);
+		return keys().get(position);
 	}
 
 	public long getItemId(final int position)
 	{
-		return keys.get(position).hashCode();
+		return keys().get(position).hashCode();
 	}
 
 	public View getView(final int position, View row, final ViewGroup parent)
 	{
 		final ECKey key = (ECKey) getItem(position);
-		final Address address = key.toAddress(Constants.NETWORK_PARAMETERS);
+		final Address address = addressIndex.addressOf(key);
 
 		if (row == null)
 			row = inflater.inflate(R.layout.address_book_row, null);
@@ -99,10 +173,10 @@ public class WalletAddressesAdapter extends BaseAdapter
 		row.setBackgroundResource(isDefaultAddress ? R.color.bg_less_bright : R.color.bg_bright);
 
 		final TextView addressView = (TextView) row.findViewById(R.id.address_book_row_address);
-		addressView.setText(WalletUtils.formatAddress(address, Constants.ADDRESS_FORMAT_GROUP_SIZE, Constants.ADDRESS_FORMAT_LINE_SIZE));
+		addressView.setText(WalletUtils.formatHashCached(address.toString(), Constants.ADDRESS_FORMAT_GROUP_SIZE, Constants.ADDRESS_FORMAT_LINE_SIZE));
 
 		final TextView labelView = (TextView) row.findViewById(R.id.address_book_row_label);
-		final String label = AddressBookProvider.resolveLabel(context, address.toString());
+		final String label = labelCache.lookup(address.toString());
 		if (label != null)
 		{
 			labelView.setText(label);
@@ -127,6 +201,16 @@ public class WalletAddressesAdapter extends BaseAdapter
 			{
 				createdView.setVisibility(View.GONE);
 			}
+
+			final TextView activityView = (TextView) row.findViewById(R.id.address_book_row_activity);
+			final AddressActivityIndex.Activity activity = activityIndex.getActivity(address);
+			if (activity.numTransactions > 0)
+				activityView.setText(context.getString(R.string.wallet_addresses_fragment_activity, activity.numTransactions,
+						relativeTimeCache.getTimeSpan(activity.lastSeen),
+						WalletUtils.formatValue(BigInteger.valueOf(activity.balance()), precision)));
+			else
+				activityView.setText(R.string.wallet_addresses_fragment_activity_none);
+			activityView.setVisibility(View.VISIBLE);
 		}
 
 		return row;
@@ -22,13 +22,10 @@ import java.util.Date;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.SharedPreferences;
-import android.database.ContentObserver;
 import android.os.Bundle;
-import android.os.Handler;
 import android.preference.PreferenceManager;
 import android.text.format.DateUtils;
 import android.view.View;
@@ -45,9 +42,11 @@ import com.google.litecoin.core.Address;
 import com.google.litecoin.core.ECKey;
 import com.google.litecoin.uri.LitecoinURI;
 
-import de.schildbach.wallet.litecoin.AddressBookProvider;
+import de.schildbach.wallet.litecoin.AddressActivityIndex;
+import de.schildbach.wallet.litecoin.AddressLabelCache;
 import de.schildbach.wallet.litecoin.Constants;
 import de.schildbach.wallet.litecoin.DetermineFirstSeenThread;
+import de.schildbach.wallet.litecoin.RelativeTimeCache;
 import de.schildbach.wallet.litecoin.WalletApplication;
 import de.schildbach.wallet.litecoin.util.BitmapFragment;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
@@ -60,7 +59,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 {
 	private AddressBookActivity activity;
 	private WalletApplication application;
-	private ContentResolver contentResolver;
 	private SharedPreferences prefs;
 
 	private WalletAddressesAdapter adapter;
@@ -72,7 +70,6 @@ public final class WalletAddressesFragment extends SherlockListFragment
 
 		this.activity = (AddressBookActivity) activity;
 		application = (WalletApplication) activity.getApplication();
-		contentResolver = activity.getContentResolver();
 		prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 	}
 
@@ -97,7 +94,11 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	{
 		super.onResume();
 
-		contentResolver.registerContentObserver(AddressBookProvider.contentUri(activity.getPackageName()), true, contentObserver);
+		application.getAddressLabelCache().addListener(labelListener);
+		application.getAddressActivityIndex().addListener(activityListener);
+		application.getRelativeTimeCache().addListener(relativeTimeListener);
+
+		adapter.setPrecision(Integer.parseInt(prefs.getString(Constants.PREFS_KEY_LTC_PRECISION, Integer.toString(Constants.LTC_PRECISION))));
 
 		updateView();
 	}
@@ -105,7 +106,9 @@ public final class WalletAddressesFragment extends SherlockListFragment
 	@Override
 	public void onPause()
 	{
-		contentResolver.unregisterContentObserver(contentObserver);
+		application.getRelativeTimeCache().removeListener(relativeTimeListener);
+		application.getAddressActivityIndex().removeListener(activityListener);
+		application.getAddressLabelCache().removeListener(labelListener);
 
 		super.onPause();
 	}
@@ -126,6 +129,11 @@ public final class WalletAddressesFragment extends SherlockListFragment
 			case R.id.wallet_addresses_options_add:
 				handleAddAddress();
 				return true;
+
+			case R.id.wallet_addresses_options_sort_by_activity:
+				item.setChecked(!item.isChecked());
+				adapter.setSortByActivity(item.isChecked());
+				return true;
 		}
 
 		return super.onOptionsItemSelected(item);
@@ -169,8 +177,8 @@ public final class WalletAddressesFragment extends SherlockListFragment
 				item.setEnabled(enabled);
 				item.setVisible(enabled);
 
-				final String address = key.toAddress(Constants.NETWORK_PARAMETERS).toString();
-				final String label = AddressBookProvider.resolveLabel(activity, address);
+				final String address = application.getAddressIndex().addressOf(key).toString();
+				final String label = application.getAddressLabelCache().lookup(address);
 				mode.setTitle(label != null ? label : WalletUtils.formatHash(address, Constants.ADDRESS_FORMAT_GROUP_SIZE, 0));
 
 				return true;
@@ -226,7 +234,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 
 			private Address getAddress(final int position)
 			{
-				return getKey(position).toAddress(Constants.NETWORK_PARAMETERS);
+				return application.getAddressIndex().addressOf(getKey(position));
 			}
 
 			private void handleEdit(final Address address)
@@ -266,7 +274,7 @@ public final class WalletAddressesFragment extends SherlockListFragment
 
 	private void handleDetermineCreationTime(final ECKey key)
 	{
-		new DetermineFirstSeenThread(key.toAddress(Constants.NETWORK_PARAMETERS).toString())
+		new DetermineFirstSeenThread(key.toAddress(Constants.NETWORK_PARAMETERS).toString(), application.getHttpFetcher())
 		{
 			@Override
 			protected void succeed(final Date firstSeen)
@@ -285,12 +293,25 @@ public final class WalletAddressesFragment extends SherlockListFragment
 			((BaseAdapter) adapter).notifyDataSetChanged();
 	}
 
-	private final Handler handler = new Handler();
+	private final AddressLabelCache.Listener labelListener = new AddressLabelCache.Listener()
+	{
+		public void onLabelsChanged()
+		{
+			updateView();
+		}
+	};
+
+	private final AddressActivityIndex.Listener activityListener = new AddressActivityIndex.Listener()
+	{
+		public void onActivityChanged()
+		{
+			updateView();
+		}
+	};
 
-	private final ContentObserver contentObserver = new ContentObserver(handler)
+	private final RelativeTimeCache.Listener relativeTimeListener = new RelativeTimeCache.Listener()
 	{
-		@Override
-		public void onChange(final boolean selfChange)
+		public void onLabelsExpired()
 		{
 			updateView();
 		}
@@ -30,22 +30,19 @@ import android.preference.PreferenceManager;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.LoaderManager;
 import android.support.v4.app.LoaderManager.LoaderCallbacks;
-import android.support.v4.content.AsyncTaskLoader;
 import android.support.v4.content.CursorLoader;
 import android.support.v4.content.Loader;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
 import android.view.ViewGroup;
-
-import com.google.litecoin.core.Wallet;
-import com.google.litecoin.core.Wallet.BalanceType;
+import android.widget.TextView;
 
 import de.schildbach.wallet.litecoin.Constants;
 import de.schildbach.wallet.litecoin.ExchangeRatesProvider;
 import de.schildbach.wallet.litecoin.ExchangeRatesProvider.ExchangeRate;
 import de.schildbach.wallet.litecoin.WalletApplication;
-import de.schildbach.wallet.litecoin.util.ThrottelingWalletChangeListener;
+import de.schildbach.wallet.litecoin.WalletBalanceTracker;
 import de.schildbach.wallet.litecoin.util.WalletUtils;
 import de.schildbach.wallet.litecoin.R;
 
@@ -56,17 +53,18 @@ public final class WalletBalanceFragment extends Fragment
 {
 	private WalletApplication application;
 	private AbstractWalletActivity activity;
-	private Wallet wallet;
 	private SharedPreferences prefs;
 	private LoaderManager loaderManager;
 
 	private CurrencyTextView viewBalance;
 	private CurrencyTextView viewBalanceLocal;
+	private TextView viewBalanceTrend;
 
 	private boolean showLocalBalance;
 
 	private BigInteger balance = null;
 	private ExchangeRate exchangeRate = null;
+	private BigInteger rateDayAgo = null;
 
 	private static final int ID_BALANCE_LOADER = 0;
 	private static final int ID_RATE_LOADER = 1;
@@ -78,7 +76,6 @@ public final class WalletBalanceFragment extends Fragment
 
 		this.activity = (AbstractWalletActivity) activity;
 		this.application = (WalletApplication) activity.getApplication();
-		this.wallet = application.getWallet();
 		this.prefs = PreferenceManager.getDefaultSharedPreferences(activity);
 		this.loaderManager = getLoaderManager();
 
@@ -122,6 +119,8 @@ public final class WalletBalanceFragment extends Fragment
 		viewBalanceLocal.setPrecision(Constants.LOCAL_PRECISION);
 		viewBalanceLocal.setInsignificantRelativeSize(1);
 		viewBalanceLocal.setStrikeThru(Constants.TEST);
+
+		viewBalanceTrend = (TextView) view.findViewById(R.id.wallet_balance_trend);
 	}
 
 	@Override
@@ -164,10 +163,22 @@ public final class WalletBalanceFragment extends Fragment
 					viewBalanceLocal.setPrefix(Constants.PREFIX_ALMOST_EQUAL_TO + exchangeRate.currencyCode);
 					viewBalanceLocal.setAmount(localValue);
 					viewBalanceLocal.setTextColor(getResources().getColor(R.color.fg_less_significant));
+
+					if (rateDayAgo != null)
+					{
+						viewBalanceTrend.setText(getString(R.string.wallet_balance_fragment_trend,
+								WalletUtils.percentChange(exchangeRate.rate, rateDayAgo)));
+						viewBalanceTrend.setVisibility(View.VISIBLE);
+					}
+					else
+					{
+						viewBalanceTrend.setVisibility(View.GONE);
+					}
 				}
 				else
 				{
 					viewBalanceLocal.setVisibility(View.INVISIBLE);
+					viewBalanceTrend.setVisibility(View.GONE);
 				}
 			}
 		}
@@ -177,15 +188,15 @@ public final class WalletBalanceFragment extends Fragment
 		}
 	}
 
-	private static class BalanceLoader extends AsyncTaskLoader<BigInteger>
+	private static class BalanceLoader extends Loader<BigInteger>
 	{
-		private final Wallet wallet;
+		private final WalletBalanceTracker balanceTracker;
 
-		private BalanceLoader(final Context context, final Wallet wallet)
+		private BalanceLoader(final Context context, final WalletBalanceTracker balanceTracker)
 		{
 			super(context);
 
-			this.wallet = wallet;
+			this.balanceTracker = balanceTracker;
 		}
 
 		@Override
@@ -193,43 +204,39 @@ public final class WalletBalanceFragment extends Fragment
 		{
 			super.onStartLoading();
 
-			wallet.addEventListener(walletChangeListener);
+			balanceTracker.addListener(balanceListener);
 
-			forceLoad();
+			deliverResult(balanceTracker.getBalance().estimated);
 		}
 
 		@Override
 		protected void onStopLoading()
 		{
-			wallet.removeEventListener(walletChangeListener);
-			walletChangeListener.removeCallbacks();
+			balanceTracker.removeListener(balanceListener);
 
 			super.onStopLoading();
 		}
 
 		@Override
-		public BigInteger loadInBackground()
+		protected void onForceLoad()
 		{
-			return wallet.getBalance(BalanceType.ESTIMATED);
+			deliverResult(balanceTracker.getBalance().estimated);
 		}
 
-		private final ThrottelingWalletChangeListener walletChangeListener = new ThrottelingWalletChangeListener()
+		private final WalletBalanceTracker.Listener balanceListener = new WalletBalanceTracker.Listener()
 		{
-			@Override
-			public void onThrotteledWalletChanged()
+			public void onBalanceChanged(final WalletBalanceTracker.Balance balance)
 			{
-
-                forceLoad();
+				deliverResult(balance.estimated);
 			}
 		};
-
 	}
 
 	private final LoaderCallbacks<BigInteger> balanceLoaderCallbacks = new LoaderManager.LoaderCallbacks<BigInteger>()
 	{
 		public Loader<BigInteger> onCreateLoader(final int id, final Bundle args)
 		{
-			return new BalanceLoader(activity, wallet);
+			return new BalanceLoader(activity, application.getBalanceTracker());
 		}
 
 		public void onLoadFinished(final Loader<BigInteger> loader, final BigInteger balance)
@@ -246,16 +253,60 @@ public final class WalletBalanceFragment extends Fragment
 	private static class RateLoader extends CursorLoader implements OnSharedPreferenceChangeListener
 	{
 		private final SharedPreferences prefs;
+		private final String packageName;
+		private volatile Cursor deliveredCursor = null;
+		private volatile Cursor lastCursor = null;
 
 		public RateLoader(final Context context)
 		{
 			super(context, ExchangeRatesProvider.contentUri(context.getPackageName()), null, ExchangeRatesProvider.KEY_CURRENCY_CODE, null, null);
 
 			prefs = PreferenceManager.getDefaultSharedPreferences(context);
+			packageName = context.getPackageName();
 
 			onCurrencyChange();
 		}
 
+		/**
+		 * Asks with the version of the rate already shown, and keeps showing it if it's still current. Delivering the same cursor
+		 * again doesn't reach onLoadFinished().
+		 */
+		@Override
+		public Cursor loadInBackground()
+		{
+			final Cursor lastCursor = this.lastCursor;
+			final boolean hasLast = lastCursor != null && !lastCursor.isClosed();
+
+			setUri(hasLast ? ExchangeRatesProvider.contentUri(packageName, ExchangeRatesProvider.getVersion(lastCursor)) : ExchangeRatesProvider
+					.contentUri(packageName));
+
+			final Cursor cursor = super.loadInBackground();
+			if (cursor != null && hasLast && ExchangeRatesProvider.isNotModified(cursor) && !lastCursor.isClosed())
+			{
+				cursor.close();
+				return lastCursor;
+			}
+
+			return cursor;
+		}
+
+		@Override
+		public void deliverResult(final Cursor cursor)
+		{
+			deliveredCursor = cursor;
+			lastCursor = cursor;
+
+			super.deliverResult(cursor);
+		}
+
+		@Override
+		public void onCanceled(final Cursor cursor)
+		{
+			// still shown
+			if (cursor != deliveredCursor)
+				super.onCanceled(cursor);
+		}
+
 		@Override
 		protected void onStartLoading()
 		{
@@ -289,6 +340,7 @@ public final class WalletBalanceFragment extends Fragment
 			final String exchangeCurrency = prefs.getString(Constants.PREFS_KEY_EXCHANGE_CURRENCY, Constants.DEFAULT_EXCHANGE_CURRENCY);
 
 			setSelectionArgs(new String[] { exchangeCurrency });
+			lastCursor = null;
 		}
 	}
 
@@ -301,10 +353,11 @@ public final class WalletBalanceFragment extends Fragment
 
 		public void onLoadFinished(final Loader<Cursor> loader, final Cursor data)
 		{
-			if (data != null)
+			if (data != null && data.getCount() > 0)
 			{
 				data.moveToFirst();
 				exchangeRate = ExchangeRatesProvider.getExchangeRate(data);
+				rateDayAgo = ExchangeRatesProvider.getRateDayAgo(data);
 				updateView();
 			}
 		}
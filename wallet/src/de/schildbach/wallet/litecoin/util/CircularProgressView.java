@@ -26,6 +26,7 @@ import android.graphics.Path.Direction;
 import android.graphics.RectF;
 import android.util.AttributeSet;
 import android.view.View;
+import android.view.animation.AnimationUtils;
 
 /**
  * @author Andreas Schildbach
@@ -38,6 +39,9 @@ public class CircularProgressView extends View
 	private int maxProgress = 1;
 	private int size = 1;
 	private int maxSize = 1;
+	private float drawnProgress = 1;
+	private float animationFromProgress;
+	private long animationStart = 0;
 	private final Path path = new Path();
 	private final Paint fillPaint = new Paint();
 	private final Paint strokePaint = new Paint();
@@ -58,11 +62,30 @@ public class CircularProgressView extends View
 		strokePaint.setAntiAlias(true);
 	}
 
+	private static final long ANIMATION_DURATION_MS = 300;
+
 	@Override
 	protected void onDraw(final Canvas canvas)
 	{
 		super.onDraw(canvas);
 
+		if (animationStart != 0)
+		{
+			final float fraction = (float) (AnimationUtils.currentAnimationTimeMillis() - animationStart) / ANIMATION_DURATION_MS;
+			if (fraction < 1)
+			{
+				drawnProgress = animationFromProgress + (progress - animationFromProgress) * fraction;
+				invalidate();
+			}
+			else
+			{
+				drawnProgress = progress;
+				animationStart = 0;
+			}
+
+			updatePath(getWidth(), getHeight());
+		}
+
 		canvas.drawPath(path, fillPaint);
 		canvas.drawPath(path, strokePaint);
 	}
@@ -74,9 +97,47 @@ public class CircularProgressView extends View
 		postInvalidate();
 	}
 
+	/**
+	 * Sets all properties at once, redrawing only if any of them changed. Growing progress is animated from where it is drawn now,
+	 * so rows can be rebound in place as confirmations come in.
+	 *
+	 * @param animate
+	 *            false if the view is bound to a different item, for example because it was recycled
+	 */
+	public void setState(final int progress, final int maxProgress, final int size, final int maxSize, final int fillColor,
+			final int strokeColor, final boolean animate)
+	{
+		if (progress == this.progress && maxProgress == this.maxProgress && size == this.size && maxSize == this.maxSize
+				&& fillColor == fillPaint.getColor() && strokeColor == strokePaint.getColor() && (animate || animationStart == 0))
+			return;
+
+		if (animate && progress > this.progress && maxProgress == this.maxProgress && size == this.size && maxSize == this.maxSize
+				&& getWidth() > 0)
+		{
+			animationFromProgress = drawnProgress;
+			animationStart = AnimationUtils.currentAnimationTimeMillis();
+		}
+		else
+		{
+			drawnProgress = progress;
+			animationStart = 0;
+		}
+
+		this.progress = progress;
+		this.maxProgress = maxProgress;
+		this.size = size;
+		this.maxSize = maxSize;
+		fillPaint.setColor(fillColor);
+		strokePaint.setColor(strokeColor);
+
+		updatePath(getWidth(), getHeight());
+		invalidate();
+	}
+
 	public void setProgress(final int progress)
 	{
 		this.progress = progress;
+		this.drawnProgress = progress;
 
 		updatePath(getWidth(), getHeight());
 		postInvalidate();
@@ -121,13 +182,13 @@ public class CircularProgressView extends View
 
 		path.reset();
 
-		if (progress == 0)
+		if (drawnProgress == 0)
 		{
 			path.close();
 		}
-		else if (progress < maxProgress)
+		else if (drawnProgress < maxProgress)
 		{
-			final float angle = progress * 360 / maxProgress;
+			final float angle = drawnProgress * 360 / maxProgress;
 			final float x = w / 2f;
 			final float y = h / 2f;
 
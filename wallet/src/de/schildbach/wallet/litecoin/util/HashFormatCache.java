@@ -0,0 +1,104 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import android.text.SpannedString;
+
+/**
+ * Least recently used renderings of {@link WalletUtils#formatHash(String, String, int, int, char)}, as immutable spanned strings
+ * that can be set on any number of text views. List rows showing the same hashes and addresses over and over again look them up
+ * without allocating.
+ */
+public final class HashFormatCache
+{
+	private static final class Key
+	{
+		private String hash;
+		private int groupSize;
+		private int lineSize;
+		private char groupSeparator;
+
+		private Key set(final String hash, final int groupSize, final int lineSize, final char groupSeparator)
+		{
+			this.hash = hash;
+			this.groupSize = groupSize;
+			this.lineSize = lineSize;
+			this.groupSeparator = groupSeparator;
+
+			return this;
+		}
+
+		@Override
+		public boolean equals(final Object o)
+		{
+			if (!(o instanceof Key))
+				return false;
+
+			final Key other = (Key) o;
+			return hash.equals(other.hash) && groupSize == other.groupSize && lineSize == other.lineSize
+					&& groupSeparator == other.groupSeparator;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return ((hash.hashCode() * 31 + groupSize) * 31 + lineSize) * 31 + groupSeparator;
+		}
+	}
+
+	private static final int MAX_ENTRIES = 256;
+
+	private static final Map<Key, SpannedString> cache = new LinkedHashMap<Key, SpannedString>(MAX_ENTRIES, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<Key, SpannedString> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+
+	// reused for lookups, only accessed while holding the lock on the cache
+	private static final Key probe = new Key();
+
+	private HashFormatCache()
+	{
+	}
+
+	public static CharSequence get(final String hash, final int groupSize, final int lineSize, final char groupSeparator)
+	{
+		synchronized (cache)
+		{
+			final SpannedString cached = cache.get(probe.set(hash, groupSize, lineSize, groupSeparator));
+			probe.hash = null;
+			if (cached != null)
+				return cached;
+		}
+
+		final SpannedString formatted = new SpannedString(WalletUtils.formatHash(null, hash, groupSize, lineSize, groupSeparator));
+
+		synchronized (cache)
+		{
+			cache.put(new Key().set(hash, groupSize, lineSize, groupSeparator), formatted);
+		}
+
+		return formatted;
+	}
+}
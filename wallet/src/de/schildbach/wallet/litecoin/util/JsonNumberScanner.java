@@ -0,0 +1,327 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin.util;
+
+import java.text.ParseException;
+
+/**
+ * Pulls the numbers stored under one field name out of a JSON document in a single pass, without building a tree of objects. Numbers are
+ * converted straight to fixed point longs with 8 decimals, like nanocoins. Keys are compared in place, so the only allocations are the
+ * names of the objects containing a match.
+ */
+public final class JsonNumberScanner
+{
+	public interface Callback
+	{
+		/**
+		 * @param parent
+		 *            key of the object containing the field, or null for the top level object or an object inside an array
+		 * @param value
+		 *            fixed point with 8 decimals
+		 */
+		void onNumber(String parent, long value);
+	}
+
+	private static final int SCALE = 8;
+	private static final int MAX_DEPTH = 32;
+	private static final long[] POWERS_OF_TEN = new long[19];
+	static
+	{
+		POWERS_OF_TEN[0] = 1;
+		for (int i = 1; i < POWERS_OF_TEN.length; i++)
+			POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	private JsonNumberScanner()
+	{
+	}
+
+	/**
+	 * Calls back for each number (or string holding a number) stored under the given field name, in document order.
+	 */
+	public static void scan(final CharSequence json, final String field, final Callback callback) throws ParseException
+	{
+		final int length = json.length();
+
+		// key of each enclosing object, as start and end index, -1 for none
+		final int[] parentStart = new int[MAX_DEPTH];
+		final int[] parentEnd = new int[MAX_DEPTH];
+		int depth = 0;
+
+		int keyStart = -1;
+		int keyEnd = -1;
+
+		int pos = 0;
+		while (pos < length)
+		{
+			final char c = json.charAt(pos);
+
+			if (c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == ':')
+			{
+				pos++;
+			}
+			else if (c == ',')
+			{
+				keyStart = keyEnd = -1;
+				pos++;
+			}
+			else if (c == '{' || c == '[')
+			{
+				if (depth == MAX_DEPTH)
+					throw new ParseException("nested too deep", pos);
+
+				parentStart[depth] = c == '{' ? keyStart : -1;
+				parentEnd[depth] = c == '{' ? keyEnd : -1;
+				depth++;
+				keyStart = keyEnd = -1;
+				pos++;
+			}
+			else if (c == '}' || c == ']')
+			{
+				if (depth == 0)
+					throw new ParseException("unbalanced " + c, pos);
+
+				depth--;
+				keyStart = keyEnd = -1;
+				pos++;
+			}
+			else if (c == '"')
+			{
+				final int start = pos + 1;
+				final int end = skipString(json, start);
+				pos = end + 1;
+
+				if (keyStart == -1 && isFollowedByColon(json, pos))
+				{
+					keyStart = start;
+					keyEnd = end;
+				}
+				else
+				{
+					if (depth > 0 && matches(json, keyStart, keyEnd, field))
+					{
+						final long value = parseFixed(json, start, end);
+						if (value != Long.MIN_VALUE)
+							callback.onNumber(parent(json, parentStart[depth - 1], parentEnd[depth - 1]), value);
+					}
+					keyStart = keyEnd = -1;
+				}
+			}
+			else if (c == '-' || (c >= '0' && c <= '9'))
+			{
+				final int start = pos;
+				while (pos < length && isNumberChar(json.charAt(pos)))
+					pos++;
+
+				if (depth > 0 && matches(json, keyStart, keyEnd, field))
+				{
+					final long value = parseFixed(json, start, pos);
+					if (value == Long.MIN_VALUE)
+						throw new ParseException("bad number", start);
+					callback.onNumber(parent(json, parentStart[depth - 1], parentEnd[depth - 1]), value);
+				}
+				keyStart = keyEnd = -1;
+			}
+			else if (c == 't' || c == 'f' || c == 'n')
+			{
+				while (pos < length && Character.isLetter(json.charAt(pos)))
+					pos++;
+				keyStart = keyEnd = -1;
+			}
+			else
+			{
+				throw new ParseException("unexpected " + c, pos);
+			}
+		}
+
+		if (depth != 0)
+			throw new ParseException("unexpected end", pos);
+	}
+
+	/**
+	 * @return index of the closing quote
+	 */
+	private static int skipString(final CharSequence json, int pos) throws ParseException
+	{
+		final int length = json.length();
+
+		while (pos < length)
+		{
+			final char c = json.charAt(pos);
+			if (c == '"')
+				return pos;
+			pos += c == '\\' ? 2 : 1;
+		}
+
+		throw new ParseException("unterminated string", pos);
+	}
+
+	private static boolean isFollowedByColon(final CharSequence json, int pos)
+	{
+		final int length = json.length();
+
+		while (pos < length)
+		{
+			final char c = json.charAt(pos);
+			if (c == ':')
+				return true;
+			if (c != ' ' && c != '\t' && c != '\n' && c != '\r')
+				return false;
+			pos++;
+		}
+
+		return false;
+	}
+
+	private static boolean isNumberChar(final char c)
+	{
+		return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.' || c == 'e' || c == 'E';
+	}
+
+	private static boolean matches(final CharSequence json, final int start, final int end, final String field)
+	{
+		if (start == -1 || end - start != field.length())
+			return false;
+
+		for (int i = 0; i < end - start; i++)
+			if (json.charAt(start + i) != field.charAt(i))
+				return false;
+
+		return true;
+	}
+
+	private static String parent(final CharSequence json, final int start, final int end)
+	{
+		return start != -1 ? json.subSequence(start, end).toString() : null;
+	}
+
+	/**
+	 * Converts a JSON number to fixed point, rounding half up beyond 8 decimals.
+	 *
+	 * @return fixed point value, or Long.MIN_VALUE if not a number or out of range
+	 */
+	private static long parseFixed(final CharSequence str, final int start, final int end)
+	{
+		int pos = start;
+		boolean negative = false;
+		if (pos < end && str.charAt(pos) == '-')
+		{
+			negative = true;
+			pos++;
+		}
+
+		long mantissa = 0;
+		int exponent = 0;
+		int digits = 0;
+		boolean roundUp = false;
+		boolean seenPoint = false;
+		boolean seenDigit = false;
+
+		for (; pos < end; pos++)
+		{
+			final char c = str.charAt(pos);
+			if (c >= '0' && c <= '9')
+			{
+				seenDigit = true;
+				if (digits < 18)
+				{
+					if (mantissa != 0 || c != '0')
+						digits++;
+					mantissa = mantissa * 10 + (c - '0');
+					if (seenPoint)
+						exponent--;
+				}
+				else
+				{
+					// beyond the precision of a long, only the first dropped digit counts for rounding
+					if (digits == 18)
+					{
+						roundUp = c >= '5';
+						digits++;
+					}
+					if (!seenPoint)
+						exponent++;
+				}
+			}
+			else if (c == '.' && !seenPoint)
+			{
+				seenPoint = true;
+			}
+			else
+			{
+				break;
+			}
+		}
+
+		if (!seenDigit)
+			return Long.MIN_VALUE;
+
+		if (pos < end)
+		{
+			final char c = str.charAt(pos);
+			if (c != 'e' && c != 'E')
+				return Long.MIN_VALUE;
+			pos++;
+
+			boolean negativeExponent = false;
+			if (pos < end && (str.charAt(pos) == '-' || str.charAt(pos) == '+'))
+				negativeExponent = str.charAt(pos++) == '-';
+
+			if (pos == end)
+				return Long.MIN_VALUE;
+
+			int e = 0;
+			for (; pos < end; pos++)
+			{
+				final char d = str.charAt(pos);
+				if (d < '0' || d > '9')
+					return Long.MIN_VALUE;
+				if (e < 1000)
+					e = e * 10 + (d - '0');
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+
+		if (roundUp)
+			mantissa++;
+
+		final int shift = exponent + SCALE;
+		long value;
+		if (mantissa == 0)
+		{
+			value = 0;
+		}
+		else if (shift >= 0)
+		{
+			if (shift >= POWERS_OF_TEN.length || mantissa > Long.MAX_VALUE / POWERS_OF_TEN[shift])
+				return Long.MIN_VALUE;
+			value = mantissa * POWERS_OF_TEN[shift];
+		}
+		else if (-shift >= POWERS_OF_TEN.length)
+		{
+			value = 0;
+		}
+		else
+		{
+			final long divisor = POWERS_OF_TEN[-shift];
+			value = mantissa / divisor + (mantissa % divisor >= (divisor + 1) / 2 ? 1 : 0);
+		}
+
+		return negative ? -value : value;
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2013 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package de.schildbach.wallet.litecoin.util;
+
+/**
+ * Formats and parses amounts in nanocoins held in a plain long, without BigInteger arithmetic or String.format. Formatting appends to
+ * a caller supplied StringBuilder and parsing works on any CharSequence, so neither allocates.
+ */
+public final class NanoCoinFormat
+{
+	public static final long COIN = 100000000l;
+
+	/** returned by {@link #parse(CharSequence)} for text that is not an amount */
+	public static final long INVALID = Long.MIN_VALUE;
+
+	private static final long MAX_COINS = Long.MAX_VALUE / COIN;
+
+	private static final ThreadLocal<StringBuilder> BUILDER = new ThreadLocal<StringBuilder>()
+	{
+		@Override
+		protected StringBuilder initialValue()
+		{
+			return new StringBuilder(32);
+		}
+	};
+
+	private NanoCoinFormat()
+	{
+	}
+
+	public static String format(final long value, final String plusSign, final String minusSign, final int precision)
+	{
+		final StringBuilder builder = BUILDER.get();
+		builder.setLength(0);
+		format(builder, value, plusSign, minusSign, precision);
+		return builder.toString();
+	}
+
+	/**
+	 * Appends the amount with 2, 4, 6 or 8 decimals: as few as represent it exactly, but no more than precision allows. Dropped
+	 * digits are rounded half up.
+	 */
+	public static void format(final StringBuilder builder, final long value, final String plusSign, final String minusSign,
+			final int precision)
+	{
+		builder.append(value < 0 ? minusSign : plusSign);
+
+		// divide before taking the absolute value, so that Long.MIN_VALUE doesn't overflow
+		final long coins = Math.abs(value / COIN);
+		final int cents = (int) Math.abs(value % COIN);
+
+		final int fraction;
+		final int fractionDigits;
+		if (cents % 1000000 == 0 || precision <= 2)
+		{
+			fraction = cents / 1000000 + cents % 1000000 / 500000;
+			fractionDigits = 2;
+		}
+		else if (cents % 10000 == 0 || precision <= 4)
+		{
+			fraction = cents / 10000 + cents % 10000 / 5000;
+			fractionDigits = 4;
+		}
+		else if (precision <= 6)
+		{
+			fraction = cents / 100 + cents % 100 / 50;
+			fractionDigits = 6;
+		}
+		else
+		{
+			fraction = cents;
+			fractionDigits = 8;
+		}
+
+		appendDigits(builder, coins, 1);
+		builder.append('.');
+		// rounding up may carry into an extra digit, which is kept rather than added to the coins (e.g. 0.996 at 2 decimals is "0.100")
+		appendDigits(builder, fraction, fractionDigits);
+	}
+
+	private static void appendDigits(final StringBuilder builder, final long value, final int minDigits)
+	{
+		int digits = 1;
+		long divisor = 1;
+		while (value / divisor >= 10)
+		{
+			digits++;
+			divisor *= 10;
+		}
+
+		for (int i = digits; i < minDigits; i++)
+			builder.append('0');
+
+		for (; divisor > 0; divisor /= 10)
+			builder.append((char) ('0' + value / divisor % 10));
+	}
+
+	/**
+	 * Parses a decimal amount of coins like {@link com.google.litecoin.core.Utils#toNanoCoins(String)} does, ignoring surrounding
+	 * whitespace. Amounts with more than 8 significant decimals or too large for a long are not valid.
+	 *
+	 * @return amount in nanocoins, or {@link #INVALID}
+	 */
+	public static long parse(final CharSequence str)
+	{
+		int start = 0;
+		int end = str.length();
+		while (start < end && str.charAt(start) <= ' ')
+			start++;
+		while (end > start && str.charAt(end - 1) <= ' ')
+			end--;
+
+		if (start == end)
+			return INVALID;
+
+		boolean negative = false;
+		final char first = str.charAt(start);
+		if (first == '-' || first == '+')
+		{
+			negative = first == '-';
+			start++;
+		}
+
+		int i = start;
+		boolean hasDigits = false;
+
+		long coins = 0;
+		for (; i < end; i++)
+		{
+			final char c = str.charAt(i);
+			if (c < '0' || c > '9')
+				break;
+
+			coins = coins * 10 + (c - '0');
+			if (coins > MAX_COINS)
+				return INVALID;
+			hasDigits = true;
+		}
+
+		long fraction = 0;
+		int fractionDigits = 0;
+		if (i < end && str.charAt(i) == '.')
+		{
+			for (i++; i < end; i++)
+			{
+				final char c = str.charAt(i);
+				if (c < '0' || c > '9')
+					break;
+
+				hasDigits = true;
+				if (fractionDigits < 8)
+				{
+					fraction = fraction * 10 + (c - '0');
+					fractionDigits++;
+				}
+				else if (c != '0')
+				{
+					// fraction of a nanocoin
+					return INVALID;
+				}
+			}
+		}
+
+		if (i != end || !hasDigits)
+			return INVALID;
+
+		for (; fractionDigits < 8; fractionDigits++)
+			fraction *= 10;
+
+		if (coins == MAX_COINS && fraction > Long.MAX_VALUE % COIN)
+			return INVALID;
+
+		final long value = coins * COIN + fraction;
+		return negative ? -value : value;
+	}
+}
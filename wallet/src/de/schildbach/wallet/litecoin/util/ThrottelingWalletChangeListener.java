@@ -17,32 +17,19 @@
 
 package de.schildbach.wallet.litecoin.util;
 
-import java.math.BigInteger;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.concurrent.atomic.AtomicLong;
-
 import android.os.Handler;
 
-import android.util.Log;
-import com.google.litecoin.core.ECKey;
-import com.google.litecoin.core.Transaction;
-import com.google.litecoin.core.Wallet;
-import com.google.litecoin.core.WalletEventListener;
+import de.schildbach.wallet.litecoin.WalletChangeDispatcher;
 
 /**
  * @author Andreas Schildbach
  */
-public abstract class ThrottelingWalletChangeListener implements WalletEventListener
+public abstract class ThrottelingWalletChangeListener implements WalletChangeDispatcher.Listener
 {
 	private final long throttleMs;
-	private final boolean coinsRelevant;
-	private final boolean reorganizeRelevant;
-	private final boolean confidenceRelevant;
+	private final int kinds;
 
-	private final AtomicLong lastMessageTime = new AtomicLong(0);
 	private final Handler handler = new Handler();
-	private final AtomicBoolean relevant = new AtomicBoolean();
 
 	private static final long DEFAULT_THROTTLE_MS = 500;
 
@@ -65,39 +52,29 @@ public abstract class ThrottelingWalletChangeListener implements WalletEventList
 			final boolean confidenceRelevant)
 	{
 		this.throttleMs = throttleMs;
-		this.coinsRelevant = coinsRelevant;
-		this.reorganizeRelevant = reorganizeRelevant;
-		this.confidenceRelevant = confidenceRelevant;
+		this.kinds = (coinsRelevant ? WalletChangeDispatcher.KIND_COINS : 0) | (reorganizeRelevant ? WalletChangeDispatcher.KIND_REORGANIZE
+				| WalletChangeDispatcher.KIND_CLEARED : 0)
+				| (confidenceRelevant ? WalletChangeDispatcher.KIND_CONFIDENCE : 0);
 	}
 
-	public final void onWalletChanged(final Wallet wallet)
+	/**
+	 * Starts receiving throttled changes on the thread this listener was created on.
+	 */
+	public void subscribe(final WalletChangeDispatcher dispatcher)
 	{
-		if (relevant.getAndSet(false))
-		{
-			handler.removeCallbacksAndMessages(null);
-
-			final long now = System.currentTimeMillis();
+		dispatcher.addListener(this, kinds, throttleMs, handler);
+	}
 
-			if (now - lastMessageTime.get() > throttleMs)
-				handler.post(runnable);
-			else
-				handler.postDelayed(runnable, throttleMs);
-		}
+	public void unsubscribe(final WalletChangeDispatcher dispatcher)
+	{
+		dispatcher.removeListener(this);
+		removeCallbacks();
 	}
 
-	private final Runnable runnable = new Runnable()
+	public final void onWalletChanged(final WalletChangeDispatcher.ChangeSet changes)
 	{
-		public void run()
-		{
-			lastMessageTime.set(System.currentTimeMillis());
-            try {
-			    onThrotteledWalletChanged();
-		    } catch(RejectedExecutionException e)
-            {
-                Log.d("Litecoin", "RejectExecutionException calling onThrotteledWalletChanged");
-            }
-        }
-	};
+		onThrotteledWalletChanged();
+	}
 
 	public void removeCallbacks()
 	{
@@ -106,33 +83,4 @@ public abstract class ThrottelingWalletChangeListener implements WalletEventList
 
 	/** will be called back on UI thread */
 	public abstract void onThrotteledWalletChanged();
-
-	public void onCoinsReceived(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
-	{
-		if (coinsRelevant)
-			relevant.set(true);
-	}
-
-	public void onCoinsSent(final Wallet wallet, final Transaction tx, final BigInteger prevBalance, final BigInteger newBalance)
-	{
-		if (coinsRelevant)
-			relevant.set(true);
-	}
-
-	public void onReorganize(final Wallet wallet)
-	{
-		if (reorganizeRelevant)
-			relevant.set(true);
-	}
-
-	public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
-	{
-		if (confidenceRelevant)
-			relevant.set(true);
-	}
-
-	public void onKeyAdded(final ECKey key)
-	{
-		// swallow
-	}
 }
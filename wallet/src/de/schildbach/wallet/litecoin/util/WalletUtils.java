@@ -31,7 +31,6 @@ import java.util.Date;
 import java.util.Hashtable;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -137,13 +136,13 @@ public class WalletUtils
 		final SpannableStringBuilder builder = prefix != null ? new SpannableStringBuilder(prefix) : new SpannableStringBuilder();
 
 		final int len = address.length();
-		for (int i = 0; i < len; i += groupSize)
+		for (int i = 0, group = 0; i < len; i += groupSize, group++)
 		{
 			final int end = i + groupSize;
-			final String part = address.substring(i, end < len ? end : len);
+			final int start = builder.length();
 
-			builder.append(part);
-			builder.setSpan(new TypefaceSpan("monospace"), builder.length() - part.length(), builder.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
+			builder.append(address, i, end < len ? end : len);
+			builder.setSpan(monospaceSpan(group), start, builder.length(), Spannable.SPAN_EXCLUSIVE_EXCLUSIVE);
 			if (end < len)
 			{
 				final boolean endOfLine = lineSize > 0 && end % lineSize == 0;
@@ -154,6 +153,31 @@ public class WalletUtils
 		return builder;
 	}
 
+	/**
+	 * Like {@link #formatHash(String, int, int)}, but returns a shared immutable rendering. Use for list rows.
+	 */
+	public static CharSequence formatHashCached(final String address, final int groupSize, final int lineSize)
+	{
+		return HashFormatCache.get(address, groupSize, lineSize, Constants.CHAR_THIN_SPACE);
+	}
+
+	// a span can only be set once per text, but the same instances can be shared by all texts
+	private static TypefaceSpan[] monospaceSpans = new TypefaceSpan[0];
+
+	private static synchronized TypefaceSpan monospaceSpan(final int group)
+	{
+		if (group >= monospaceSpans.length)
+		{
+			final TypefaceSpan[] spans = new TypefaceSpan[group + 16];
+			System.arraycopy(monospaceSpans, 0, spans, 0, monospaceSpans.length);
+			for (int i = monospaceSpans.length; i < spans.length; i++)
+				spans[i] = new TypefaceSpan("monospace");
+			monospaceSpans = spans;
+		}
+
+		return monospaceSpans[group];
+	}
+
 	public static String formatValue(final BigInteger value, final int precision)
 	{
 		return formatValue(value, "", "-", precision);
@@ -161,22 +185,7 @@ public class WalletUtils
 
 	public static String formatValue(final BigInteger value, final String plusSign, final String minusSign, final int precision)
 	{
-		final boolean negative = value.compareTo(BigInteger.ZERO) < 0;
-		final BigInteger absValue = value.abs();
-
-		final String sign = negative ? minusSign : plusSign;
-
-		final int coins = absValue.divide(Utils.COIN).intValue();
-		final int cents = absValue.remainder(Utils.COIN).intValue();
-
-		if (cents % 1000000 == 0 || precision <= 2)
-			return String.format(Locale.US, "%s%d.%02d", sign, coins, cents / 1000000 + cents % 1000000 / 500000);
-		else if (cents % 10000 == 0 || precision <= 4)
-			return String.format(Locale.US, "%s%d.%04d", sign, coins, cents / 10000 + cents % 10000 / 5000);
-		else if (precision <= 6)
-			return String.format(Locale.US, "%s%d.%06d", sign, coins, cents / 100 + cents % 100 / 50);
-		else
-			return String.format(Locale.US, "%s%d.%08d", sign, coins, cents);
+		return NanoCoinFormat.format(value.longValue(), plusSign, minusSign, precision);
 	}
 
 	private static final Pattern P_SIGNIFICANT = Pattern.compile("^([-+]" + Constants.CHAR_THIN_SPACE + ")?\\d*(\\.\\d{0,2})?");
@@ -209,6 +218,14 @@ public class WalletUtils
 		return localValue.multiply(Utils.COIN).divide(rate);
 	}
 
+	/**
+	 * @return change from the previous value, in percent of the previous value
+	 */
+	public static float percentChange(final BigInteger value, final BigInteger previousValue)
+	{
+		return value.subtract(previousValue).floatValue() * 100 / previousValue.floatValue();
+	}
+
 	public static Address getFromAddress(final Transaction tx)
 	{
 		try